@@ -1,10 +1,32 @@
 /**
 * Class Main creates an App object and invokes the start() method to start the program.
+* Run with --server [port] to serve the App over HTTP instead of showing the GUI.
 */
 
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--server")) {
+            startServer(args.length > 1 ? Integer.parseInt(args[1]) : 8080);
+            return;
+        }
         AppGUI gui = new AppGUI();
         gui.start();
     }
+
+    /**
+     * Loads the data and serves it over HTTP until the process is stopped, then prints
+     * the throughput and latency report and saves the data.
+     * @param port the port to listen on
+     */
+    private static void startServer(int port) throws Exception {
+        App app = new App();
+        app.manageData(true);
+        ApiServer server = new ApiServer(app, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(2);
+            System.out.println(server.getStats().report());
+            app.shutdown();
+        }, "api-shutdown"));
+        server.start();
+    }
 }
@@ -0,0 +1,124 @@
+package feedforward.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the lookups of the App on generated data with 1k, 100k and 1M users, listings and tickets.
+ * The App is loaded the way the GUI loads it, from data files, so the measured structures are the real ones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class AppBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int rows; // The number of users, listings and tickets.
+
+    private Path dataDir; // The directory of the generated data.
+    private Object app; // The loaded App.
+    private String[] usernames; // The usernames of the sampled users.
+    private String[] passwords; // The passwords of the sampled users.
+    private String[] itemNames; // The item names of the sampled listings.
+    private String[] ticketIds; // The IDs of the sampled tickets.
+    private String[] sellers; // The sellers of the filter benchmark.
+    private Object cheapExpiringSoon; // The range query of the find benchmark: under $5, expiring in the next 2 days.
+
+    /**
+     * The position of a benchmark thread in the sampled keys.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next; // The index of the next key.
+
+        int advance() {
+            next = (next + 1) & (BenchData.SAMPLE - 1);
+            return next;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchData.silence();
+        dataDir = BenchData.generate(rows);
+        app = Core.newApp(dataDir.toString());
+        Core.loadApp(app);
+
+        int[] sample = BenchData.sampleRows(rows);
+        usernames = new String[sample.length];
+        passwords = new String[sample.length];
+        itemNames = new String[sample.length];
+        ticketIds = new String[sample.length];
+        sellers = new String[sample.length];
+        int businesses = (rows + 9) / 10;
+        for (int i = 0; i < sample.length; i++) {
+            usernames[i] = Core.username(sample[i]);
+            passwords[i] = Core.password(sample[i]);
+            itemNames[i] = Core.itemName(sample[i]);
+            ticketIds[i] = Core.ticketId(sample[i]);
+            sellers[i] = Core.username(sample[i] % businesses * 10);
+        }
+        long now = System.currentTimeMillis();
+        cheapExpiringSoon = Core.newListingQuery(5.0, now, now + TimeUnit.DAYS.toMillis(2), null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Core.shutdown(app);
+        BenchData.delete(dataDir);
+    }
+
+    @Benchmark
+    public boolean loginUser(Cursor cursor) {
+        int i = cursor.advance();
+        return Core.loginUser(app, usernames[i], passwords[i]);
+    }
+
+    @Benchmark
+    public Object getListingByName(Cursor cursor) {
+        return Core.getListingByName(app, itemNames[cursor.advance()]);
+    }
+
+    @Benchmark
+    public Object getCartById(Cursor cursor) {
+        return Core.getCartById(app, ticketIds[cursor.advance()]);
+    }
+
+    @Benchmark
+    public List<?> filterByCategory() {
+        return Core.filterListings(app, "Dairy", null);
+    }
+
+    @Benchmark
+    public List<?> filterByCategoryAndSeller(Cursor cursor) {
+        return Core.filterListings(app, "Dairy", sellers[cursor.advance()]);
+    }
+
+    @Benchmark
+    public List<?> findCheapExpiringSoon() {
+        return Core.findListings(app, cheapExpiringSoon);
+    }
+
+    @Benchmark
+    public List<?> searchByPrefix() {
+        return Core.searchListings(app, "brea", 20);
+    }
+}
@@ -0,0 +1,64 @@
+package feedforward.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Helpers shared by the benchmarks: temporary data directories and a quiet System.out.
+ */
+final class BenchData {
+    static final long SEED = 42; // The seed of the generated data, so every run measures the same data.
+    static final int SAMPLE = 4096; // The number of keys looked up in turn; a power of two.
+
+    private BenchData() {
+    }
+
+    /**
+     * Generates rows of each kind of data into a new temporary directory.
+     */
+    static Path generate(int rows) throws IOException {
+        Path dataDir = Files.createTempDirectory("feedforward-bench-" + rows + "-");
+        if (!Core.write(dataDir.toString(), rows, SEED)) {
+            throw new IOException("Could not write benchmark data to " + dataDir);
+        }
+        return dataDir;
+    }
+
+    /**
+     * Deletes a directory made by generate().
+     */
+    static void delete(Path dataDir) throws IOException {
+        if (dataDir == null) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dataDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Discards what the App prints, e.g. "User logged in successfully!" on every login,
+     * so the console isn't flooded. The cost of printing is still measured.
+     */
+    static void silence() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    /**
+     * Picks SAMPLE rows spread evenly over the data, in a shuffled order, so lookups
+     * touch the whole data set instead of the same few cache lines.
+     */
+    static int[] sampleRows(int rows) {
+        int[] sample = new int[SAMPLE];
+        java.util.Random random = new java.util.Random(SEED);
+        for (int i = 0; i < SAMPLE; i++) {
+            sample[i] = random.nextInt(rows);
+        }
+        return sample;
+    }
+}
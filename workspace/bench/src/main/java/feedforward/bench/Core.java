@@ -0,0 +1,362 @@
+package feedforward.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Calls into the FeedForward classes, which live in the default package.
+ * JMH only generates code for benchmarks in a named package, and a named package can't
+ * import classes from the default package, so each call goes through a MethodHandle
+ * looked up once. Constant MethodHandles are inlined by the JIT, so they add next to
+ * nothing to the measured time. Private and protected methods, such as
+ * App.getListingByName, are opened with setAccessible.
+ */
+final class Core {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final MethodHandle NEW_APP = constructor("App", String.class);
+    private static final MethodHandle MANAGE_DATA = method("App", "manageData", boolean.class);
+    private static final MethodHandle SHUTDOWN = method("App", "shutdown");
+    private static final MethodHandle LOGIN_USER = method("App", "loginUser", String.class, String.class);
+    private static final MethodHandle GET_LISTING_BY_NAME = method("App", "getListingByName", String.class);
+    private static final MethodHandle GET_CART_BY_ID = method("App", "getCartById", String.class);
+    private static final MethodHandle FILTER_LISTINGS = method("App", "filterListings", String.class, String.class);
+    private static final MethodHandle SEARCH_LISTINGS = method("App", "searchListings", String.class, int.class);
+    private static final MethodHandle FIND_LISTINGS = method("App", "findListings", type("ListingQuery"));
+
+    private static final MethodHandle NEW_FILE_MANAGEMENT = constructor("FileManagement", ArrayList[].class, String[].class);
+    private static final MethodHandle USE_LISTING_SNAPSHOT = method("FileManagement", "useListingSnapshot", int.class);
+    private static final MethodHandle SAVE_DATA = method("FileManagement", "saveData");
+    private static final MethodHandle LOAD_DATA = method("FileManagement", "loadData");
+    private static final MethodHandle NEW_FILE_READER = constructor("FileManagement", String[].class);
+    private static final MethodHandle LOAD_FILE = method("FileManagement", "loadFile", int.class);
+
+    private static final MethodHandle NEW_LISTING_INDEX = constructor("ListingIndex");
+    private static final MethodHandle REBUILD_INDEX = method("ListingIndex", "rebuild", Collection.class);
+
+    private static final MethodHandle NEW_LISTING_COLUMNS = constructor("ListingColumns", int.class);
+    private static final MethodHandle ADD_ROW = method("ListingColumns", "add", long.class, long.class, int.class, int.class);
+    private static final MethodHandle SCAN = method("ListingColumns", "scan", type("ListingQuery"));
+    private static final MethodHandle REPRICE = method("ListingColumns", "reprice", type("MarkdownCurve").arrayType(),
+            long.class);
+    private static final MethodHandle PARSE_MARKDOWN = method("MarkdownCurve", "parse", String.class);
+    private static final MethodHandle NEW_LISTING_QUERY = constructor("ListingQuery");
+    private static final MethodHandle MAX_PRICE = method("ListingQuery", "maxPrice", double.class);
+    private static final MethodHandle EXPIRING_BETWEEN = method("ListingQuery", "expiringBetween", long.class, long.class);
+    private static final MethodHandle CATEGORY = method("ListingQuery", "category", String.class);
+    private static final Object CATEGORIES = staticField("StringDictionary", "CATEGORIES");
+    private static final MethodHandle ENCODE = method("StringDictionary", "encode", String.class);
+
+    private static final MethodHandle GENERATE = method("DataGenerator", "generate", int.class, long.class);
+    private static final MethodHandle GENERATE_CATALOG = method("DataGenerator", "generate", int.class, long.class, int.class);
+    private static final MethodHandle WRITE = method("DataGenerator", "write", String.class, int.class, long.class);
+    private static final MethodHandle WRITE_CATALOG = method("DataGenerator", "write", String.class, int.class, long.class,
+            int.class);
+    private static final MethodHandle USERNAME = method("DataGenerator", "username", int.class);
+    private static final MethodHandle PASSWORD = method("DataGenerator", "password", int.class);
+    private static final MethodHandle ITEM_NAME = method("DataGenerator", "itemName", int.class);
+    private static final MethodHandle TICKET_ID = method("DataGenerator", "ticketId", int.class);
+
+    private Core() {
+    }
+
+    static Object newApp(String dataDir) {
+        try {
+            return NEW_APP.invoke(dataDir);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void loadApp(Object app) {
+        try {
+            MANAGE_DATA.invoke(app, true);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void shutdown(Object app) {
+        try {
+            SHUTDOWN.invoke(app);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static boolean loginUser(Object app, String username, String password) {
+        try {
+            return (boolean) LOGIN_USER.invoke(app, username, password);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object getListingByName(Object app, String name) {
+        try {
+            return GET_LISTING_BY_NAME.invoke(app, name);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object getCartById(Object app, String ticketId) {
+        try {
+            return GET_CART_BY_ID.invoke(app, ticketId);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static List<?> filterListings(Object app, String category, String seller) {
+        try {
+            return (List<?>) FILTER_LISTINGS.invoke(app, category, seller);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static List<?> searchListings(Object app, String query, int limit) {
+        try {
+            return (List<?>) SEARCH_LISTINGS.invoke(app, query, limit);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static List<?> findListings(Object app, Object query) {
+        try {
+            return (List<?>) FIND_LISTINGS.invoke(app, query);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object newListingColumns(int expected) {
+        try {
+            return NEW_LISTING_COLUMNS.invoke(expected);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static int addRow(Object columns, long priceCents, long expiresAt, int category, int seller) {
+        try {
+            return (int) ADD_ROW.invoke(columns, priceCents, expiresAt, category, seller);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static int[] scan(Object columns, Object query) {
+        try {
+            return (int[]) SCAN.invoke(columns, query);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static int reprice(Object columns, Object curves, long now) {
+        try {
+            return (int) REPRICE.invoke(columns, curves, now);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Builds the MarkdownCurve[] ListingColumns.reprice takes, giving one curve to every nth seller code.
+     */
+    static Object markdownCurves(String curve, int sellers, int every) {
+        try {
+            Object markdown = PARSE_MARKDOWN.invoke(curve);
+            Object curves = Array.newInstance(type("MarkdownCurve"), sellers);
+            for (int seller = 0; seller < sellers; seller += every) {
+                Array.set(curves, seller, markdown);
+            }
+            return curves;
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Builds a ListingQuery for listings up to a price which expire in a range, optionally in one category.
+     */
+    static Object newListingQuery(double maxPrice, long expiresFrom, long expiresTo, String category) {
+        try {
+            Object query = NEW_LISTING_QUERY.invoke();
+            MAX_PRICE.invoke(query, maxPrice);
+            EXPIRING_BETWEEN.invoke(query, expiresFrom, expiresTo);
+            CATEGORY.invoke(query, category);
+            return query;
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static int categoryCode(String category) {
+        try {
+            return (int) ENCODE.invoke(CATEGORIES, category);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object newFileManagement(ArrayList<?>[] data, String[] fileNames) {
+        try {
+            Object files = NEW_FILE_MANAGEMENT.invoke(data, fileNames);
+            USE_LISTING_SNAPSHOT.invoke(files, 1);
+            return files;
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static boolean saveFiles(Object files) {
+        try {
+            return (boolean) SAVE_DATA.invoke(files);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static ArrayList<?>[] loadFiles(Object files) {
+        try {
+            return (ArrayList<?>[]) LOAD_DATA.invoke(files);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static ArrayList<?> loadFile(String[] fileNames, int index) {
+        try {
+            Object files = NEW_FILE_READER.invoke(fileNames);
+            USE_LISTING_SNAPSHOT.invoke(files, 1);
+            return (ArrayList<?>) LOAD_FILE.invoke(files, index);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object newListingIndex(Collection<?> listings) {
+        try {
+            Object index = NEW_LISTING_INDEX.invoke();
+            REBUILD_INDEX.invoke(index, listings);
+            return index;
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static ArrayList<?>[] generate(int rows, long seed, int catalog) {
+        try {
+            return (ArrayList<?>[]) GENERATE_CATALOG.invoke(rows, seed, catalog);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static boolean write(String dataDir, int rows, long seed, int catalog) {
+        try {
+            return (boolean) WRITE_CATALOG.invoke(dataDir, rows, seed, catalog);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static ArrayList<?>[] generate(int rows, long seed) {
+        try {
+            return (ArrayList<?>[]) GENERATE.invoke(rows, seed);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static boolean write(String dataDir, int rows, long seed) {
+        try {
+            return (boolean) WRITE.invoke(dataDir, rows, seed);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static String username(int row) {
+        return name(USERNAME, row);
+    }
+
+    static String password(int row) {
+        return name(PASSWORD, row);
+    }
+
+    static String itemName(int row) {
+        return name(ITEM_NAME, row);
+    }
+
+    static String ticketId(int row) {
+        return name(TICKET_ID, row);
+    }
+
+    private static String name(MethodHandle generator, int row) {
+        try {
+            return (String) generator.invoke(row);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new IllegalStateException(e);
+    }
+
+    private static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("FeedForward class " + name + " is not on the class path", e);
+        }
+    }
+
+    private static MethodHandle constructor(String type, Class<?>... parameters) {
+        try {
+            Constructor<?> constructor = type(type).getDeclaredConstructor(parameters);
+            constructor.setAccessible(true);
+            return LOOKUP.unreflectConstructor(constructor);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No constructor of " + type, e);
+        }
+    }
+
+    private static Object staticField(String type, String name) {
+        try {
+            Field field = type(type).getDeclaredField(name);
+            field.setAccessible(true);
+            return field.get(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No field " + type + "." + name, e);
+        }
+    }
+
+    private static MethodHandle method(String type, String name, Class<?>... parameters) {
+        try {
+            Method method = type(type).getDeclaredMethod(name, parameters);
+            method.setAccessible(true);
+            return LOOKUP.unreflect(method);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No method " + type + "." + name, e);
+        }
+    }
+}
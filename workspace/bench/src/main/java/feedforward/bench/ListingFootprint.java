@@ -0,0 +1,153 @@
+package feedforward.bench;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the heap each loaded Listing takes, on its own and with its entry in a ListingIndex, by
+ * comparing the heap used after a full collection before and after the listings are loaded. Shared
+ * data, such as the seller and category dictionaries and shared items, is counted too, spread over
+ * the listings.
+ *
+ * Each measurement runs in a JVM of its own, started by this one, so nothing loaded by an earlier
+ * measurement is counted as already paid for. Listings are measured both with an item of their own
+ * and relisting a catalog of items, loaded from a listing snapshot and from journal records, which
+ * are saved with Serialization one listing at a time.
+ *
+ * Usage: java -cp benchmarks.jar feedforward.bench.ListingFootprint [rows] [catalog]
+ */
+public final class ListingFootprint {
+    private static final String RECORDS_FILE = "listings.ser"; // The listings, saved with Serialization one at a time.
+    private static final String[] SOURCES = {"snapshot", "journal"}; // The ways listings are loaded.
+
+    private ListingFootprint() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("write")) {
+            write(Paths.get(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("measure")) {
+            measure(Paths.get(args[1]), args[2]);
+            return;
+        }
+
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int catalog = args.length > 1 ? Integer.parseInt(args[1]) : Math.max(1, rows / 100);
+        System.out.printf("%-10s %-8s %-10s %10s %10s%n", "listings", "items", "loaded", "listing", "indexed");
+        for (int items : new int[] {0, catalog}) {
+            Path dataDir = Files.createTempDirectory("feedforward-footprint-");
+            try {
+                fork("write", dataDir.toString(), String.valueOf(rows), String.valueOf(items));
+                for (String source : SOURCES) {
+                    String[] bytes = fork("measure", dataDir.toString(), source).split(" ");
+                    System.out.printf("%-10d %-8s %-10s %10.1f %10.1f%n", rows, items == 0 ? "own" : String.valueOf(items),
+                            source, Double.parseDouble(bytes[0]) / rows, Double.parseDouble(bytes[1]) / rows);
+                }
+            } finally {
+                BenchData.delete(dataDir);
+            }
+        }
+    }
+
+    /**
+     * Runs this class in a new JVM with the serial collector, whose full collections leave only live objects,
+     * and returns the last line it prints.
+     */
+    private static String fork(String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-XX:+UseSerialGC");
+        command.add("-Xmx4g");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ListingFootprint.class.getName());
+        command.addAll(List.of(args));
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        String last = null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                last = line;
+            }
+        }
+        if (process.waitFor() != 0 || last == null) {
+            throw new IOException("Footprint step " + args[0] + " failed");
+        }
+        return last;
+    }
+
+    /**
+     * Writes generated data to a directory, and its listings to a file of their own with Serialization,
+     * resetting the stream after each one so, like journal records, they share no objects.
+     */
+    private static void write(Path dataDir, int rows, int catalog) throws IOException {
+        PrintStream out = System.out;
+        BenchData.silence();
+        if (!Core.write(dataDir.toString(), rows, BenchData.SEED, catalog)) {
+            throw new IOException("Could not write footprint data to " + dataDir);
+        }
+        ArrayList<?> listings = Core.generate(rows, BenchData.SEED, catalog)[1];
+        try (ObjectOutputStream objectOut = new ObjectOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(dataDir.resolve(RECORDS_FILE)), 1 << 16))) {
+            objectOut.writeInt(listings.size());
+            for (Object listing : listings) {
+                objectOut.writeObject(listing);
+                objectOut.reset();
+            }
+        }
+        out.println("written");
+    }
+
+    /**
+     * Loads the listings in a directory, indexes them, and prints the heap they retain,
+     * without and with the index.
+     */
+    private static void measure(Path dataDir, String source) throws IOException, ClassNotFoundException {
+        PrintStream out = System.out;
+        BenchData.silence();
+        long before = usedHeap();
+        ArrayList<?> listings;
+        if (source.equals("snapshot")) {
+            String[] fileNames = {dataDir.resolve("savedUsers.dat").toString(),
+                    dataDir.resolve("savedListings.dat").toString(), dataDir.resolve("savedTickets.dat").toString()};
+            listings = Core.loadFile(fileNames, 1);
+        } else {
+            try (ObjectInputStream objectIn = new ObjectInputStream(new BufferedInputStream(
+                    Files.newInputStream(dataDir.resolve(RECORDS_FILE)), 1 << 16))) {
+                int count = objectIn.readInt();
+                ArrayList<Object> records = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    records.add(objectIn.readObject());
+                }
+                listings = records;
+            }
+        }
+        long loaded = usedHeap();
+        Object index = Core.newListingIndex(listings);
+        long indexed = usedHeap();
+        Reference.reachabilityFence(listings);
+        Reference.reachabilityFence(index);
+        out.println((loaded - before) + " " + (indexed - before));
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
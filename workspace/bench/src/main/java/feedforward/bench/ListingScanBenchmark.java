@@ -0,0 +1,75 @@
+package feedforward.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks range scans of ListingColumns with 1M and 10M rows, e.g. "under $5, expiring in the next 2 days",
+ * and markdown passes which reprice every row, with half the sellers marking down by "3:20,1:50".
+ * The columns are filled directly rather than from Listings, so 10M rows fit in the heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class ListingScanBenchmark {
+    private static final long ONE_DAY = TimeUnit.DAYS.toMillis(1); // The length of a day, in milliseconds.
+    private static final String[] CATEGORIES = {"Bakery", "Canned Food", "Dairy", "Meat", "Produce", "Other"}; // The categories of the GUI.
+
+    @Param({"1000000", "10000000"})
+    public int rows; // The number of rows in the columns.
+
+    private Object columns; // The filled ListingColumns.
+    private Object cheapExpiringSoon; // Under $5, expiring in the next 2 days.
+    private Object cheapDairyExpiringSoon; // The same, in the Dairy category only.
+    private Object curves; // The markdown curve of every other seller.
+    private long now; // The time the rows expire from.
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] codes = new int[CATEGORIES.length];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = Core.categoryCode(CATEGORIES[i]);
+        }
+        now = System.currentTimeMillis();
+        Random random = new Random(BenchData.SEED);
+        columns = Core.newListingColumns(rows);
+        for (int row = 0; row < rows; row++) {
+            Core.addRow(columns, 50 + random.nextInt(2000), now + random.nextInt(30) * ONE_DAY + random.nextInt((int) ONE_DAY),
+                    codes[random.nextInt(codes.length)], random.nextInt(Math.max(1, rows / 10)));
+        }
+        cheapExpiringSoon = Core.newListingQuery(5.0, now, now + 2 * ONE_DAY, null);
+        cheapDairyExpiringSoon = Core.newListingQuery(5.0, now, now + 2 * ONE_DAY, "Dairy");
+        curves = Core.markdownCurves("3:20,1:50", Math.max(1, rows / 10), 2);
+    }
+
+    @Benchmark
+    public int[] scanCheapExpiringSoon() {
+        return Core.scan(columns, cheapExpiringSoon);
+    }
+
+    @Benchmark
+    public int[] scanCheapDairyExpiringSoon() {
+        return Core.scan(columns, cheapDairyExpiringSoon);
+    }
+
+    @Benchmark
+    public int repriceAll() {
+        return Core.reprice(columns, curves, now);
+    }
+}
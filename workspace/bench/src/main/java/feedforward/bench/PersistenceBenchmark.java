@@ -0,0 +1,68 @@
+package feedforward.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks FileManagement.saveData and loadData of generated users, listings and tickets,
+ * stored the way App.manageData stores them (listings as a ListingSnapshot).
+ * Each call is timed on its own, since a call at 1M rows takes seconds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class PersistenceBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int rows; // The number of users, listings and tickets.
+
+    private Path dataDir; // The directory the data is saved in.
+    private Object files; // The FileManagement of the generated data.
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchData.silence();
+        ArrayList<?>[] data = Core.generate(rows, BenchData.SEED);
+        dataDir = Files.createTempDirectory("feedforward-bench-" + rows + "-");
+        String[] fileNames = {dataDir.resolve("savedUsers.dat").toString(),
+                dataDir.resolve("savedListings.dat").toString(), dataDir.resolve("savedTickets.dat").toString()};
+        files = Core.newFileManagement(data, fileNames);
+        if (!Core.saveFiles(files)) {
+            throw new IOException("Could not write benchmark data to " + dataDir);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchData.delete(dataDir);
+    }
+
+    @Benchmark
+    public boolean saveData() {
+        return Core.saveFiles(files);
+    }
+
+    @Benchmark
+    public ArrayList<?>[] loadData() {
+        return Core.loadFiles(files);
+    }
+}
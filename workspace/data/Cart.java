@@ -8,6 +8,7 @@ import java.util.ArrayList;
  * @author Muhammad Daud
  */
 class Cart implements Serializable {
+    private static final long serialVersionUID = 6884676886133316313L; //Pinned so saved files stay readable as the class changes.
     private ArrayList<FoodItem> items;
 
     /**
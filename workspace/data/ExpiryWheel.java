@@ -0,0 +1,130 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * This class is a hierarchical timing wheel which finds Listings once they expire.
+ * Time is counted in ticks of tickMillis. Level 0 has one slot per tick, and each
+ * level above has slots 64 times as wide as the level below it. A Listing is put in
+ * the slot of the lowest level which can hold its expiry, and is moved down a level
+ * when the wheel below wraps around, so scheduling and expiring a Listing are O(1).
+ * Listings which are removed early (e.g. sold) stay in the wheel and are passed to
+ * the consumer when they would have expired, so the consumer must ignore them.
+ */
+public class ExpiryWheel {
+    private static final int SLOT_BITS = 6; // Each level has 2^6 = 64 slots.
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 4; // With one minute ticks, level 3 spans about 31 years.
+
+    private final long tickMillis; // The length of one tick.
+    private final ArrayList<Listing>[][] slots; // The Listings in each slot, by level.
+    private long currentTick; // The last tick which has been processed.
+    private int size; // The number of Listings in the wheel.
+
+    /**
+     * Constructs an empty ExpiryWheel.
+     *
+     * @param tickMillis the length of one tick, which is also the precision of expiry
+     * @param now the current time, in milliseconds since the epoch
+     */
+    @SuppressWarnings("unchecked") // an array of a generic type can only be created with a wildcard and cast
+    public ExpiryWheel(long tickMillis, long now) {
+        this.tickMillis = tickMillis;
+        this.slots = (ArrayList<Listing>[][]) new ArrayList<?>[LEVELS][SLOTS];
+        this.currentTick = now / tickMillis;
+    }
+
+    /**
+     * Schedules a Listing to expire at its expiry instant.
+     *
+     * @param listing the Listing to schedule
+     * @return false if the Listing has already expired, in which case it is not scheduled
+     */
+    public synchronized boolean schedule(Listing listing) {
+        long tick = tickOf(listing);
+        if (tick <= currentTick) {
+            return false;
+        }
+        place(listing, tick);
+        size++;
+        return true;
+    }
+
+    /**
+     * Moves the wheel forward to the specified time, handing every Listing which has
+     * expired on the way to the consumer.
+     *
+     * @param now the current time, in milliseconds since the epoch
+     * @param expired the consumer of the expired Listings
+     * @return the number of Listings handed to the consumer
+     */
+    public synchronized int advance(long now, Consumer<Listing> expired) {
+        long targetTick = now / tickMillis;
+        int count = 0;
+        while (currentTick < targetTick) {
+            currentTick++;
+            cascade(1);
+            ArrayList<Listing> slot = slots[0][(int) (currentTick & (SLOTS - 1))];
+            if (slot != null && !slot.isEmpty()) {
+                slots[0][(int) (currentTick & (SLOTS - 1))] = null;
+                for (Listing listing : slot) {
+                    expired.accept(listing);
+                }
+                count += slot.size();
+                size -= slot.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of Listings in the wheel
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Moves the Listings of the current slot of a level down to the levels below it,
+     * once every level below has wrapped around.
+     */
+    private void cascade(int level) {
+        if (level >= LEVELS || (currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+            return;
+        }
+        cascade(level + 1);
+        int index = (int) ((currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+        ArrayList<Listing> slot = slots[level][index];
+        if (slot != null) {
+            slots[level][index] = null;
+            for (Listing listing : slot) {
+                place(listing, Math.max(currentTick, tickOf(listing)));
+            }
+        }
+    }
+
+    /**
+     * Rounds the expiry of a Listing up to a tick, so it is never handed out early.
+     */
+    private long tickOf(Listing listing) {
+        return Math.floorDiv(listing.getExpiresAt() + tickMillis - 1, tickMillis);
+    }
+
+    private void place(Listing listing, long tick) {
+        long delta = tick - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        if (level == LEVELS - 1) {
+            // Expiries beyond the top level wait in its furthest slot and are placed again later.
+            tick = Math.min(tick, currentTick + (1L << (SLOT_BITS * LEVELS)) - 1);
+        }
+        int index = (int) ((tick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+        List<Listing> slot = slots[level][index];
+        if (slot == null) {
+            slot = slots[level][index] = new ArrayList<>();
+        }
+        slot.add(listing);
+    }
+}
@@ -1,17 +1,34 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
 
 /**
  * This class represents a food item which is used by businesses to create Listings.
- * 
+ * FoodItems never change, so identical items listed by businesses are shared: FoodItem.of() returns
+ * the one instance of each name, price and type while any Listing, cart or ticket still holds it,
+ * and a business relisting an item reuses it. Items created any other way, e.g. marked down copies,
+ * imported rows or items read from saved files, are not shared.
+ *
  * @author Hassan Omran
  */
 class FoodItem implements Serializable {
+    private static final long serialVersionUID = 5460137196409165221L; //Pinned so saved files stay readable as the class changes.
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("name", String.class),
+            new ObjectStreamField("price", double.class),
+            new ObjectStreamField("type", String.class)}; //The fields saved files have always stored, with the type as a string.
+    private static final WeakHashMap<FoodItem, WeakReference<FoodItem>> shared = new WeakHashMap<>(); //The shared instance of each item, held weakly so items nothing holds are dropped, guarded by the class lock.
     private String name; //The name of the item.
     private double price; //The price of the item
-    private String type; //The type of the item (e.g., Bakery, Canned food, etc.)
+    private int type; //The code of the type of the item (e.g., Bakery, Canned food, etc.) in StringDictionary.CATEGORIES
 
     /**
      * Constructs a FoodItem object with the specified name, price, and type.
+     * The item is not shared; use FoodItem.of() to get the shared instance.
      *
      * @param name  The name of the FoodItem.
      * @param price The price of the FoodItem.
@@ -20,7 +37,52 @@ class FoodItem implements Serializable {
     public FoodItem(String name, double price, String type) {
         this.name = name;
         this.price = price;
-        this.type = type;
+        this.type = StringDictionary.CATEGORIES.encode(type);
+    }
+
+    /**
+     * Returns the shared FoodItem with the specified name, price, and type, creating it the first time.
+     *
+     * @param name  The name of the FoodItem.
+     * @param price The price of the FoodItem.
+     * @param type  The type of the FoodItem.
+     * @return The shared FoodItem.
+     */
+    public static FoodItem of(String name, double price, String type) {
+        return share(new FoodItem(name, price, type));
+    }
+
+    /**
+     * Returns the shared instance of an item, making the item itself the shared instance the first time.
+     * The table only refers to items weakly, so once no Listing, cart or ticket holds an item it is
+     * collected and its entry is dropped.
+     */
+    private static synchronized FoodItem share(FoodItem item) {
+        WeakReference<FoodItem> reference = shared.get(item);
+        FoodItem existing = reference == null ? null : reference.get();
+        if (existing != null) {
+            return existing;
+        }
+        shared.put(item, new WeakReference<>(item));
+        return item;
+    }
+
+    /**
+     * Writes the type as a string, so saved files don't depend on the codes of this run.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("name", name);
+        fields.put("price", price);
+        fields.put("type", getType());
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        name = (String) fields.get("name", null);
+        price = fields.get("price", 0.0);
+        type = StringDictionary.CATEGORIES.encode((String) fields.get("type", null));
     }
 
     /**
@@ -47,6 +109,30 @@ class FoodItem implements Serializable {
      * @return The type of the FoodItem.
      */
     public String getType(){
-        return type;
+        return StringDictionary.CATEGORIES.decode(type);
+    }
+
+    /**
+     * Checks whether another FoodItem has the same name, price, and type.
+     *
+     * @param other The object to compare with.
+     * @return true if the items are identical.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof FoodItem)) {
+            return false;
+        }
+        FoodItem item = (FoodItem) other;
+        return type == item.type && Double.compare(price, item.price) == 0
+                && (name == null ? item.name == null : name.equals(item.name));
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * (name == null ? 0 : name.hashCode()) + Double.hashCode(price)) + type;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,142 @@
+/**
+ * This class maps int keys to non-negative int values, e.g. listing IDs to ordinals in ListingIndex.
+ * Keys and values are stored in two int arrays with open addressing, so an entry takes about
+ * 16 bytes instead of the 70 or so of a HashMap with a node and two boxed Integers.
+ * It is not safe to use from several threads at once; ListingIndex guards it with its lock.
+ */
+public class IntIntMap {
+    public static final int MISSING = -1; // Returned by get() and remove() for a key which is not in the map.
+    private static final int MIN_CAPACITY = 16; // The smallest table, a power of two.
+
+    private int[] keys; // The key of each slot.
+    private int[] values; // The value of each slot plus 1, or 0 for an empty slot.
+    private int size; // The number of entries.
+
+    /**
+     * Constructs an empty map with room for an expected number of entries.
+     *
+     * @param expected the number of entries the map should hold without growing
+     */
+    public IntIntMap(int expected) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expected * 2L && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        values = new int[capacity];
+    }
+
+    /**
+     * @param key the key
+     * @return the value of the key, or MISSING if the key is not in the map
+     */
+    public int get(int key) {
+        int slot = find(key);
+        return slot < 0 ? MISSING : values[slot] - 1;
+    }
+
+    /**
+     * @param key the key
+     * @return true if the key is in the map
+     */
+    public boolean containsKey(int key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Maps a key to a value, replacing any value it had.
+     *
+     * @param key the key
+     * @param value the value, at least 0
+     */
+    public void put(int key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Values must not be negative");
+        }
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (values[slot] != 0) {
+            if (keys[slot] == key) {
+                values[slot] = value + 1;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value + 1;
+        if (++size * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+    }
+
+    /**
+     * Removes a key. The entries after it are moved back, so lookups never need to skip deleted slots.
+     *
+     * @param key the key
+     * @return the value the key had, or MISSING if it was not in the map
+     */
+    public int remove(int key) {
+        int slot = find(key);
+        if (slot < 0) {
+            return MISSING;
+        }
+        int value = values[slot] - 1;
+        int mask = keys.length - 1;
+        int gap = slot;
+        for (int next = (gap + 1) & mask; values[next] != 0; next = (next + 1) & mask) {
+            int home = hash(keys[next]) & mask;
+            // Move the entry into the gap unless its home slot lies after the gap, so it would no longer be found.
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        values[gap] = 0;
+        size--;
+        return value;
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    private int find(int key) {
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; values[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[capacity];
+        values = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != 0) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (values[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Spreads the bits of a key, since listing IDs are sequential and would otherwise fill runs of slots.
+     */
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -1,26 +1,56 @@
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.Calendar;
 
 /**
  * The Listing class stores a FoodItem object and adds additional fields based on the seller.
+ * The seller and type are kept as codes in StringDictionary.SELLERS and StringDictionary.CATEGORIES
+ * and an item listed with FoodItem.of() is shared with every Listing of it, so a Listing holds no strings of its own.
  * 
  * @author Hassan Omran
  */
 
 public class Listing implements Serializable {
-    private static int nextId = 1; //The next identification number to be used.
+    private static final long serialVersionUID = -4678307814388945816L; //Pinned so saved files stay readable as the class changes.
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("dd-MM-yyyy").withZone(ZoneId.systemDefault()); //Thread-safe, so it is shared.
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("id", int.class),
+            new ObjectStreamField("item", FoodItem.class),
+            new ObjectStreamField("seller", String.class),
+            new ObjectStreamField("dateAdded", Date.class),
+            new ObjectStreamField("expiryDays", int.class),
+            new ObjectStreamField("type", String.class),
+            new ObjectStreamField("expiresAt", long.class),
+            new ObjectStreamField("quantity", int.class)}; //The fields saved files have always stored, with strings and a Date.
+    private static volatile ListingIdAllocator ids = new ListingIdAllocator(); //Hands out identification numbers.
+    private static final AtomicIntegerFieldUpdater<Listing> AVAILABLE =
+            AtomicIntegerFieldUpdater.newUpdater(Listing.class, "available"); //Compare-and-sets available without a lock.
+    private static final AtomicIntegerFieldUpdater<Listing> QUANTITY =
+            AtomicIntegerFieldUpdater.newUpdater(Listing.class, "quantity"); //Compare-and-sets quantity without a lock.
     private int id; //The identification number of the Listing.
     private FoodItem item; //A FoodItem object.
-    private String seller; //The name of the business selling the product.
-    private Date dateAdded; // The date and time when the listing was added.
+    private int seller; //The code of the name of the business selling the product.
+    private long dateAdded; // The date and time when the listing was added, in milliseconds since the epoch.
     private int expiryDays; // The number of days until the item expires.
-    private String type; // The type of the item in this listing
+    private int type; // The code of the type of the item in this listing
+    private long expiresAt; // The instant the item expires, in milliseconds since the epoch.
+    private volatile int quantity; // The number of units which have not been sold.
+    private transient volatile int available; // The number of units which are neither sold nor reserved.
+    private transient String label; // The display label, built on first use; the fields it shows never change.
+    private transient volatile MarkedDownLabel markedDownLabel; // The display label at the last marked down price, or null.
 
     /**
      * Constructs a Listing object which has a FoodItem associated with it.
-     * Gives the Listing a unique ID number which is incremented by 1 for each new listing.
+     * Gives the Listing a unique ID number from the ListingIdAllocator in use.
      *
      * @param item       The FoodItem associated with the listing.
      * @param seller     The name of the business selling the product.
@@ -29,12 +59,117 @@ public class Listing implements Serializable {
      */
 
     public Listing(FoodItem item, String seller, int expiryDays, String type) {
-        this.id = nextId++;
+        this(item, seller, expiryDays, type, 1);
+    }
+
+    /**
+     * Constructs a Listing object which offers several units of a FoodItem, e.g. 40 loaves of bread.
+     *
+     * @param item       The FoodItem associated with the listing.
+     * @param seller     The name of the business selling the product.
+     * @param expiryDays The number of days until the item expires.
+     * @param type       The type of the item.
+     * @param quantity   The number of units offered, at least 1.
+     */
+    public Listing(FoodItem item, String seller, int expiryDays, String type, int quantity) {
+        if (quantity < 1) {
+            throw new IllegalArgumentException("A listing must offer at least one unit");
+        }
+        this.id = ids.next();
         this.item = item;
-        this.seller = seller;
-        this.dateAdded = new Date();
+        this.seller = StringDictionary.SELLERS.encode(seller);
+        this.dateAdded = System.currentTimeMillis();
         this.expiryDays = expiryDays;
-        this.type = type;
+        this.type = StringDictionary.CATEGORIES.encode(type);
+        this.expiresAt = calculateExpiresAt(dateAdded, expiryDays);
+        this.quantity = quantity;
+        this.available = quantity;
+    }
+
+    /**
+     * Constructs a Listing object with fields which were saved earlier, e.g. in a listing snapshot.
+     *
+     * @param id         The ID number of the listing.
+     * @param item       The FoodItem associated with the listing.
+     * @param seller     The name of the business selling the product.
+     * @param dateAdded  The time the listing was added, in milliseconds since the epoch.
+     * @param expiryDays The number of days until the item expires.
+     * @param type       The type of the item.
+     * @param quantity   The number of units which have not been sold.
+     */
+    Listing(int id, FoodItem item, String seller, long dateAdded, int expiryDays, String type, int quantity) {
+        this.id = id;
+        this.item = item;
+        this.seller = StringDictionary.SELLERS.encode(seller);
+        this.dateAdded = dateAdded;
+        this.expiryDays = expiryDays;
+        this.type = StringDictionary.CATEGORIES.encode(type);
+        this.expiresAt = calculateExpiresAt(dateAdded, expiryDays);
+        this.quantity = quantity;
+        this.available = quantity;
+    }
+
+    /**
+     * Writes a Listing with Serialization, with the seller and type as strings and the date added as a Date,
+     * so saved files don't depend on the codes of this run and stay readable by older versions.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("id", id);
+        fields.put("item", item);
+        fields.put("seller", getSeller());
+        fields.put("dateAdded", new Date(dateAdded));
+        fields.put("expiryDays", expiryDays);
+        fields.put("type", getType());
+        fields.put("expiresAt", expiresAt);
+        fields.put("quantity", quantity);
+        out.writeFields();
+    }
+
+    /**
+     * Reads a Listing which was saved with Serialization.
+     * Listings saved before the expiry instant was stored have it calculated once here,
+     * and listings saved before quantities were stored offer a single unit.
+     * Reservations are not saved, so every unsold unit is available again.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        id = fields.get("id", 0);
+        item = (FoodItem) fields.get("item", null);
+        seller = StringDictionary.SELLERS.encode((String) fields.get("seller", null));
+        Date date = (Date) fields.get("dateAdded", null);
+        dateAdded = date == null ? 0 : date.getTime();
+        expiryDays = fields.get("expiryDays", 0);
+        type = StringDictionary.CATEGORIES.encode((String) fields.get("type", null));
+        expiresAt = fields.get("expiresAt", 0L);
+        quantity = fields.get("quantity", 0);
+        if (expiresAt == 0) {
+            expiresAt = calculateExpiresAt(dateAdded, expiryDays);
+        }
+        if (quantity == 0) {
+            quantity = 1;
+        }
+        available = quantity;
+    }
+
+    /**
+     * Makes new Listings take their IDs from the given allocator, e.g. one which resumes
+     * at the high-water mark saved by an earlier run.
+     *
+     * @param allocator the allocator
+     */
+    static void useIdAllocator(ListingIdAllocator allocator) {
+        ids = allocator;
+    }
+
+    /**
+     * Makes sure IDs handed out from now on are greater than the given ID.
+     * Called for every listing loaded from disk, in case its ID is above the saved high-water mark.
+     *
+     * @param id an ID which is already in use
+     */
+    static void reserveId(int id) {
+        ids.reserve(id);
     }
 
     /**
@@ -70,6 +205,15 @@ public class Listing implements Serializable {
      * @return The name of the seller.
      */
     public String getSeller() {
+        return StringDictionary.SELLERS.decode(seller);
+    }
+
+    /**
+     * Returns the code of the seller in StringDictionary.SELLERS.
+     *
+     * @return The code of the seller.
+     */
+    int getSellerCode() {
         return seller;
     }
 
@@ -79,8 +223,25 @@ public class Listing implements Serializable {
      * @return The date and time of the listing.
      */
     public String getDateAdded(){
-        SimpleDateFormat dateFormat = new SimpleDateFormat("dd-MM-yyyy");
-        return dateFormat.format(dateAdded);
+        return DATE_FORMAT.format(Instant.ofEpochMilli(dateAdded));
+    }
+
+    /**
+     * Returns the time when the listing was added.
+     *
+     * @return The time, in milliseconds since the epoch.
+     */
+    long getDateAddedMillis() {
+        return dateAdded;
+    }
+
+    /**
+     * Returns the number of days, counted from the date added, until the item expires.
+     *
+     * @return The number of days.
+     */
+    int getExpiryDays() {
+        return expiryDays;
     }
 
     /**
@@ -89,21 +250,152 @@ public class Listing implements Serializable {
      * @return The expiration date.
      */
     public String getExpirationDate() {
-        Date expirationDate = calculateExpirationDate();
-        SimpleDateFormat dateFormat = new SimpleDateFormat("dd-MM-yyyy");
-        return dateFormat.format(expirationDate);
+        return DATE_FORMAT.format(Instant.ofEpochMilli(expiresAt));
     }
 
     /**
-     * Calculates and returns the expiration date based on the date added and the expiry days.
+     * Returns the label which describes the listing in the browse screen.
+     * The label is built once and reused, so redrawing or filtering the listings does not
+     * allocate anything per listing. The item, seller, type and expiry it shows are never
+     * changed once the listing is constructed, so the label never goes stale; only the
+     * quantity changes, and it is not part of the label.
      *
-     * @return The expiration date.
+     * @return The label, e.g. "Item: Bread, Price: $1.0, Seller: ..., Category: ..., Expiry Date: ...".
+     */
+    public String getDisplayLabel() {
+        String cached = label;
+        if (cached == null) {
+            cached = "Item: " + item.getName() +
+                    ", Price: $" + item.getPrice() +
+                    ", Seller: " + getSeller() +
+                    ", Category: " + getType() +
+                    ", Expiry Date: " + getExpirationDate();
+            label = cached;
+        }
+        return cached;
+    }
+
+    /**
+     * Returns the display label at a price other than the item's, e.g. while the listing is marked down.
+     * The label at the last marked down price is cached too, and only rebuilt when the price changes,
+     * which happens at most once per pricing pass.
+     *
+     * @param price the current price of the listing, in dollars
+     * @return the display label, showing the item's price as the old price if the current one is lower
+     */
+    public String getDisplayLabel(double price) {
+        if (price >= item.getPrice()) {
+            return getDisplayLabel();
+        }
+        MarkedDownLabel cached = markedDownLabel;
+        if (cached == null || cached.price != price) {
+            cached = new MarkedDownLabel(price, "Item: " + item.getName() +
+                    ", Price: $" + price + " (was $" + item.getPrice() + ")" +
+                    ", Seller: " + getSeller() +
+                    ", Category: " + getType() +
+                    ", Expiry Date: " + getExpirationDate());
+            markedDownLabel = cached;
+        }
+        return cached.text;
+    }
+
+    /**
+     * Returns the number of units which have not been sold, including reserved units.
+     *
+     * @return The number of unsold units.
      */
-    private Date calculateExpirationDate() {
+    public int getQuantity() {
+        return quantity;
+    }
+
+    /**
+     * Returns the number of units which can still be put in a cart.
+     *
+     * @return The number of units which are neither sold nor reserved.
+     */
+    public int getAvailable() {
+        return available;
+    }
+
+    /**
+     * Reserves units for a cart with a compare-and-set loop, so concurrent reservations
+     * never take more units than are available and never wait on a lock.
+     *
+     * @param units The number of units to reserve.
+     * @return true if the units were reserved, false if fewer are available.
+     */
+    public boolean reserve(int units) {
+        while (true) {
+            int current = available;
+            if (current < units) {
+                return false;
+            }
+            if (AVAILABLE.compareAndSet(this, current, current - units)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns reserved units, e.g. once their reservation expires.
+     *
+     * @param units The number of units to return.
+     */
+    public void release(int units) {
+        AVAILABLE.addAndGet(this, units);
+    }
+
+    /**
+     * Sells reserved units, e.g. when an order is placed.
+     *
+     * @param units The number of reserved units which are sold.
+     * @return The number of units left unsold.
+     */
+    public int sell(int units) {
+        return QUANTITY.addAndGet(this, -units);
+    }
+
+    /**
+     * Lowers the number of unsold units to a saved value, e.g. when the journal is replayed.
+     * The number of unsold units only goes down, so applying a saved value twice or out of
+     * order leaves the lowest one.
+     *
+     * @param unsold The saved number of unsold units.
+     */
+    void restoreQuantity(int unsold) {
+        QUANTITY.accumulateAndGet(this, unsold, Math::min);
+        AVAILABLE.accumulateAndGet(this, unsold, Math::min);
+    }
+
+    /**
+     * Returns the instant the item expires. It is calculated once, when the listing is created.
+     *
+     * @return The instant, in milliseconds since the epoch.
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * Checks whether the item has expired.
+     *
+     * @param now The current time, in milliseconds since the epoch.
+     * @return true if the item expired at or before now.
+     */
+    public boolean isExpired(long now) {
+        return expiresAt <= now;
+    }
+
+    /**
+     * Calculates the expiration instant based on the date added and the expiry days.
+     *
+     * @return The expiration instant, in milliseconds since the epoch.
+     */
+    private static long calculateExpiresAt(long dateAdded, int expiryDays) {
         Calendar calendar = Calendar.getInstance();
-        calendar.setTime(dateAdded);
+        calendar.setTimeInMillis(dateAdded);
         calendar.add(Calendar.DAY_OF_YEAR, expiryDays);
-        return calendar.getTime();
+        return calendar.getTimeInMillis();
     }
 
     /**
@@ -112,6 +404,29 @@ public class Listing implements Serializable {
      * @return The type of the item.
      */
     public String getType(){
+        return StringDictionary.CATEGORIES.decode(type);
+    }
+
+    /**
+     * Returns the code of the type of the item in StringDictionary.CATEGORIES.
+     *
+     * @return The code of the type.
+     */
+    int getTypeCode() {
         return type;
     }
+
+    /**
+     * A display label and the marked down price it shows, kept together so a label is never
+     * paired with the wrong price when the price changes while the label is read.
+     */
+    private static final class MarkedDownLabel {
+        private final double price; // The marked down price, in dollars.
+        private final String text; // The label at that price.
+
+        MarkedDownLabel(double price, String text) {
+            this.price = price;
+            this.text = text;
+        }
+    }
 }
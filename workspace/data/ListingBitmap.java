@@ -0,0 +1,440 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * This class is a compressed bitmap of listing ordinals, used by ListingIndex.
+ * Ordinals are split into chunks of 65536 by their high 16 bits. A chunk with few
+ * ordinals stores them as a sorted array of their low 16 bits, and a chunk with many
+ * stores a plain 65536 bit bitmap, so both sparse and dense sets stay small.
+ * Bitmaps can be ANDed and ORed chunk by chunk to combine filters.
+ */
+public class ListingBitmap {
+    private static final int ARRAY_LIMIT = 4096; // Chunks with more ordinals use a bitmap.
+
+    private char[] keys; // The high 16 bits of each chunk, in ascending order.
+    private Chunk[] chunks; // The chunks, in the same order as keys.
+    private int chunkCount; // The number of chunks in use.
+
+    /**
+     * Constructs an empty ListingBitmap.
+     */
+    public ListingBitmap() {
+        keys = new char[4];
+        chunks = new Chunk[4];
+    }
+
+    /**
+     * Adds an ordinal to the bitmap.
+     *
+     * @param ordinal the ordinal to add, which must not be negative
+     */
+    public void add(int ordinal) {
+        char key = (char) (ordinal >>> 16);
+        int index = Arrays.binarySearch(keys, 0, chunkCount, key);
+        if (index < 0) {
+            index = -index - 1;
+            if (chunkCount == keys.length) {
+                keys = Arrays.copyOf(keys, chunkCount * 2);
+                chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            }
+            System.arraycopy(keys, index, keys, index + 1, chunkCount - index);
+            System.arraycopy(chunks, index, chunks, index + 1, chunkCount - index);
+            keys[index] = key;
+            chunks[index] = new ArrayChunk();
+            chunkCount++;
+        }
+        chunks[index] = chunks[index].add((char) ordinal);
+    }
+
+    /**
+     * Removes an ordinal from the bitmap.
+     *
+     * @param ordinal the ordinal to remove
+     */
+    public void remove(int ordinal) {
+        int index = Arrays.binarySearch(keys, 0, chunkCount, (char) (ordinal >>> 16));
+        if (index < 0) {
+            return;
+        }
+        Chunk chunk = chunks[index].remove((char) ordinal);
+        if (chunk.cardinality() == 0) {
+            System.arraycopy(keys, index + 1, keys, index, chunkCount - index - 1);
+            System.arraycopy(chunks, index + 1, chunks, index, chunkCount - index - 1);
+            chunkCount--;
+            chunks[chunkCount] = null;
+        } else {
+            chunks[index] = chunk;
+        }
+    }
+
+    /**
+     * @param ordinal the ordinal to look for
+     * @return true if the bitmap holds the ordinal
+     */
+    public boolean contains(int ordinal) {
+        int index = Arrays.binarySearch(keys, 0, chunkCount, (char) (ordinal >>> 16));
+        return index >= 0 && chunks[index].contains((char) ordinal);
+    }
+
+    /**
+     * @return the number of ordinals in the bitmap
+     */
+    public int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            cardinality += chunks[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    /**
+     * Creates a bitmap of the ordinals which are in both this bitmap and the other.
+     *
+     * @param other the other bitmap
+     * @return a new bitmap
+     */
+    public ListingBitmap and(ListingBitmap other) {
+        ListingBitmap result = new ListingBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < chunkCount && j < other.chunkCount) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Chunk chunk = chunks[i].and(other.chunks[j]);
+                if (chunk.cardinality() > 0) {
+                    result.append(keys[i], chunk);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates a bitmap of the ordinals which are in this bitmap, the other, or both.
+     *
+     * @param other the other bitmap
+     * @return a new bitmap
+     */
+    public ListingBitmap or(ListingBitmap other) {
+        ListingBitmap result = new ListingBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < chunkCount || j < other.chunkCount) {
+            if (j == other.chunkCount || (i < chunkCount && keys[i] < other.keys[j])) {
+                result.append(keys[i], chunks[i].copy());
+                i++;
+            } else if (i == chunkCount || keys[i] > other.keys[j]) {
+                result.append(other.keys[j], other.chunks[j].copy());
+                j++;
+            } else {
+                result.append(keys[i], chunks[i].or(other.chunks[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Hands every ordinal in the bitmap, in ascending order, to the consumer.
+     *
+     * @param consumer the consumer of the ordinals
+     */
+    public void forEach(IntConsumer consumer) {
+        for (int i = 0; i < chunkCount; i++) {
+            chunks[i].forEach(keys[i] << 16, consumer);
+        }
+    }
+
+    /**
+     * Hands ordinals in ascending order to the predicate until it returns false.
+     *
+     * @param predicate the consumer of the ordinals, which returns false to stop
+     * @return false if the predicate stopped early
+     */
+    public boolean forEachWhile(IntPredicate predicate) {
+        for (int i = 0; i < chunkCount; i++) {
+            if (!chunks[i].forEachWhile(keys[i] << 16, predicate)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a copy of this bitmap
+     */
+    public ListingBitmap copy() {
+        ListingBitmap result = new ListingBitmap();
+        for (int i = 0; i < chunkCount; i++) {
+            result.append(keys[i], chunks[i].copy());
+        }
+        return result;
+    }
+
+    private void append(char key, Chunk chunk) {
+        if (chunkCount == keys.length) {
+            keys = Arrays.copyOf(keys, chunkCount * 2);
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+        }
+        keys[chunkCount] = key;
+        chunks[chunkCount] = chunk;
+        chunkCount++;
+    }
+
+    /**
+     * The low 16 bits of the ordinals in one chunk. Operations return the chunk to use
+     * afterwards, which lets a chunk switch between the array and bitmap forms.
+     */
+    private abstract static class Chunk {
+        abstract Chunk add(char low);
+
+        abstract Chunk remove(char low);
+
+        abstract boolean contains(char low);
+
+        abstract int cardinality();
+
+        abstract Chunk and(Chunk other);
+
+        abstract Chunk or(Chunk other);
+
+        abstract Chunk copy();
+
+        abstract void forEach(int high, IntConsumer consumer);
+
+        abstract boolean forEachWhile(int high, IntPredicate predicate);
+    }
+
+    /**
+     * A chunk of at most ARRAY_LIMIT ordinals stored as a sorted array.
+     */
+    private static final class ArrayChunk extends Chunk {
+        private char[] values = new char[4];
+        private int size;
+
+        Chunk add(char low) {
+            int index = Arrays.binarySearch(values, 0, size, low);
+            if (index >= 0) {
+                return this;
+            }
+            if (size == ARRAY_LIMIT) {
+                return toBitmap().add(low);
+            }
+            index = -index - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, size * 2));
+            }
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = low;
+            size++;
+            return this;
+        }
+
+        Chunk remove(char low) {
+            int index = Arrays.binarySearch(values, 0, size, low);
+            if (index >= 0) {
+                System.arraycopy(values, index + 1, values, index, size - index - 1);
+                size--;
+            }
+            return this;
+        }
+
+        boolean contains(char low) {
+            return Arrays.binarySearch(values, 0, size, low) >= 0;
+        }
+
+        int cardinality() {
+            return size;
+        }
+
+        Chunk and(Chunk other) {
+            ArrayChunk result = new ArrayChunk();
+            result.values = new char[Math.max(1, size)];
+            if (other instanceof ArrayChunk) {
+                ArrayChunk array = (ArrayChunk) other;
+                int i = 0;
+                int j = 0;
+                while (i < size && j < array.size) {
+                    if (values[i] < array.values[j]) {
+                        i++;
+                    } else if (values[i] > array.values[j]) {
+                        j++;
+                    } else {
+                        result.values[result.size++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < size; i++) {
+                    if (other.contains(values[i])) {
+                        result.values[result.size++] = values[i];
+                    }
+                }
+            }
+            return result;
+        }
+
+        Chunk or(Chunk other) {
+            if (other instanceof BitmapChunk) {
+                return other.or(this);
+            }
+            ArrayChunk array = (ArrayChunk) other;
+            if (size + array.size > ARRAY_LIMIT) {
+                return toBitmap().or(array);
+            }
+            ArrayChunk result = new ArrayChunk();
+            result.values = new char[Math.max(1, size + array.size)];
+            int i = 0;
+            int j = 0;
+            while (i < size || j < array.size) {
+                if (j == array.size || (i < size && values[i] < array.values[j])) {
+                    result.values[result.size++] = values[i++];
+                } else if (i == size || values[i] > array.values[j]) {
+                    result.values[result.size++] = array.values[j++];
+                } else {
+                    result.values[result.size++] = values[i];
+                    i++;
+                    j++;
+                }
+            }
+            return result;
+        }
+
+        Chunk copy() {
+            ArrayChunk result = new ArrayChunk();
+            result.values = Arrays.copyOf(values, Math.max(1, size));
+            result.size = size;
+            return result;
+        }
+
+        void forEach(int high, IntConsumer consumer) {
+            for (int i = 0; i < size; i++) {
+                consumer.accept(high | values[i]);
+            }
+        }
+
+        boolean forEachWhile(int high, IntPredicate predicate) {
+            for (int i = 0; i < size; i++) {
+                if (!predicate.test(high | values[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private BitmapChunk toBitmap() {
+            BitmapChunk bitmap = new BitmapChunk();
+            for (int i = 0; i < size; i++) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    /**
+     * A chunk of more than ARRAY_LIMIT ordinals stored as a 65536 bit bitmap.
+     */
+    private static final class BitmapChunk extends Chunk {
+        private final long[] words = new long[1024];
+        private int cardinality;
+
+        Chunk add(char low) {
+            long before = words[low >>> 6];
+            words[low >>> 6] = before | (1L << low);
+            if (before != words[low >>> 6]) {
+                cardinality++;
+            }
+            return this;
+        }
+
+        Chunk remove(char low) {
+            long before = words[low >>> 6];
+            words[low >>> 6] = before & ~(1L << low);
+            if (before != words[low >>> 6]) {
+                cardinality--;
+            }
+            return cardinality <= ARRAY_LIMIT ? toArray() : this;
+        }
+
+        boolean contains(char low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        int cardinality() {
+            return cardinality;
+        }
+
+        Chunk and(Chunk other) {
+            if (other instanceof ArrayChunk) {
+                return other.and(this);
+            }
+            BitmapChunk bitmap = (BitmapChunk) other;
+            BitmapChunk result = new BitmapChunk();
+            for (int i = 0; i < words.length; i++) {
+                result.words[i] = words[i] & bitmap.words[i];
+                result.cardinality += Long.bitCount(result.words[i]);
+            }
+            return result.cardinality <= ARRAY_LIMIT ? result.toArray() : result;
+        }
+
+        Chunk or(Chunk other) {
+            BitmapChunk result = (BitmapChunk) copy();
+            if (other instanceof ArrayChunk) {
+                other.forEach(0, low -> result.add((char) low));
+                return result;
+            }
+            BitmapChunk bitmap = (BitmapChunk) other;
+            result.cardinality = 0;
+            for (int i = 0; i < words.length; i++) {
+                result.words[i] |= bitmap.words[i];
+                result.cardinality += Long.bitCount(result.words[i]);
+            }
+            return result;
+        }
+
+        Chunk copy() {
+            BitmapChunk result = new BitmapChunk();
+            System.arraycopy(words, 0, result.words, 0, words.length);
+            result.cardinality = cardinality;
+            return result;
+        }
+
+        void forEach(int high, IntConsumer consumer) {
+            for (int i = 0; i < words.length; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    consumer.accept(high | (i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        boolean forEachWhile(int high, IntPredicate predicate) {
+            for (int i = 0; i < words.length; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    if (!predicate.test(high | (i << 6) | Long.numberOfTrailingZeros(word))) {
+                        return false;
+                    }
+                    word &= word - 1;
+                }
+            }
+            return true;
+        }
+
+        private ArrayChunk toArray() {
+            ArrayChunk array = new ArrayChunk();
+            array.values = new char[Math.max(1, cardinality)];
+            forEach(0, low -> array.values[array.size++] = (char) low);
+            return array;
+        }
+    }
+}
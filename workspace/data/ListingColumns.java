@@ -0,0 +1,315 @@
+import java.util.Arrays;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class stores the fields listings are most often filtered by in one primitive array per field,
+ * indexed by listing ordinal (see ListingIndex): the price in cents, the expiry instant, and the codes
+ * of the category and the seller. A query such as "under $5, expiring in the next 2 days" then reads
+ * the arrays front to back, instead of following a pointer to every Listing and its FoodItem.
+ * The price is the current one, which reprice() marks down from the full price as listings near
+ * their expiry date, following their sellers' markdown curves.
+ *
+ * A scan checks each row without branching and packs the results 64 rows to a word, so the JIT can
+ * keep the loop tight, and scans of many rows are split into ranges which run on the common
+ * ForkJoinPool. It is not safe for concurrent changes: ListingIndex changes it under its write lock
+ * and scans and reprices it under its read lock. Repricing fills a new price array and publishes it
+ * with one write, so a scan sees either every old price or every new one.
+ */
+public class ListingColumns {
+    static final int LEAF_ROWS = 1 << 16; // The most rows one fork-join task scans; a multiple of 64.
+    private static final long ONE_DAY = TimeUnit.DAYS.toMillis(1); // The length of a day, in milliseconds.
+
+    private long[] fullPriceCents; // The full price of each listing, in cents.
+    private volatile long[] priceCents; // The current price of each listing, in cents, replaced as a whole by reprice().
+    private long[] expiresAt; // The expiry instant of each listing, in milliseconds since the epoch.
+    private int[] categories; // The code of the category of each listing in StringDictionary.CATEGORIES.
+    private int[] sellers; // The code of the seller of each listing in StringDictionary.SELLERS.
+    private long[] live; // One bit per ordinal, set while the listing is in the store.
+    private int size; // The number of ordinals handed out, including removed ones not yet compacted away.
+    private volatile MarkdownCurve[] curves = new MarkdownCurve[0]; // The curves of the last reprice(), by seller code.
+    private volatile long repricedAt; // The time of the last reprice(), in milliseconds since the epoch.
+
+    /**
+     * Constructs an empty store with room for an expected number of listings.
+     *
+     * @param expected the number of listings the store should hold without growing
+     */
+    public ListingColumns(int expected) {
+        int capacity = Math.max(64, expected);
+        fullPriceCents = new long[capacity];
+        priceCents = new long[capacity];
+        expiresAt = new long[capacity];
+        categories = new int[capacity];
+        sellers = new int[capacity];
+        live = new long[(capacity + 63) >>> 6];
+    }
+
+    /**
+     * Adds a Listing's fields as the next row.
+     *
+     * @param listing the listing
+     * @return the ordinal of the row
+     */
+    public int add(Listing listing) {
+        return add(ListingQuery.toCents(listing.getItem().getPrice()), listing.getExpiresAt(),
+                listing.getTypeCode(), listing.getSellerCode());
+    }
+
+    /**
+     * Adds a row, e.g. for a benchmark which fills the store without creating Listings.
+     * Its current price is marked down with the curves and time of the last reprice(),
+     * so it doesn't show its full price until the next one.
+     *
+     * @param price the full price, in cents
+     * @param expires the expiry instant, in milliseconds since the epoch
+     * @param category the code of the category in StringDictionary.CATEGORIES
+     * @param seller the code of the seller in StringDictionary.SELLERS
+     * @return the ordinal of the row
+     */
+    public int add(long price, long expires, int category, int seller) {
+        if (size == fullPriceCents.length) {
+            int capacity = size * 2;
+            fullPriceCents = Arrays.copyOf(fullPriceCents, capacity);
+            priceCents = Arrays.copyOf(priceCents, capacity);
+            expiresAt = Arrays.copyOf(expiresAt, capacity);
+            categories = Arrays.copyOf(categories, capacity);
+            sellers = Arrays.copyOf(sellers, capacity);
+            live = Arrays.copyOf(live, (capacity + 63) >>> 6);
+        }
+        int ordinal = size++;
+        fullPriceCents[ordinal] = price;
+        priceCents[ordinal] = markDown(curves, repricedAt, price, expires, seller);
+        expiresAt[ordinal] = expires;
+        categories[ordinal] = category;
+        sellers[ordinal] = seller;
+        live[ordinal >>> 6] |= 1L << ordinal;
+        return ordinal;
+    }
+
+    /**
+     * Removes a row, so scans no longer match it. Its ordinal is not handed out again; ListingIndex
+     * replaces the store with a compact one once removed rows outnumber the others.
+     *
+     * @param ordinal the ordinal of the row
+     */
+    public void remove(int ordinal) {
+        live[ordinal >>> 6] &= ~(1L << ordinal);
+    }
+
+    /**
+     * @param ordinal the ordinal of a row
+     * @return the current price of the row, in cents
+     */
+    public long getPrice(int ordinal) {
+        return priceCents[ordinal];
+    }
+
+    /**
+     * @return the number of ordinals handed out, including removed ones
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the rows which match a query.
+     *
+     * @param query the conditions to match
+     * @return the ordinals of the matching rows, in ascending order
+     */
+    public int[] scan(ListingQuery query) {
+        if (query.matchesNothing() || size == 0) {
+            return new int[0];
+        }
+        long[] matches = new long[(size + 63) >>> 6];
+        int count = new Scan(query, priceCents, matches, 0, size).invoke();
+        return toOrdinals(matches, count);
+    }
+
+    /**
+     * Finds the rows which match a query, without listing their ordinals, e.g. to page through them.
+     *
+     * @param query the conditions to match
+     * @return one bit per row, set if the row matches; bit 0 of word 0 is row 0
+     */
+    public long[] match(ListingQuery query) {
+        if (query.matchesNothing() || size == 0) {
+            return new long[0];
+        }
+        long[] matches = new long[(size + 63) >>> 6];
+        new Scan(query, priceCents, matches, 0, size).invoke();
+        return matches;
+    }
+
+    private static int[] toOrdinals(long[] matches, int count) {
+        int[] ordinals = new int[count];
+        int next = 0;
+        for (int word = 0; word < matches.length; word++) {
+            for (long bits = matches[word]; bits != 0; bits &= bits - 1) {
+                ordinals[next++] = (word << 6) + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        return ordinals;
+    }
+
+    /**
+     * Scans a range of rows, splitting it in two until it is at most LEAF_ROWS long.
+     * Ranges start at multiples of 64, so no two tasks write to the same word of matches.
+     */
+    private final class Scan extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L; // ForkJoinTask is Serializable, but scans are never serialized.
+        private final ListingQuery query; // The conditions to match.
+        private final long[] prices; // The prices read when the scan started, so every task sees the same ones.
+        private final long[] matches; // One bit per row, set if the row matches.
+        private final int from; // The first row of the range, a multiple of 64.
+        private final int to; // The row after the range.
+
+        Scan(ListingQuery query, long[] prices, long[] matches, int from, int to) {
+            this.query = query;
+            this.prices = prices;
+            this.matches = matches;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * @return the number of matching rows in the range
+         */
+        @Override
+        protected Integer compute() {
+            if (to - from <= LEAF_ROWS) {
+                return scanRange(query, prices, matches, from, to);
+            }
+            int middle = (from + (to - from) / 2) & ~63;
+            Scan left = new Scan(query, prices, matches, from, middle);
+            left.fork();
+            int right = new Scan(query, prices, matches, middle, to).compute();
+            return left.join() + right;
+        }
+    }
+
+    private int scanRange(ListingQuery query, long[] priceCents, long[] matches, int from, int to) {
+        long minPrice = query.getMinPriceCents();
+        long maxPrice = query.getMaxPriceCents();
+        long expiresFrom = query.getExpiresFrom();
+        long expiresTo = query.getExpiresTo();
+        int category = query.getCategory();
+        int seller = query.getSeller();
+        boolean anyCategory = category == ListingQuery.ANY;
+        boolean anySeller = seller == ListingQuery.ANY;
+        long[] expiresAt = this.expiresAt;
+        int[] categories = this.categories;
+        int[] sellers = this.sellers;
+
+        int count = 0;
+        for (int base = from; base < to; base += 64) {
+            int end = Math.min(base + 64, to);
+            long bits = 0;
+            for (int row = base; row < end; row++) {
+                long price = priceCents[row];
+                long expires = expiresAt[row];
+                // & instead of && so every condition is computed, without a branch per condition.
+                boolean match = (price >= minPrice) & (price <= maxPrice)
+                        & (expires >= expiresFrom) & (expires < expiresTo)
+                        & (anyCategory | categories[row] == category)
+                        & (anySeller | sellers[row] == seller);
+                bits |= (match ? 1L : 0L) << row;
+            }
+            bits &= live[base >>> 6];
+            matches[base >>> 6] = bits;
+            count += Long.bitCount(bits);
+        }
+        return count;
+    }
+
+    /**
+     * Recalculates the current price of every row from its full price, its seller's markdown curve
+     * and the days until it expires, and publishes the new prices all at once.
+     * The rows are split into ranges which run on the common ForkJoinPool, like a scan.
+     *
+     * @param curves the markdown curve of each seller, by code in StringDictionary.SELLERS; null for fixed prices
+     * @param now the current time, in milliseconds since the epoch
+     * @return the number of rows whose current price is below their full price
+     */
+    public int reprice(MarkdownCurve[] curves, long now) {
+        long[] prices = new long[fullPriceCents.length];
+        int markedDown = new Reprice(curves, now, prices, 0, size).invoke();
+        this.curves = curves;
+        repricedAt = now;
+        priceCents = prices;
+        return markedDown;
+    }
+
+    /**
+     * Repeats the last reprice() of another store, e.g. one this store replaces.
+     *
+     * @param other the other store
+     * @return the number of rows whose current price is below their full price
+     */
+    public int repriceLike(ListingColumns other) {
+        return reprice(other.curves, other.repricedAt);
+    }
+
+    /**
+     * Reprices a range of rows, splitting it in two until it is at most LEAF_ROWS long.
+     */
+    private final class Reprice extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L; // Like Scan, never serialized.
+        private final MarkdownCurve[] curves; // The markdown curve of each seller code.
+        private final long now; // The time the days until expiry are counted from.
+        private final long[] prices; // The new prices.
+        private final int from; // The first row of the range.
+        private final int to; // The row after the range.
+
+        Reprice(MarkdownCurve[] curves, long now, long[] prices, int from, int to) {
+            this.curves = curves;
+            this.now = now;
+            this.prices = prices;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * @return the number of marked down rows in the range
+         */
+        @Override
+        protected Integer compute() {
+            if (to - from <= LEAF_ROWS) {
+                return repriceRange(curves, now, prices, from, to);
+            }
+            int middle = from + (to - from) / 2;
+            Reprice left = new Reprice(curves, now, prices, from, middle);
+            left.fork();
+            int right = new Reprice(curves, now, prices, middle, to).compute();
+            return left.join() + right;
+        }
+    }
+
+    private int repriceRange(MarkdownCurve[] curves, long now, long[] prices, int from, int to) {
+        long[] fullPriceCents = this.fullPriceCents;
+        long[] expiresAt = this.expiresAt;
+        int[] sellers = this.sellers;
+        int markedDown = 0;
+        for (int row = from; row < to; row++) {
+            long price = markDown(curves, now, fullPriceCents[row], expiresAt[row], sellers[row]);
+            prices[row] = price;
+            if (price < fullPriceCents[row]) {
+                markedDown++;
+            }
+        }
+        return markedDown;
+    }
+
+    /**
+     * Marks down one price with its seller's curve, by the whole days left until it expires.
+     */
+    private static long markDown(MarkdownCurve[] curves, long now, long fullPrice, long expires, int seller) {
+        MarkdownCurve curve = seller >= 0 && seller < curves.length ? curves[seller] : null;
+        if (curve == null) {
+            return fullPrice;
+        }
+        long daysLeft = Math.max(0, Math.floorDiv(expires - now, ONE_DAY));
+        return curve.apply(fullPrice, (int) Math.min(Integer.MAX_VALUE, daysLeft));
+    }
+}
@@ -0,0 +1,167 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class hands out listing IDs which are unique across restarts.
+ * IDs come from one shared counter, so taking an ID is a single atomic increment which never waits
+ * for other threads, and IDs are leased from the file in blocks, e.g. 1000 at a time. Before the
+ * first ID of a new block is handed out, the end of the block (the high-water mark) is written to a
+ * file, so after a restart allocation resumes above every ID which may have been used. The counter
+ * belongs to the allocator rather than to a thread, so a short-lived thread, e.g. one per request,
+ * takes the next ID of the current block instead of leasing a block of its own. IDs left over in the
+ * block when the program exits are skipped, so IDs have gaps but are never reused.
+ * The file is replaced with a new one rather than written over, so a crash can't leave a torn mark.
+ */
+public class ListingIdAllocator {
+    static final int DEFAULT_BLOCK_SIZE = 1000; // The number of IDs leased at a time.
+    private static final int FILE_BYTES = 8; // The high-water mark followed by its complement, to detect a damaged file.
+
+    private final Path file; // The file the high-water mark is stored in, or null to keep it in memory.
+    private final int blockSize; // The number of IDs leased at a time.
+    private final boolean fsync; // True to force the high-water mark to disk before a block is used.
+    private final AtomicLong counter; // The next ID to hand out; a long, so threads which overshoot the last int ID can't wrap around.
+    private volatile long ceiling; // The first ID which has not been leased; only raised under this, once it is stored.
+
+    /**
+     * Constructs an allocator which starts at ID 1 and keeps its high-water mark in memory,
+     * e.g. for listings which are generated rather than added to a running App.
+     */
+    public ListingIdAllocator() {
+        this(null, DEFAULT_BLOCK_SIZE, false, 1);
+    }
+
+    private ListingIdAllocator(Path file, int blockSize, boolean fsync, int ceiling) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("The block size must be at least 1");
+        }
+        this.file = file;
+        this.blockSize = blockSize;
+        this.fsync = fsync;
+        this.ceiling = ceiling;
+        this.counter = new AtomicLong(ceiling);
+    }
+
+    /**
+     * Opens an allocator which resumes at the high-water mark stored in a file.
+     * A missing or damaged file starts at ID 1, so loaded listings must be passed to reserve()
+     * before IDs are handed out.
+     *
+     * @param fileName the file the high-water mark is stored in, which is created when the first block is leased
+     * @param blockSize the number of IDs leased at a time
+     * @param fsync true to force the high-water mark to disk before a block is used
+     * @return the allocator
+     * @throws IOException if the file exists but can't be read
+     */
+    public static ListingIdAllocator open(String fileName, int blockSize, boolean fsync) throws IOException {
+        Path file = Paths.get(fileName);
+        int ceiling = 1;
+        if (Files.exists(file)) {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (buffer.remaining() == FILE_BYTES && buffer.getInt(0) == ~buffer.getInt(4) && buffer.getInt(0) > 0) {
+                ceiling = buffer.getInt(0);
+            } else {
+                EventLog.warn("Ignoring damaged listing ID file {}", fileName);
+            }
+        }
+        return new ListingIdAllocator(file, blockSize, fsync, ceiling);
+    }
+
+    /**
+     * Allocates the next listing ID. Only the first ID past the leased block takes a lock,
+     * and waits while the next block is stored.
+     *
+     * @return an ID which has not been handed out before
+     * @throws IllegalStateException if all positive int IDs have been used
+     */
+    public int next() {
+        long id = counter.getAndIncrement();
+        if (id > Integer.MAX_VALUE) {
+            throw new IllegalStateException("All listing IDs have been used");
+        }
+        if (id >= ceiling) {
+            lease(id);
+        }
+        return (int) id;
+    }
+
+    /**
+     * Leases the block which starts at an ID, storing the new high-water mark before any ID of
+     * it is handed out. If the file can't be written, the block is still handed out, since its
+     * IDs are unique while the program runs, and the next block which is stored covers it.
+     */
+    private synchronized void lease(long id) {
+        if (id < ceiling) { // another thread leased it meanwhile
+            return;
+        }
+        long end = Math.min(id + blockSize, (long) Integer.MAX_VALUE + 1);
+        store(end);
+        ceiling = end;
+    }
+
+    /**
+     * Makes sure IDs handed out from now on are greater than the given ID.
+     * Called for every listing loaded from disk, before any IDs are handed out,
+     * e.g. for listings saved before the high-water mark was.
+     *
+     * @param id an ID which is already in use
+     */
+    public synchronized void reserve(int id) {
+        counter.accumulateAndGet(id + 1L, Math::max);
+        if (id >= ceiling) {
+            ceiling = id + 1L;
+        }
+    }
+
+    /**
+     * @return the first ID which has not been leased
+     */
+    public int getHighWaterMark() {
+        return (int) Math.min(ceiling, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Writes the high-water mark to the file, e.g. once the loaded listings have been reserved.
+     *
+     * @return true if the high-water mark was written or is kept in memory
+     */
+    public synchronized boolean store() {
+        return store(ceiling);
+    }
+
+    /**
+     * Writes a high-water mark to a temporary file and moves it over the file, so the file
+     * holds either the old mark or the new one, never part of each.
+     */
+    private boolean store(long mark) {
+        if (file == null) {
+            return true;
+        }
+        int stored = (int) Math.min(mark, Integer.MAX_VALUE);
+        ByteBuffer buffer = ByteBuffer.allocate(FILE_BYTES);
+        buffer.putInt(stored).putInt(~stored).flip();
+        Path temp = Paths.get(file + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (fsync) {
+                    channel.force(false);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            EventLog.error("Error saving listing IDs to {}: {}", file, e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,463 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * This class indexes Listings by category and by seller with one ListingBitmap per value.
+ * Each Listing is given a dense ordinal when it is added, and bitmaps hold ordinals,
+ * so a filter such as "Dairy AND seller X" is a few bitmap operations instead of a scan.
+ * Item and seller names are also indexed word by word for search, and prices and expiry
+ * instants are kept in ListingColumns for range queries.
+ * The index is kept up to date as listings are added and removed. Removed listings leave gaps in
+ * the ordinals, so once they outnumber the indexed listings the ordinals are handed out again from 0,
+ * keeping the index the size of the live stock. Ordinals therefore never leave the index's lock.
+ * It is the store of the listings which can be browsed, and is safe to use from several
+ * threads at once: lookups share a read lock, so they never wait for each other, and only
+ * wait for a change which is in progress.
+ */
+public class ListingIndex {
+    static final int COMPACT_MIN_REMOVED = 4096; // The removed ordinals always tolerated before compacting, however few listings there are.
+
+    private ArrayList<Listing> byOrdinal; // The indexed Listings by ordinal, null once removed.
+    private IntIntMap ordinals; // The ordinal of each indexed Listing, keyed by listing ID.
+    private HashMap<Integer, ListingBitmap> categories; // The ordinals of each category, keyed by its code in StringDictionary.CATEGORIES.
+    private HashMap<Integer, ListingBitmap> sellers; // The ordinals of each seller, keyed by its code in StringDictionary.SELLERS.
+    private ListingBitmap live; // The ordinals of every indexed Listing.
+    private SearchIndex search; // The ordinals of each word of the item and seller names.
+    private ListingColumns columns; // The price, expiry, category and seller of each ordinal.
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(); // Shared by lookups, exclusive to changes.
+
+    /**
+     * Constructs an empty ListingIndex.
+     */
+    public ListingIndex() {
+        rebuild(new ArrayList<>());
+    }
+
+    /**
+     * Replaces the contents of the index with the specified Listings, e.g. after they are loaded from disk.
+     * Ordinals are handed out again from 0, which removes the gaps left by removed listings.
+     *
+     * @param listings the Listings to index
+     */
+    public void rebuild(Collection<Listing> listings) {
+        lock.writeLock().lock();
+        try {
+            rebuildLocked(listings);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void rebuildLocked(Collection<Listing> listings) {
+        byOrdinal = new ArrayList<>(listings.size());
+        ordinals = new IntIntMap(listings.size());
+        categories = new HashMap<>();
+        sellers = new HashMap<>();
+        live = new ListingBitmap();
+        search = new SearchIndex();
+        ListingColumns old = columns;
+        columns = new ListingColumns(listings.size());
+        for (Listing listing : listings) {
+            addLocked(listing);
+        }
+        if (old != null) {
+            columns.repriceLike(old); // keep the markdowns until the next reprice
+        }
+    }
+
+    /**
+     * Adds a Listing to the index under its category and seller.
+     *
+     * @param listing the Listing to add
+     * @return false if the Listing was already indexed
+     */
+    public boolean add(Listing listing) {
+        lock.writeLock().lock();
+        try {
+            return addLocked(listing);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds several Listings under one lock, e.g. a page of listings loaded from disk.
+     *
+     * @param listings the Listings to add
+     * @return the Listings which were added, i.e. those which were not already indexed
+     */
+    public List<Listing> addAll(Collection<Listing> listings) {
+        List<Listing> added = new ArrayList<>(listings.size());
+        lock.writeLock().lock();
+        try {
+            for (Listing listing : listings) {
+                if (addLocked(listing)) {
+                    added.add(listing);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return added;
+    }
+
+    private boolean addLocked(Listing listing) {
+        if (ordinals.containsKey(listing.getId())) {
+            return false;
+        }
+        int ordinal = columns.add(listing);
+        byOrdinal.add(listing);
+        ordinals.put(listing.getId(), ordinal);
+        live.add(ordinal);
+        categories.computeIfAbsent(listing.getTypeCode(), k -> new ListingBitmap()).add(ordinal);
+        sellers.computeIfAbsent(listing.getSellerCode(), k -> new ListingBitmap()).add(ordinal);
+        search.add(ordinal, listing);
+        return true;
+    }
+
+    /**
+     * Removes a Listing from the index, e.g. once it is added to a cart.
+     * If several threads remove the same Listing, exactly one of them succeeds.
+     * Once removed ordinals outnumber the indexed Listings (and COMPACT_MIN_REMOVED), the index is
+     * compacted; it takes time in proportion to the Listings, so each removal pays a constant share.
+     *
+     * @param listing the Listing to remove
+     * @return false if the Listing was not indexed, e.g. it was already removed
+     */
+    public boolean remove(Listing listing) {
+        lock.writeLock().lock();
+        try {
+            int ordinal = ordinals.remove(listing.getId());
+            if (ordinal == IntIntMap.MISSING) {
+                return false;
+            }
+            byOrdinal.set(ordinal, null);
+            live.remove(ordinal);
+            columns.remove(ordinal);
+            categories.get(listing.getTypeCode()).remove(ordinal);
+            sellers.get(listing.getSellerCode()).remove(ordinal);
+            search.remove(ordinal, listing);
+            if (columns.size() - ordinals.size() > Math.max(COMPACT_MIN_REMOVED, ordinals.size())) {
+                compactLocked();
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Hands out the ordinals again from 0 to the indexed Listings, in the order they were indexed,
+     * so the columns, bitmaps and byOrdinal shrink back to the number of indexed Listings.
+     */
+    private void compactLocked() {
+        List<Listing> indexed = new ArrayList<>(ordinals.size());
+        for (Listing listing : byOrdinal) {
+            if (listing != null) {
+                indexed.add(listing);
+            }
+        }
+        rebuildLocked(indexed);
+    }
+
+    /**
+     * @return the number of ordinals in use, including removed ones which have not been compacted
+     */
+    int ordinalCount() {
+        lock.readLock().lock();
+        try {
+            return columns.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of indexed Listings
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ordinals.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Looks up an indexed Listing by its ID.
+     *
+     * @param id the ID of the Listing
+     * @return the Listing, or null if it is not indexed
+     */
+    public Listing find(int id) {
+        lock.readLock().lock();
+        try {
+            int ordinal = ordinals.get(id);
+            return ordinal == IntIntMap.MISSING ? null : byOrdinal.get(ordinal);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Searches the item and seller names of the indexed Listings.
+     *
+     * @param query the words to look for; the last word may be incomplete
+     * @param limit the most Listings to return
+     * @return the matching Listings, best matches first
+     */
+    public List<Listing> search(String query, int limit) {
+        return search(query, limit, null);
+    }
+
+    /**
+     * Searches the item and seller names of the indexed Listings, skipping those a filter rejects
+     * before they count towards the limit.
+     *
+     * @param query the words to look for; the last word may be incomplete
+     * @param limit the most Listings to return
+     * @param filter accepts the Listings which may be returned, or null to accept every Listing;
+     *               it is called under the read lock, so it must not change the index
+     * @return the matching Listings, best matches first
+     */
+    public List<Listing> search(String query, int limit, Predicate<Listing> filter) {
+        lock.readLock().lock();
+        try {
+            List<Listing> result = new ArrayList<>();
+            IntPredicate accept = filter == null ? ordinal -> true : ordinal -> filter.test(byOrdinal.get(ordinal));
+            for (int ordinal : search.search(query, limit, accept)) {
+                result.add(byOrdinal.get(ordinal));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the Listings which match a category and a seller.
+     *
+     * @param category the category to match, or null to match every category
+     * @param seller the seller to match, or null to match every seller
+     * @return the matching Listings, in the order they were indexed
+     */
+    public List<Listing> filter(String category, String seller) {
+        lock.readLock().lock();
+        try {
+            return resolveLocked(bitmapLocked(category, seller));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds a page of the Listings which match a category, a seller and a filter. The ordinals are
+     * read from the bitmaps in order, and only the Listings up to the end of the page are looked at,
+     * so a page costs the same however many Listings match.
+     *
+     * @param category the category to match, or null to match every category
+     * @param seller the seller to match, or null to match every seller
+     * @param filter accepts the Listings which may be returned; it is called under the read lock,
+     *               so it must not change the index
+     * @param offset the number of accepted Listings to skip
+     * @param limit the most Listings to return
+     * @return the page of matching Listings, in the order they were indexed
+     */
+    public List<Listing> filter(String category, String seller, Predicate<Listing> filter, int offset, int limit) {
+        lock.readLock().lock();
+        try {
+            Page page = new Page(filter, offset, limit);
+            bitmapLocked(category, seller).forEachWhile(ordinal -> page.offer(byOrdinal.get(ordinal)));
+            return page.listings;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private ListingBitmap bitmapLocked(String category, String seller) {
+        if (category == null && seller == null) {
+            return live;
+        } else if (seller == null) {
+            return categories.getOrDefault(categoryCode(category), new ListingBitmap());
+        } else if (category == null) {
+            return sellers.getOrDefault(sellerCode(seller), new ListingBitmap());
+        }
+        return categories.getOrDefault(categoryCode(category), new ListingBitmap())
+                .and(sellers.getOrDefault(sellerCode(seller), new ListingBitmap()));
+    }
+
+    /**
+     * Finds the Listings which match a range query, e.g. "under $5, expiring in the next 2 days",
+     * by scanning ListingColumns. The ordinals are resolved under the same lock, so a compaction
+     * can't renumber them in between.
+     *
+     * @param query the conditions to match
+     * @return the matching Listings, in the order they were indexed
+     */
+    public List<Listing> find(ListingQuery query) {
+        lock.readLock().lock();
+        try {
+            int[] found = columns.scan(query);
+            List<Listing> result = new ArrayList<>(found.length);
+            for (int ordinal : found) {
+                result.add(byOrdinal.get(ordinal));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds a page of the Listings which match a range query and a filter. The columns are scanned
+     * into one bit per row, and only the Listings up to the end of the page are looked up.
+     *
+     * @param query the conditions to match
+     * @param filter accepts the Listings which may be returned; it is called under the read lock,
+     *               so it must not change the index
+     * @param offset the number of accepted Listings to skip
+     * @param limit the most Listings to return
+     * @return the page of matching Listings, in the order they were indexed
+     */
+    public List<Listing> find(ListingQuery query, Predicate<Listing> filter, int offset, int limit) {
+        lock.readLock().lock();
+        try {
+            Page page = new Page(filter, offset, limit);
+            long[] matches = columns.match(query);
+            for (int word = 0; word < matches.length; word++) {
+                for (long bits = matches[word]; bits != 0; bits &= bits - 1) {
+                    if (!page.offer(byOrdinal.get((word << 6) + Long.numberOfTrailingZeros(bits)))) {
+                        return page.listings;
+                    }
+                }
+            }
+            return page.listings;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Collects one page of the Listings a filter accepts, from Listings offered in order.
+     */
+    private static final class Page {
+        private final Predicate<Listing> filter; // Accepts the Listings which may be on the page.
+        private final int limit; // The most Listings on the page.
+        private int skip; // The accepted Listings still to skip before the page starts.
+        private final List<Listing> listings; // The Listings on the page.
+
+        Page(Predicate<Listing> filter, int offset, int limit) {
+            this.filter = filter;
+            this.limit = limit;
+            this.skip = offset;
+            this.listings = new ArrayList<>(Math.max(0, Math.min(limit, 64)));
+        }
+
+        /**
+         * @param listing the next Listing, or null for a removed one
+         * @return false once the page is full
+         */
+        boolean offer(Listing listing) {
+            if (listings.size() >= limit) {
+                return false;
+            }
+            if (listing != null && filter.test(listing)) {
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    listings.add(listing);
+                }
+            }
+            return listings.size() < limit;
+        }
+    }
+
+    /**
+     * Recalculates the current price of every indexed Listing from its seller's markdown curve
+     * (see ListingColumns.reprice()). Runs under the read lock, so browsing and scans carry on
+     * meanwhile and see the new prices all at once; only adding and removing Listings waits.
+     *
+     * @param curves the markdown curve of each seller, by code in StringDictionary.SELLERS; null for fixed prices
+     * @param now the current time, in milliseconds since the epoch
+     * @return the number of Listings which are marked down
+     */
+    public int reprice(MarkdownCurve[] curves, long now) {
+        lock.readLock().lock();
+        try {
+            return columns.reprice(curves, now);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Looks up the current price of a Listing, which may be marked down from the price of its item.
+     *
+     * @param listing the Listing
+     * @return the current price, in cents, or the price of its item if the Listing is not indexed
+     */
+    public long getPriceCents(Listing listing) {
+        lock.readLock().lock();
+        try {
+            int ordinal = ordinals.get(listing.getId());
+            if (ordinal != IntIntMap.MISSING && byOrdinal.get(ordinal) == listing) {
+                return columns.getPrice(ordinal);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return ListingQuery.toCents(listing.getItem().getPrice());
+    }
+
+    private List<Listing> resolveLocked(ListingBitmap bitmap) {
+        List<Listing> result = new ArrayList<>(bitmap.cardinality());
+        bitmap.forEach(ordinal -> {
+            Listing listing = byOrdinal.get(ordinal);
+            if (listing != null) { // the bitmap may be older than the index
+                result.add(listing);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return a copy of the names of every seller which has, or has had, an indexed Listing
+     */
+    public Set<String> getSellers() {
+        lock.readLock().lock();
+        try {
+            Set<String> names = new HashSet<>();
+            for (int code : sellers.keySet()) {
+                names.add(StringDictionary.SELLERS.decode(code));
+            }
+            return names;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Looks up the code of a category without adding it to the dictionary, so looking up
+     * a category which was never listed doesn't grow it.
+     *
+     * @param category the category
+     * @return the code, or null if no listing has ever had the category
+     */
+    private static Integer categoryCode(String category) {
+        int code = StringDictionary.CATEGORIES.find(category);
+        return code == StringDictionary.NULL ? null : code;
+    }
+
+    private static Integer sellerCode(String seller) {
+        int code = StringDictionary.SELLERS.find(seller);
+        return code == StringDictionary.NULL ? null : code;
+    }
+}
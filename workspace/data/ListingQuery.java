@@ -0,0 +1,138 @@
+/**
+ * This class describes which listings a scan of ListingColumns matches: a price range,
+ * an expiry range, a category and a seller. Every condition matches everything until it is set,
+ * and the setters return the query so they can be chained, e.g.
+ * new ListingQuery().maxPrice(5.0).expiringBetween(now, now + 2 * ONE_DAY).
+ */
+public class ListingQuery {
+    static final int ANY = Integer.MIN_VALUE; // The code which matches every category or seller.
+
+    private long minPriceCents = Long.MIN_VALUE; // The lowest matching price, in cents.
+    private long maxPriceCents = Long.MAX_VALUE; // The highest matching price, in cents.
+    private long expiresFrom = Long.MIN_VALUE; // The earliest matching expiry instant, inclusive.
+    private long expiresTo = Long.MAX_VALUE; // The latest matching expiry instant, exclusive.
+    private int category = ANY; // The code of the matching category in StringDictionary.CATEGORIES.
+    private int seller = ANY; // The code of the matching seller in StringDictionary.SELLERS.
+
+    /**
+     * Converts a price to the cents ListingColumns stores, rounding to the nearest cent.
+     *
+     * @param price the price, in dollars
+     * @return the price, in cents
+     */
+    public static long toCents(double price) {
+        return Math.round(price * 100);
+    }
+
+    /**
+     * @param price the lowest matching price, in dollars
+     * @return this query
+     */
+    public ListingQuery minPrice(double price) {
+        minPriceCents = toCents(price);
+        return this;
+    }
+
+    /**
+     * @param price the highest matching price, in dollars
+     * @return this query
+     */
+    public ListingQuery maxPrice(double price) {
+        maxPriceCents = toCents(price);
+        return this;
+    }
+
+    /**
+     * @param from the earliest matching expiry instant, inclusive, in milliseconds since the epoch
+     * @param to the latest matching expiry instant, exclusive, in milliseconds since the epoch
+     * @return this query
+     */
+    public ListingQuery expiringBetween(long from, long to) {
+        expiresFrom = from;
+        expiresTo = to;
+        return this;
+    }
+
+    /**
+     * @param category the matching category, or null to match every category
+     * @return this query
+     */
+    public ListingQuery category(String category) {
+        this.category = code(StringDictionary.CATEGORIES, category);
+        return this;
+    }
+
+    /**
+     * @param seller the name of the matching seller, or null to match every seller
+     * @return this query
+     */
+    public ListingQuery seller(String seller) {
+        this.seller = code(StringDictionary.SELLERS, seller);
+        return this;
+    }
+
+    /**
+     * Looks up the code of a category or seller. One which has never been listed has no code,
+     * and is left as NULL, which matches nothing.
+     */
+    private static int code(StringDictionary dictionary, String value) {
+        return value == null ? ANY : dictionary.find(value);
+    }
+
+    long getMinPriceCents() {
+        return minPriceCents;
+    }
+
+    long getMaxPriceCents() {
+        return maxPriceCents;
+    }
+
+    long getExpiresFrom() {
+        return expiresFrom;
+    }
+
+    long getExpiresTo() {
+        return expiresTo;
+    }
+
+    int getCategory() {
+        return category;
+    }
+
+    int getSeller() {
+        return seller;
+    }
+
+    /**
+     * Checks one Listing against the query, e.g. to narrow down search results.
+     *
+     * @param listing the listing
+     * @return true if the listing matches every condition
+     */
+    public boolean matches(Listing listing) {
+        return matches(listing, toCents(listing.getItem().getPrice()));
+    }
+
+    /**
+     * Checks one Listing against the query at its current price, which may be marked down.
+     *
+     * @param listing the listing
+     * @param price the current price of the listing, in cents
+     * @return true if the listing matches every condition
+     */
+    public boolean matches(Listing listing, long price) {
+        long expires = listing.getExpiresAt();
+        return !matchesNothing() && price >= minPriceCents && price <= maxPriceCents
+                && expires >= expiresFrom && expires < expiresTo
+                && (category == ANY || listing.getTypeCode() == category)
+                && (seller == ANY || listing.getSellerCode() == seller);
+    }
+
+    /**
+     * @return true if the query can't match any listing, e.g. its category has never been listed
+     */
+    boolean matchesNothing() {
+        return category == StringDictionary.NULL || seller == StringDictionary.NULL
+                || minPriceCents > maxPriceCents || expiresFrom >= expiresTo;
+    }
+}
@@ -0,0 +1,108 @@
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * This class is a business's markdown curve: how much the price of its listings drops as they near
+ * their expiry date. The curve is a list of steps keyed by whole days until expiry, e.g. "3:20,1:50"
+ * takes 20% off listings which expire in 3 days or fewer, and 50% off those which expire within a day.
+ * Curves never change once made, so they can be read from many threads at once.
+ */
+public class MarkdownCurve implements Serializable {
+    private static final long serialVersionUID = 1L; // Pinned so saved files stay readable as the class changes.
+    private final int[] days; // The days until expiry at which each step starts, in descending order.
+    private final int[] percentOff; // The percentage taken off the price at each step.
+
+    /**
+     * Constructs a curve from its steps, which may be given in any order.
+     *
+     * @param days the days until expiry at which each step starts, at least 0 and all different
+     * @param percentOff the percentage taken off the price at each step, from 0 to 100
+     * @throws IllegalArgumentException if the steps are not valid
+     */
+    public MarkdownCurve(int[] days, int[] percentOff) {
+        if (days.length != percentOff.length) {
+            throw new IllegalArgumentException("Every step needs a number of days and a percentage");
+        }
+        Integer[] order = new Integer[days.length];
+        for (int i = 0; i < order.length; i++) {
+            if (days[i] < 0 || percentOff[i] < 0 || percentOff[i] > 100) {
+                throw new IllegalArgumentException("Days must be at least 0 and percentages from 0 to 100");
+            }
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(days[b], days[a]));
+        this.days = new int[days.length];
+        this.percentOff = new int[days.length];
+        for (int i = 0; i < order.length; i++) {
+            this.days[i] = days[order[i]];
+            this.percentOff[i] = percentOff[order[i]];
+            if (i > 0 && this.days[i] == this.days[i - 1]) {
+                throw new IllegalArgumentException("Two steps start at " + this.days[i] + " days");
+            }
+        }
+    }
+
+    /**
+     * Reads a curve written as comma separated days:percent steps, e.g. "3:20,1:50".
+     *
+     * @param text the steps
+     * @return the curve
+     * @throws IllegalArgumentException if the text is not a valid curve
+     */
+    public static MarkdownCurve parse(String text) {
+        String[] steps = text.trim().split("\\s*,\\s*");
+        int[] days = new int[steps.length];
+        int[] percentOff = new int[steps.length];
+        for (int i = 0; i < steps.length; i++) {
+            String[] parts = steps[i].split("\\s*:\\s*");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Write each step as days:percent, e.g. 3:20");
+            }
+            try {
+                days[i] = Integer.parseInt(parts[0].trim());
+                percentOff[i] = Integer.parseInt(parts[1].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Write each step as days:percent, e.g. 3:20");
+            }
+        }
+        return new MarkdownCurve(days, percentOff);
+    }
+
+    /**
+     * Returns the percentage taken off a listing, from the step with the fewest days which still covers it.
+     *
+     * @param daysLeft the whole days until the listing expires
+     * @return the percentage, 0 if no step covers the listing yet
+     */
+    public int percentOff(int daysLeft) {
+        int off = 0;
+        for (int i = 0; i < days.length && daysLeft <= days[i]; i++) {
+            off = percentOff[i];
+        }
+        return off;
+    }
+
+    /**
+     * Marks down a price.
+     *
+     * @param priceCents the full price, in cents
+     * @param daysLeft the whole days until the listing expires
+     * @return the marked down price, in cents, rounded to the nearest cent
+     */
+    public long apply(long priceCents, int daysLeft) {
+        int off = percentOff(daysLeft);
+        return off == 0 ? priceCents : (priceCents * (100 - off) + 50) / 100;
+    }
+
+    /**
+     * @return the steps, in the form parse() reads, e.g. "3:20,1:50"
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < days.length; i++) {
+            text.append(i == 0 ? "" : ",").append(days[i]).append(':').append(percentOff[i]);
+        }
+        return text.toString();
+    }
+}
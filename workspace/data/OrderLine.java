@@ -0,0 +1,80 @@
+import java.io.Serializable;
+
+/**
+ * This class is one line of a placed order: the units of one Listing, and the business which sells
+ * them. A Ticket keeps its order split into lines when it is placed, so each business can find and
+ * fulfil its own part of the order (see SellerOrderIndex) without the ticket ID.
+ */
+public class OrderLine implements Serializable {
+    private static final long serialVersionUID = 1L; //Pinned so saved files stay readable as the class changes.
+    private final int listingId; //The ID of the Listing the units were sold from.
+    private final String seller; //The username of the business which sells the units.
+    private final FoodItem item; //The item, at the price it was sold for.
+    private final int units; //The number of units ordered.
+    private volatile boolean fulfilled; //True once the business has handed the units over.
+
+    /**
+     * Constructs a pending OrderLine.
+     *
+     * @param listingId the ID of the Listing the units were sold from
+     * @param seller the username of the business which sells the units
+     * @param item the item, at the price it was sold for
+     * @param units the number of units ordered
+     */
+    public OrderLine(int listingId, String seller, FoodItem item, int units) {
+        this.listingId = listingId;
+        this.seller = seller;
+        this.item = item;
+        this.units = units;
+    }
+
+    /**
+     * @return the ID of the Listing the units were sold from
+     */
+    public int getListingId() {
+        return listingId;
+    }
+
+    /**
+     * @return the username of the business which sells the units
+     */
+    public String getSeller() {
+        return seller;
+    }
+
+    /**
+     * @return the item, at the price it was sold for
+     */
+    public FoodItem getItem() {
+        return item;
+    }
+
+    /**
+     * @return the number of units ordered
+     */
+    public int getUnits() {
+        return units;
+    }
+
+    /**
+     * @return true once the business has handed the units over
+     */
+    public boolean isFulfilled() {
+        return fulfilled;
+    }
+
+    /**
+     * Marks the units as handed over.
+     */
+    public void fulfil() {
+        fulfilled = true;
+    }
+
+    /**
+     * @return the line as text, e.g. "2 x Bread ($2.50 each)"
+     */
+    @Override
+    public String toString() {
+        return units + " x " + item.getName() + String.format(" ($%.2f each)", item.getPrice());
+    }
+}
@@ -0,0 +1,86 @@
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class holds units of a Listing for one cart until they are ordered or the reservation expires.
+ * A Reservation is settled exactly once: either its units are sold by an order, or they are
+ * returned to the Listing. Settling is a compare-and-set, so an order and the expiry sweep
+ * racing for the same Reservation can never both win.
+ */
+public class Reservation {
+    private final Listing listing; //The Listing the units are reserved from.
+    private final int units; //The number of units reserved.
+    private final long expiresAt; //The instant the units are returned if they have not been ordered.
+    private final AtomicBoolean settled; //True once the units have been sold or returned.
+
+    /**
+     * Constructs a Reservation of units which have already been reserved from the Listing.
+     *
+     * @param listing the Listing the units are reserved from
+     * @param units the number of units reserved
+     * @param expiresAt the instant the reservation expires, in milliseconds since the epoch
+     */
+    public Reservation(Listing listing, int units, long expiresAt) {
+        this.listing = listing;
+        this.units = units;
+        this.expiresAt = expiresAt;
+        this.settled = new AtomicBoolean();
+    }
+
+    /**
+     * @return the Listing the units are reserved from
+     */
+    public Listing getListing() {
+        return listing;
+    }
+
+    /**
+     * @return the number of units reserved
+     */
+    public int getUnits() {
+        return units;
+    }
+
+    /**
+     * @return the instant the reservation expires, in milliseconds since the epoch
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * @param now the current time, in milliseconds since the epoch
+     * @return true if the reservation expired at or before now
+     */
+    public boolean isExpired(long now) {
+        return expiresAt <= now;
+    }
+
+    /**
+     * @return true if the units have been sold or returned
+     */
+    public boolean isSettled() {
+        return settled.get();
+    }
+
+    /**
+     * Claims the right to sell or return the units.
+     *
+     * @return true if this call settled the reservation, false if it was already settled
+     */
+    public boolean settle() {
+        return settled.compareAndSet(false, true);
+    }
+
+    /**
+     * Returns the units to the Listing, unless the reservation was already settled.
+     *
+     * @return true if the units were returned
+     */
+    public boolean release() {
+        if (!settle()) {
+            return false;
+        }
+        listing.release(units);
+        return true;
+    }
+}
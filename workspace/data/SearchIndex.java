@@ -0,0 +1,261 @@
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+
+/**
+ * This class is an inverted index from the words in item names and seller names to
+ * listing ordinals (see ListingIndex). Words are kept sorted, so every word which starts
+ * with a prefix is one range of the index, which makes search-as-you-type cheap.
+ *
+ * Results are ranked in three tiers: listings whose item name contains every query word,
+ * then listings which contain every query word in the item or seller name, and then
+ * listings where the last query word, which may still be being typed, only starts a
+ * word (e.g. "whole bre" for "Whole Bread").
+ */
+public class SearchIndex {
+    private static final int MAX_UNMERGED = 16; // The most bitmaps a condition is checked against one by one.
+
+    private final TreeMap<String, ListingBitmap> nameWords; // Ordinals by the words of the item name.
+    private final TreeMap<String, ListingBitmap> sellerWords; // Ordinals by the words of the seller name.
+
+    /**
+     * Constructs an empty SearchIndex.
+     */
+    public SearchIndex() {
+        nameWords = new TreeMap<>();
+        sellerWords = new TreeMap<>();
+    }
+
+    /**
+     * Indexes the words of a listing's item and seller names.
+     *
+     * @param ordinal the ordinal of the listing
+     * @param listing the listing
+     */
+    public void add(int ordinal, Listing listing) {
+        for (String word : tokenize(listing.getName())) {
+            nameWords.computeIfAbsent(word, k -> new ListingBitmap()).add(ordinal);
+        }
+        for (String word : tokenize(listing.getSeller())) {
+            sellerWords.computeIfAbsent(word, k -> new ListingBitmap()).add(ordinal);
+        }
+    }
+
+    /**
+     * Removes a listing from the index, e.g. once it is sold or expires.
+     *
+     * @param ordinal the ordinal of the listing
+     * @param listing the listing
+     */
+    public void remove(int ordinal, Listing listing) {
+        removeWords(nameWords, tokenize(listing.getName()), ordinal);
+        removeWords(sellerWords, tokenize(listing.getSeller()), ordinal);
+    }
+
+    /**
+     * Finds the ordinals of the listings which match a query, best matches first.
+     * Each tier walks the postings of its most selective word and checks the other
+     * words against their bitmaps, stopping as soon as the limit is reached, so the
+     * cost depends on the limit rather than on how many listings match.
+     *
+     * @param query the words to look for; the last word may be incomplete
+     * @param limit the most ordinals to return
+     * @return the ordinals of the matching listings
+     */
+    public List<Integer> search(String query, int limit) {
+        return search(query, limit, ordinal -> true);
+    }
+
+    /**
+     * Finds the ordinals of the listings which match a query and a filter, best matches first.
+     * The filter is checked before an ordinal counts towards the limit, so a filtered search
+     * still returns up to limit results when enough listings match further down the ranking.
+     *
+     * @param query the words to look for; the last word may be incomplete
+     * @param limit the most ordinals to return
+     * @param filter accepts the ordinals which may be returned, e.g. those in a price range
+     * @return the ordinals of the matching listings
+     */
+    public List<Integer> search(String query, int limit, IntPredicate filter) {
+        LinkedHashSet<Integer> results = new LinkedHashSet<>();
+        List<String> words = tokenize(query);
+        if (words.isEmpty() || limit <= 0) {
+            return new ArrayList<>(results);
+        }
+        String last = words.get(words.size() - 1);
+
+        List<List<ListingBitmap>> inName = new ArrayList<>();
+        List<List<ListingBitmap>> whole = new ArrayList<>();
+        List<List<ListingBitmap>> prefix = new ArrayList<>();
+        for (String word : words) {
+            inName.add(lookup(nameWords, word));
+            List<ListingBitmap> exact = lookup(nameWords, word);
+            exact.addAll(lookup(sellerWords, word));
+            whole.add(exact);
+            if (word != last) {
+                prefix.add(exact);
+            }
+        }
+        List<ListingBitmap> starts = new ArrayList<>(lookup(nameWords, last));
+        starts.addAll(withPrefix(nameWords, last).values());
+        starts.addAll(lookup(sellerWords, last));
+        starts.addAll(withPrefix(sellerWords, last).values());
+        prefix.add(starts);
+
+        collect(inName, results, limit, filter);
+        collect(whole, results, limit, filter);
+        collect(prefix, results, limit, filter);
+        return new ArrayList<>(results);
+    }
+
+    /**
+     * Adds the ordinals which match every condition to the results until the limit is reached.
+     * A condition matches an ordinal if any of its bitmaps holds it, and only ordinals the filter accepts are added.
+     */
+    private static void collect(List<List<ListingBitmap>> conditions, LinkedHashSet<Integer> results, int limit,
+            IntPredicate filter) {
+        if (results.size() >= limit) {
+            return;
+        }
+        int driver = 0;
+        long smallest = Long.MAX_VALUE;
+        for (int i = 0; i < conditions.size(); i++) {
+            long cardinality = 0;
+            for (ListingBitmap bitmap : conditions.get(i)) {
+                cardinality += bitmap.cardinality();
+            }
+            if (cardinality == 0) {
+                return;
+            }
+            if (cardinality < smallest) {
+                smallest = cardinality;
+                driver = i;
+            }
+        }
+
+        // Conditions with a few bitmaps are checked bitmap by bitmap; ones with many are merged first
+        List<List<ListingBitmap>> checks = new ArrayList<>();
+        for (int i = 0; i < conditions.size(); i++) {
+            if (i != driver) {
+                List<ListingBitmap> condition = conditions.get(i);
+                checks.add(condition.size() <= MAX_UNMERGED ? condition : List.of(union(condition)));
+            }
+        }
+        for (ListingBitmap bitmap : conditions.get(driver)) {
+            boolean more = bitmap.forEachWhile(ordinal -> {
+                for (List<ListingBitmap> check : checks) {
+                    if (!containsAny(check, ordinal)) {
+                        return true;
+                    }
+                }
+                if (!results.contains(ordinal) && filter.test(ordinal)) {
+                    results.add(ordinal);
+                }
+                return results.size() < limit;
+            });
+            if (!more) {
+                return;
+            }
+        }
+    }
+
+    private static boolean containsAny(List<ListingBitmap> bitmaps, int ordinal) {
+        for (ListingBitmap bitmap : bitmaps) {
+            if (bitmap.contains(ordinal)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ListingBitmap union(List<ListingBitmap> bitmaps) {
+        if (bitmaps.size() == 1) {
+            return bitmaps.get(0);
+        }
+        ListingBitmap union = new ListingBitmap();
+        for (ListingBitmap bitmap : bitmaps) {
+            union = union.or(bitmap);
+        }
+        return union;
+    }
+
+    private static List<ListingBitmap> lookup(TreeMap<String, ListingBitmap> words, String word) {
+        List<ListingBitmap> found = new ArrayList<>(1);
+        ListingBitmap bitmap = words.get(word);
+        if (bitmap != null) {
+            found.add(bitmap);
+        }
+        return found;
+    }
+
+    /**
+     * Checks whether a listing matches a query, e.g. for a listing added after a search was run.
+     *
+     * @param listing the listing
+     * @param query the words to look for; the last word may be incomplete
+     * @return true if every query word is a word of the listing's item or seller name,
+     *         except the last word, which only has to start one
+     */
+    public static boolean matches(Listing listing, String query) {
+        List<String> listingWords = tokenize(listing.getName());
+        listingWords.addAll(tokenize(listing.getSeller()));
+        List<String> words = tokenize(query);
+        for (int i = 0; i < words.size(); i++) {
+            boolean found = false;
+            for (String listingWord : listingWords) {
+                if (i == words.size() - 1 ? listingWord.startsWith(words.get(i)) : listingWord.equals(words.get(i))) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Splits text into lower case words of letters and digits.
+     *
+     * @param text the text to split
+     * @return the words, in order
+     */
+    static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    private static Map<String, ListingBitmap> withPrefix(TreeMap<String, ListingBitmap> words, String prefix) {
+        return words.subMap(prefix, false, prefix + Character.MAX_VALUE, false);
+    }
+
+    private static void removeWords(TreeMap<String, ListingBitmap> words, List<String> listingWords, int ordinal) {
+        for (String word : listingWords) {
+            ListingBitmap bitmap = words.get(word);
+            if (bitmap != null) {
+                bitmap.remove(ordinal);
+                if (bitmap.cardinality() == 0) {
+                    words.remove(word);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class indexes the orders each business still has to hand over: for every seller, the
+ * Tickets with an OrderLine of theirs which is not fulfilled, oldest first. Listing, paging through
+ * and fulfilling a business's orders only touches that business's entries, never the other Tickets.
+ * It is safe to use from several threads at once; each seller's orders are guarded by their own lock.
+ */
+public class SellerOrderIndex {
+    private final ConcurrentHashMap<String, LinkedHashMap<String, Ticket>> pending; //The pending Tickets of each seller, keyed by ticket ID in the order they were added.
+    private final AtomicInteger size; //The number of pending orders, counting a Ticket once per seller.
+
+    /**
+     * Constructs an empty SellerOrderIndex.
+     */
+    public SellerOrderIndex() {
+        pending = new ConcurrentHashMap<>();
+        size = new AtomicInteger();
+    }
+
+    /**
+     * Replaces the contents of the index with the pending orders of the specified Tickets,
+     * e.g. after they are loaded from disk. They are added oldest first.
+     *
+     * @param tickets the Tickets to index
+     */
+    public void rebuild(Collection<Ticket> tickets) {
+        List<Ticket> sorted = new ArrayList<>(tickets);
+        sorted.sort((a, b) -> Long.compare(a.getPlacedAt(), b.getPlacedAt()));
+        pending.clear();
+        size.set(0);
+        for (Ticket ticket : sorted) {
+            add(ticket);
+        }
+    }
+
+    /**
+     * Adds a Ticket to the pending orders of each seller with a line of it which is not fulfilled.
+     *
+     * @param ticket the Ticket
+     */
+    public void add(Ticket ticket) {
+        for (OrderLine line : ticket.getLines()) {
+            if (!line.isFulfilled()) {
+                LinkedHashMap<String, Ticket> orders = pending.computeIfAbsent(line.getSeller(), k -> new LinkedHashMap<>());
+                synchronized (orders) {
+                    if (orders.putIfAbsent(ticket.getTicketId(), ticket) == null) {
+                        size.incrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds a page of a seller's pending orders.
+     *
+     * @param seller the username of the business
+     * @param offset the number of orders to skip
+     * @param limit the most orders to return
+     * @return the pending Tickets, oldest first
+     */
+    public List<Ticket> find(String seller, int offset, int limit) {
+        LinkedHashMap<String, Ticket> orders = pending.get(seller);
+        if (orders == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        List<Ticket> page = new ArrayList<>(Math.min(limit, 64));
+        synchronized (orders) {
+            Iterator<Ticket> it = orders.values().iterator();
+            for (int skipped = 0; skipped < offset && it.hasNext(); skipped++) {
+                it.next();
+            }
+            while (page.size() < limit && it.hasNext()) {
+                page.add(it.next());
+            }
+        }
+        return page;
+    }
+
+    /**
+     * @param seller the username of the business
+     * @return the number of the seller's pending orders
+     */
+    public int count(String seller) {
+        LinkedHashMap<String, Ticket> orders = pending.get(seller);
+        if (orders == null) {
+            return 0;
+        }
+        synchronized (orders) {
+            return orders.size();
+        }
+    }
+
+    /**
+     * Marks a seller's lines of a pending order as fulfilled and removes the order from the seller's pending orders.
+     *
+     * @param seller the username of the business
+     * @param ticketId the ID of the Ticket
+     * @return the Ticket, or null if the seller has no pending order with the ID
+     */
+    public Ticket fulfil(String seller, String ticketId) {
+        LinkedHashMap<String, Ticket> orders = pending.get(seller);
+        if (orders == null) {
+            return null;
+        }
+        Ticket ticket;
+        synchronized (orders) {
+            ticket = orders.remove(ticketId);
+        }
+        if (ticket == null) {
+            return null;
+        }
+        size.decrementAndGet();
+        for (OrderLine line : ticket.getLines(seller)) {
+            line.fulfil();
+        }
+        return ticket;
+    }
+
+    /**
+     * @return the number of pending orders, counting a Ticket once for each seller with a line of it
+     */
+    public int size() {
+        return size.get();
+    }
+}
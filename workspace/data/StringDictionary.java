@@ -0,0 +1,91 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class encodes strings which repeat across many objects, e.g. the seller and category of
+ * every Listing, as small int codes. Each distinct string is kept once, here, and the objects
+ * keep a 4 byte code instead of a reference to their own copy of the string.
+ * Codes are handed out from 0 in the order strings are first seen and are never reused, so they
+ * are only meaningful while the program runs: saved files store the strings.
+ * Encoding a string which is already known and decoding never take a lock.
+ */
+public class StringDictionary {
+    public static final StringDictionary SELLERS = new StringDictionary(); // The names of the businesses selling listings.
+    public static final StringDictionary CATEGORIES = new StringDictionary(); // The categories of listings and items.
+    public static final int NULL = -1; // The code of a null string.
+
+    private final ConcurrentHashMap<String, Integer> codes; // The code of each string.
+    private volatile String[] strings; // The string of each code, replaced by a larger copy when it is full.
+    private int size; // The number of codes handed out, guarded by this.
+
+    /**
+     * Constructs an empty dictionary.
+     */
+    public StringDictionary() {
+        this.codes = new ConcurrentHashMap<>();
+        this.strings = new String[16];
+    }
+
+    /**
+     * Returns the code of a string, handing out the next code if the string is new.
+     *
+     * @param string the string, or null
+     * @return the code, or NULL for null
+     */
+    public int encode(String string) {
+        if (string == null) {
+            return NULL;
+        }
+        Integer code = codes.get(string);
+        if (code != null) {
+            return code;
+        }
+        synchronized (this) {
+            code = codes.get(string);
+            if (code == null) {
+                String[] table = strings;
+                if (size == table.length) {
+                    table = Arrays.copyOf(table, size * 2);
+                }
+                // The string is stored before its code is published, so a code is always decodable.
+                table[size] = string;
+                strings = table;
+                code = size++;
+                codes.put(string, code);
+            }
+            return code;
+        }
+    }
+
+    /**
+     * Returns the code of a string without handing out a new one, e.g. to look up a category
+     * typed into a search box.
+     *
+     * @param string the string, or null
+     * @return the code, or NULL if the string has no code
+     */
+    public int find(String string) {
+        if (string == null) {
+            return NULL;
+        }
+        Integer code = codes.get(string);
+        return code == null ? NULL : code;
+    }
+
+    /**
+     * Returns the string of a code.
+     *
+     * @param code a code returned by encode(), or NULL
+     * @return the string, or null for NULL
+     */
+    public String decode(int code) {
+        return code == NULL ? null : strings[code];
+    }
+
+    /**
+     * @return the number of distinct strings in the dictionary
+     */
+    public int size() {
+        return codes.size();
+    }
+}
@@ -1,43 +1,72 @@
 import java.io.Serializable;
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * The Ticket class represents a ticket associated with a Cart object.
- * It generates a unique ticket ID and holds a reference to the Cart.
+ * It holds a unique ticket ID, a reference to the Cart and the time the order was placed.
+ * Orders placed since orders were split by seller also hold an OrderLine per Listing, so each
+ * business can see and fulfil its part of the order, and the username of the customer who placed it.
  *
  * @author Muhammad Daud
  */
 public class Ticket implements Serializable {
+    private static final long serialVersionUID = 7528679277522432970L; //Pinned so saved files stay readable as the class changes.
     private String ticketId; // Unique ID for the ticket
     private Cart ticketCart; // The associated Cart object
+    private long placedAt; // When the order was placed, in milliseconds since the epoch, or 0 if it was saved before this was kept
+    private ArrayList<OrderLine> lines; // The order split by Listing and seller, or null if it was saved before orders were split
+    private String buyer; // The username of the customer who placed the order, or null if it was saved before this was kept
 
     /**
-     * Constructs a Ticket object using the provided Cart.
+     * Constructs a Ticket object using the provided ticket ID and Cart.
      *
+     * @param ticketId The unique ID of the ticket, see TicketIdAllocator.
      * @param cart The Cart object associated with the ticket.
      */
-    public Ticket(Cart cart) {
-        this.ticketId = generateTicketId(); // generate a unique ticket ID
-        this.ticketCart = cart;
+    public Ticket(String ticketId, Cart cart) {
+        this(ticketId, cart, System.currentTimeMillis());
     }
 
     /**
-     * Generates a unique ticket ID of 6 characters.
-     * These can be numbers or alphabets.
+     * Constructs a Ticket object for an order placed at a given time.
      *
-     * @return The generated ticket ID.
+     * @param ticketId The unique ID of the ticket, see TicketIdAllocator.
+     * @param cart The Cart object associated with the ticket.
+     * @param placedAt When the order was placed, in milliseconds since the epoch.
      */
-    private String generateTicketId() {
-        String characters = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
-        StringBuilder sb = new StringBuilder();
-        Random random = new Random();
+    public Ticket(String ticketId, Cart cart, long placedAt) {
+        this(ticketId, cart, placedAt, null);
+    }
 
-        for (int i = 0; i < 6; i++) {
-            int index = random.nextInt(characters.length());
-            sb.append(characters.charAt(index));
-        }
+    /**
+     * Constructs a Ticket object for an order placed at a given time and split by seller.
+     *
+     * @param ticketId The unique ID of the ticket, see TicketIdAllocator.
+     * @param cart The Cart object associated with the ticket.
+     * @param placedAt When the order was placed, in milliseconds since the epoch.
+     * @param lines The order split by Listing and seller, or null.
+     */
+    public Ticket(String ticketId, Cart cart, long placedAt, ArrayList<OrderLine> lines) {
+        this(ticketId, cart, placedAt, lines, null);
+    }
 
-        return sb.toString();
+    /**
+     * Constructs a Ticket object for an order placed by a customer at a given time and split by seller.
+     *
+     * @param ticketId The unique ID of the ticket, see TicketIdAllocator.
+     * @param cart The Cart object associated with the ticket.
+     * @param placedAt When the order was placed, in milliseconds since the epoch.
+     * @param lines The order split by Listing and seller, or null.
+     * @param buyer The username of the customer who placed the order, or null.
+     */
+    public Ticket(String ticketId, Cart cart, long placedAt, ArrayList<OrderLine> lines, String buyer) {
+        this.ticketId = ticketId;
+        this.ticketCart = cart;
+        this.placedAt = placedAt;
+        this.lines = lines;
+        this.buyer = buyer;
     }
 
     /**
@@ -57,4 +86,62 @@ public class Ticket implements Serializable {
     public Cart getCart() {
         return ticketCart;
     }
+
+    /**
+     * Retrieves the time the order was placed.
+     *
+     * @return When the order was placed, in milliseconds since the epoch, or 0 for tickets saved before this was kept.
+     */
+    public long getPlacedAt() {
+        return placedAt;
+    }
+
+    /**
+     * Retrieves the customer who placed the order.
+     *
+     * @return The username of the customer, or null for tickets saved before this was kept.
+     */
+    public String getBuyer() {
+        return buyer;
+    }
+
+    /**
+     * Retrieves the order split by Listing and seller.
+     *
+     * @return The lines of the order, or an empty list for tickets saved before orders were split.
+     */
+    public List<OrderLine> getLines() {
+        return lines == null ? Collections.emptyList() : lines;
+    }
+
+    /**
+     * Retrieves the lines of the order which one business sells.
+     *
+     * @param seller The username of the business.
+     * @return The business's lines of the order, fulfilled or not.
+     */
+    public List<OrderLine> getLines(String seller) {
+        List<OrderLine> sold = new ArrayList<>();
+        for (OrderLine line : getLines()) {
+            if (line.getSeller().equals(seller)) {
+                sold.add(line);
+            }
+        }
+        return sold;
+    }
+
+    /**
+     * Checks whether a business still has to hand over part of the order.
+     *
+     * @param seller The username of the business.
+     * @return True if a line of the order which the business sells is not fulfilled.
+     */
+    public boolean isPendingFor(String seller) {
+        for (OrderLine line : getLines()) {
+            if (!line.isFulfilled() && line.getSeller().equals(seller)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
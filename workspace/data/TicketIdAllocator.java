@@ -0,0 +1,88 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class hands out 6 character ticket IDs which are guaranteed to be unique.
+ * Each ID comes from a sequence number which is scrambled by a bijection on the
+ * 62^6 possible IDs, so IDs look random but can never repeat. Taking a number from
+ * the sequence is a single atomic increment, so concurrent orders never wait on a lock.
+ */
+public class TicketIdAllocator {
+    static final String CHARACTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+    static final int LENGTH = 6; // The number of characters in an ID.
+    static final long CAPACITY = 56_800_235_584L; // 62^6, the number of possible IDs.
+
+    // Multipliers must be coprime with 62^6 = 2^6 * 31^6 for the scramble to be a bijection,
+    // and small enough that multiplying them by a number below 62^6 cannot overflow a long.
+    private static final long MULTIPLIER_1 = 1_000_003L;
+    private static final long OFFSET_1 = 31_415_926_535L;
+    private static final long MULTIPLIER_2 = 7_654_321L;
+    private static final long OFFSET_2 = 27_182_818_284L;
+    private static final long MULTIPLIER_3 = 123_456_791L;
+    private static final long OFFSET_3 = 16_180_339_887L;
+
+    private final AtomicLong sequence; // The next sequence number to scramble.
+
+    /**
+     * Constructs an allocator which starts at the first sequence number.
+     */
+    public TicketIdAllocator() {
+        sequence = new AtomicLong();
+    }
+
+    /**
+     * Moves the sequence past the numbers which may already have been used.
+     * Every sequence number used so far either produced a stored ticket or collided
+     * with one, so starting at the number of stored tickets never reuses an ID.
+     *
+     * @param storedTickets the number of tickets which are already stored
+     */
+    public void seed(long storedTickets) {
+        sequence.accumulateAndGet(storedTickets, Math::max);
+    }
+
+    /**
+     * Allocates the next ticket ID.
+     *
+     * @return a 6 character ID which has not been handed out by this sequence before
+     * @throws IllegalStateException if all 62^6 IDs have been used
+     */
+    public String next() {
+        long number = sequence.getAndIncrement();
+        if (number >= CAPACITY) {
+            throw new IllegalStateException("All ticket IDs have been used");
+        }
+        return encode(scramble(number));
+    }
+
+    /**
+     * Maps a sequence number to a unique number in [0, 62^6).
+     * Three affine steps, with the base 62 digits reversed in between, are each a
+     * bijection, so the whole scramble is too. Reversing the digits lets every digit
+     * of the number affect every character of the ID.
+     */
+    static long scramble(long number) {
+        long value = (number * MULTIPLIER_1 + OFFSET_1) % CAPACITY;
+        value = reverseDigits(value);
+        value = (value * MULTIPLIER_2 + OFFSET_2) % CAPACITY;
+        value = reverseDigits(value);
+        return (value * MULTIPLIER_3 + OFFSET_3) % CAPACITY;
+    }
+
+    private static long reverseDigits(long value) {
+        long reversed = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            reversed = reversed * 62 + value % 62;
+            value /= 62;
+        }
+        return reversed;
+    }
+
+    private static String encode(long value) {
+        char[] id = new char[LENGTH];
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            id[i] = CHARACTERS.charAt((int) (value % 62));
+            value /= 62;
+        }
+        return new String(id);
+    }
+}
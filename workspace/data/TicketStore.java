@@ -0,0 +1,74 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class stores Tickets keyed by ticket ID, so a Ticket can be found in constant time.
+ * It is safe to use from several threads at once.
+ */
+public class TicketStore {
+    private ConcurrentHashMap<String, Ticket> tickets; //The stored Tickets, keyed by ticket ID.
+
+    /**
+     * Constructs an empty TicketStore.
+     */
+    public TicketStore() {
+        tickets = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Replaces the contents of the store with the specified Tickets, e.g. after they are loaded from disk.
+     *
+     * @param loaded the Tickets to index
+     */
+    public void rebuild(Collection<Ticket> loaded) {
+        ConcurrentHashMap<String, Ticket> index = new ConcurrentHashMap<>(Math.max(16, loaded.size() * 4 / 3 + 1));
+        for (Ticket ticket : loaded) {
+            index.putIfAbsent(ticket.getTicketId(), ticket);
+        }
+        tickets = index;
+    }
+
+    /**
+     * Adds a Ticket unless another Ticket already has its ID.
+     *
+     * @param ticket the Ticket to add
+     * @return true if the Ticket was added, false if its ID is taken
+     */
+    public boolean add(Ticket ticket) {
+        return tickets.putIfAbsent(ticket.getTicketId(), ticket) == null;
+    }
+
+    /**
+     * @param ticketId the ID of the Ticket
+     * @return the Ticket with the specified ID, or null if there is none
+     */
+    public Ticket find(String ticketId) {
+        return tickets.get(ticketId);
+    }
+
+    /**
+     * @return the number of stored Tickets
+     */
+    public int size() {
+        return tickets.size();
+    }
+
+    /**
+     * @return a copy of all stored Tickets, e.g. to be saved to disk
+     */
+    public ArrayList<Ticket> getTickets() {
+        return new ArrayList<>(tickets.values());
+    }
+
+    /**
+     * Returns the stored Tickets without copying them, e.g. to stream them to a file.
+     * Iterating it never fails because of Tickets added meanwhile, but may or may not include them.
+     *
+     * @return a read-only view of the stored Tickets, in no particular order
+     */
+    public Collection<Ticket> view() {
+        return Collections.unmodifiableCollection(tickets.values());
+    }
+}
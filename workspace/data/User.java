@@ -6,9 +6,11 @@ import java.io.Serializable;
 */
 
 public class User implements Serializable {
+    private static final long serialVersionUID = -4814011015278742475L; //Pinned so saved files stay readable as the class changes.
     private String username; //The username of the User.
     private String password; //The password of the User.
     private boolean isBusiness; //A boolean which is true is the User is the business.
+    private volatile MarkdownCurve markdown; //How a business marks down listings near their expiry date, or null for fixed prices.
 
     /**
      * Constructs a User object which has a username, password, and a boolean identifying if it is a business.
@@ -39,4 +41,20 @@ public class User implements Serializable {
     public boolean isBusiness() {
         return isBusiness;
     }
+
+    /**
+     * @return the markdown curve of the business, or null if its prices are fixed
+     */
+    public MarkdownCurve getMarkdown() {
+        return markdown;
+    }
+
+    /**
+     * Sets how the business marks down listings near their expiry date.
+     *
+     * @param markdown the markdown curve, or null for fixed prices
+     */
+    public void setMarkdown(MarkdownCurve markdown) {
+        this.markdown = markdown;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,94 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class is a directory of Users keyed by username.
+ * It gives constant time login and registration, and guarantees usernames are unique.
+ * It is safe to use from several threads at once.
+ */
+public class UserDirectory {
+    private ConcurrentHashMap<String, User> users; //The registered Users, keyed by username.
+
+    /**
+     * Constructs an empty UserDirectory.
+     */
+    public UserDirectory() {
+        users = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Replaces the contents of the directory with the specified Users, e.g. after they are loaded from disk.
+     * If a username appears more than once, the first User with that username is kept.
+     *
+     * @param loaded the Users to index
+     * @return the number of Users which were skipped because their username was already taken
+     */
+    public int rebuild(Collection<User> loaded) {
+        ConcurrentHashMap<String, User> index = new ConcurrentHashMap<>(Math.max(16, loaded.size() * 4 / 3 + 1));
+        int duplicates = 0;
+        for (User user : loaded) {
+            if (index.putIfAbsent(user.getUsername(), user) != null) {
+                duplicates++;
+            }
+        }
+        users = index;
+        return duplicates;
+    }
+
+    /**
+     * Adds a User to the directory unless their username is already taken.
+     *
+     * @param user the User to add
+     * @return true if the User was added, false if the username is taken
+     */
+    public boolean register(User user) {
+        return users.putIfAbsent(user.getUsername(), user) == null;
+    }
+
+    /**
+     * Finds the User with the specified username and password.
+     *
+     * @param username the username of the User
+     * @param password the password of the User
+     * @return the matching User, or null if the username or password is wrong
+     */
+    public User authenticate(String username, String password) {
+        User user = users.get(username);
+        if (user != null && user.getPassword().equals(password)) {
+            return user;
+        }
+        return null;
+    }
+
+    /**
+     * @param username the username of the User
+     * @return the User with the specified username, or null if there is none
+     */
+    public User find(String username) {
+        return users.get(username);
+    }
+
+    /**
+     * @param username the username to check
+     * @return true if a User with the specified username is registered as a business
+     */
+    public boolean isBusiness(String username) {
+        User user = users.get(username);
+        return user != null && user.isBusiness();
+    }
+
+    /**
+     * @return the number of registered Users
+     */
+    public int size() {
+        return users.size();
+    }
+
+    /**
+     * @return a copy of all registered Users, e.g. to be saved to disk
+     */
+    public ArrayList<User> getUsers() {
+        return new ArrayList<>(users.values());
+    }
+}
@@ -0,0 +1,588 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class serves the App over HTTP, so many customers can browse and order at once
+ * without the GUI. Requests are handled on one virtual thread each, so a slow client only
+ * ties up a cheap virtual thread, and the App is thread-safe, so requests run in parallel.
+ * Each login opens an App Session with its own cart, identified by a token sent as
+ * "Authorization: Bearer token" or as a token parameter.
+ * Parameters are read from the query string and from a JSON or form encoded body,
+ * and every response is a JSON object.
+ *
+ * Endpoints:
+ * POST /register (username, password, business), POST /login (username, password), POST /logout,
+ * GET /listings (category, seller, q, minPrice, maxPrice, expiresWithinDays, offset, limit), GET /cart, POST /cart (listingId, units),
+ * POST /order, GET /order (ticketId) for the order's customer or its businesses, POST /markdown (curve, e.g. 3:20,1:50, or none for fixed prices),
+ * GET /orders (offset, limit) for a business's pending orders, POST /fulfil (ticketId)
+ * and GET /stats (format=text for a table). Listings and carts show current prices, which may be marked down.
+ * GET /listings says whether there are more matches after the page, rather than counting them all.
+ */
+public class ApiServer {
+    static final int MAX_BODY = 64 * 1024; // The largest request body which is read.
+    static final int DEFAULT_PAGE = 50; // The number of listings returned when no limit is given.
+    static final int MAX_PAGE = 1000; // The most listings returned by one request.
+
+    private final App app; // The App which is served.
+    private final HttpServer server; // The HTTP server.
+    private final ExecutorService executor; // Runs each request, on a virtual thread where available.
+    private final HashMap<String, Map<String, Action>> routes; // The action of each method, keyed by path.
+    private final ApiStats stats; // The throughput and latency of each endpoint.
+
+    /**
+     * A response: an HTTP status and a JSON body.
+     */
+    private static class Reply {
+        private final int status; // The HTTP status.
+        private final String body; // The JSON body.
+
+        Reply(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    /**
+     * A request which can't be carried out, answered with an error status and message.
+     */
+    private static class ApiException extends RuntimeException {
+        private static final long serialVersionUID = 1L; // Exceptions are Serializable; this one never leaves the server.
+        private final int status; // The HTTP status of the error.
+
+        ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * What an endpoint does with the parameters of a request.
+     */
+    private interface Action {
+        Reply handle(Map<String, String> params, HttpExchange exchange) throws IOException;
+    }
+
+    /**
+     * Constructs an ApiServer bound to a port, which has not been started.
+     * The App should already have loaded its data.
+     *
+     * @param app the App to serve
+     * @param port the port to listen on, or 0 for any free port
+     * @throws IOException if the port can't be bound
+     */
+    public ApiServer(App app, int port) throws IOException {
+        this.app = app;
+        this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+        this.executor = newRequestExecutor();
+        this.routes = new HashMap<>();
+        this.stats = new ApiStats();
+
+        route("POST", "/register", this::register);
+        route("POST", "/login", this::login);
+        route("POST", "/logout", this::logout);
+        route("GET", "/listings", this::listings);
+        route("GET", "/cart", this::getCart);
+        route("POST", "/cart", this::addToCart);
+        route("POST", "/order", this::placeOrder);
+        route("GET", "/order", this::getOrder);
+        route("POST", "/markdown", this::setMarkdown);
+        route("GET", "/orders", this::pendingOrders);
+        route("POST", "/fulfil", this::fulfilOrder);
+        route("GET", "/stats", this::stats);
+        for (String path : routes.keySet()) {
+            server.createContext(path, this::dispatch);
+        }
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Creates an executor which runs each task on a new virtual thread.
+     * Virtual threads are only available from Java 21, so on older versions a cached pool of
+     * platform threads is used instead; it is looked up reflectively so this compiles on either.
+     */
+    private static ExecutorService newRequestExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            EventLog.info("Virtual threads are unavailable, using a thread pool for requests");
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "api-request");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Starts accepting requests, and starts retiring expired listings, marking down listings near their
+     * expiry date and reporting metrics.
+     */
+    public void start() {
+        app.startExpirySweeper(Runnable::run);
+        app.startPricingEngine();
+        app.startMetrics();
+        server.start();
+        EventLog.info("API server listening on port {}", getPort());
+    }
+
+    /**
+     * Stops accepting requests and waits a little while for the requests in progress.
+     *
+     * @param delaySeconds the longest time to wait for requests in progress
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return the throughput and latency of each endpoint
+     */
+    public ApiStats getStats() {
+        return stats;
+    }
+
+    private void route(String method, String path, Action action) {
+        routes.computeIfAbsent(path, k -> new LinkedHashMap<>()).put(method, action);
+        stats.endpoint(method + " " + path);
+    }
+
+    /**
+     * Finds the action of a request, runs it and sends the reply, recording its latency.
+     */
+    private void dispatch(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        String path = exchange.getHttpContext().getPath();
+        String method = exchange.getRequestMethod();
+        Reply reply;
+        try {
+            Action action = routes.get(path).get(method);
+            if (!path.equals(exchange.getRequestURI().getPath())) {
+                reply = error(404, "No such endpoint");
+            } else if (action == null) {
+                exchange.getResponseHeaders().set("Allow", String.join(", ", routes.get(path).keySet()));
+                reply = error(405, method + " is not allowed");
+            } else {
+                reply = action.handle(readParams(exchange), exchange);
+            }
+        } catch (ApiException e) {
+            reply = error(e.status, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            reply = error(400, e.getMessage());
+        } catch (RuntimeException e) {
+            EventLog.warn("Error handling {} {}: {}", method, path, e);
+            reply = error(500, "Internal error");
+        }
+
+        try {
+            byte[] body = reply.body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type",
+                    reply.body.startsWith("{") ? "application/json; charset=utf-8" : "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(reply.status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+            ApiStats.Endpoint endpoint = routes.get(path).containsKey(method)
+                    ? stats.endpoint(method + " " + path) : stats.endpoint("other");
+            endpoint.record(System.nanoTime() - start, reply.status);
+        }
+    }
+
+    /**
+     * Reads the parameters of a request from its query string and its body.
+     * Body parameters win over query parameters of the same name.
+     */
+    private static Map<String, String> readParams(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            parseForm(query, params);
+        }
+
+        byte[] bytes;
+        try (InputStream in = exchange.getRequestBody()) {
+            bytes = in.readNBytes(MAX_BODY + 1);
+        }
+        if (bytes.length > MAX_BODY) {
+            throw new ApiException(413, "Request body is too large");
+        }
+        String body = new String(bytes, StandardCharsets.UTF_8).trim();
+        if (body.startsWith("{")) {
+            params.putAll(Json.parseObject(body));
+        } else if (!body.isEmpty()) {
+            parseForm(body, params);
+        }
+
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization != null && authorization.startsWith("Bearer ")) {
+            params.putIfAbsent("token", authorization.substring("Bearer ".length()).trim());
+        }
+        return params;
+    }
+
+    private static void parseForm(String form, Map<String, String> params) {
+        for (String pair : form.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String required(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new ApiException(400, "Missing parameter " + name);
+        }
+        return value;
+    }
+
+    /**
+     * Reads the price and expiry parameters of GET /listings.
+     *
+     * @return the query, or null if none of the parameters were given
+     */
+    private static ListingQuery rangeQuery(Map<String, String> params) {
+        double minPrice = doubleParam(params, "minPrice", Double.NaN);
+        double maxPrice = doubleParam(params, "maxPrice", Double.NaN);
+        int days = intParam(params, "expiresWithinDays", -1);
+        if (Double.isNaN(minPrice) && Double.isNaN(maxPrice) && days < 0) {
+            return null;
+        }
+        ListingQuery range = new ListingQuery();
+        if (!Double.isNaN(minPrice)) {
+            range.minPrice(minPrice);
+        }
+        if (!Double.isNaN(maxPrice)) {
+            range.maxPrice(maxPrice);
+        }
+        if (days >= 0) {
+            long now = System.currentTimeMillis();
+            range.expiringBetween(now, now + TimeUnit.DAYS.toMillis(days));
+        }
+        return range;
+    }
+
+    private static double doubleParam(Map<String, String> params, String name, double defaultValue) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new ApiException(400, "Parameter " + name + " must be a number");
+        }
+    }
+
+    private static int intParam(Map<String, String> params, String name, int defaultValue) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new ApiException(400, "Parameter " + name + " must be a whole number");
+        }
+    }
+
+    private Session session(Map<String, String> params) {
+        Session session = app.getSession(params.get("token"));
+        if (session == null) {
+            throw new ApiException(401, "Log in first");
+        }
+        return session;
+    }
+
+    private static Reply ok(Json.Writer json) {
+        return new Reply(200, json.toString());
+    }
+
+    private static Reply error(int status, String message) {
+        return new Reply(status, new Json.Writer().beginObject().name("error").value(message).endObject().toString());
+    }
+
+    private Reply register(Map<String, String> params, HttpExchange exchange) {
+        String username = required(params, "username");
+        String password = required(params, "password");
+        boolean business = Boolean.parseBoolean(params.get("business"));
+        if (!app.registerUser(business, username, password)) {
+            throw new ApiException(409, "Username already taken");
+        }
+        return new Reply(201, new Json.Writer().beginObject()
+                .name("username").value(username)
+                .name("business").value(business)
+                .endObject().toString());
+    }
+
+    private Reply login(Map<String, String> params, HttpExchange exchange) {
+        String username = required(params, "username");
+        String password = required(params, "password");
+        Session session = app.openSession(username, password);
+        if (session == null) {
+            throw new ApiException(401, "Invalid username or password");
+        }
+        User user = session.getUser();
+        return ok(new Json.Writer().beginObject()
+                .name("token").value(session.getToken())
+                .name("username").value(user.getUsername())
+                .name("business").value(user.isBusiness())
+                .endObject());
+    }
+
+    private Reply logout(Map<String, String> params, HttpExchange exchange) {
+        Session session = session(params);
+        app.closeSession(session);
+        return ok(new Json.Writer().beginObject().name("loggedOut").value(true).endObject());
+    }
+
+    private Reply listings(Map<String, String> params, HttpExchange exchange) {
+        String category = params.get("category");
+        String seller = params.get("seller");
+        String query = params.get("q");
+        int offset = Math.max(0, intParam(params, "offset", 0));
+        int limit = Math.max(0, Math.min(MAX_PAGE, intParam(params, "limit", DEFAULT_PAGE)));
+
+        ListingQuery range = rangeQuery(params);
+
+        if (query != null && !query.trim().isEmpty()) {
+            return search(query, (range != null ? range : new ListingQuery()).category(category).seller(seller),
+                    offset, limit);
+        }
+        // One extra listing is looked up to tell whether there are more, rather than counting every match.
+        List<Listing> found = range != null
+                ? app.findListings(range.category(category).seller(seller), ApiServer::inStock, offset, limit + 1)
+                : app.filterListings(category, seller, ApiServer::inStock, offset, limit + 1);
+        Json.Writer json = new Json.Writer().beginObject();
+        json.name("more").value(found.size() > limit);
+        json.name("listings").beginArray();
+        for (int i = 0; i < found.size() && i < limit; i++) {
+            writeListing(json, found.get(i));
+        }
+        json.endArray();
+        return ok(json.endObject());
+    }
+
+    /**
+     * @param listing the listing to check
+     * @return false if every unit of the listing is in a cart
+     */
+    private static boolean inStock(Listing listing) {
+        return listing.getAvailable() > 0;
+    }
+
+    /**
+     * Answers GET /listings with a search. The filters are applied while the ranked results are
+     * collected, so a page is only short when the ranking runs out.
+     */
+    private Reply search(String query, ListingQuery filter, int offset, int limit) {
+        List<Listing> found = app.searchListings(query, offset + limit + 1, listing -> inStock(listing)
+                && filter.matches(listing, ListingQuery.toCents(app.getPrice(listing))));
+        Json.Writer json = new Json.Writer().beginObject();
+        json.name("more").value(found.size() > offset + limit);
+        json.name("listings").beginArray();
+        for (int i = offset; i < found.size() && i < offset + limit; i++) {
+            writeListing(json, found.get(i));
+        }
+        json.endArray();
+        return ok(json.endObject());
+    }
+
+    private Reply getCart(Map<String, String> params, HttpExchange exchange) {
+        Session session = session(params);
+        return ok(writeItems(new Json.Writer().beginObject(), session.getItems(System.currentTimeMillis(), app::getPricedItem)).endObject());
+    }
+
+    /**
+     * Reserves units of a listing for the session's cart, so no one else can buy them until
+     * the order is placed or the reservation expires. If sessions race for the last units,
+     * the ones which miss out get a 409.
+     */
+    private Reply addToCart(Map<String, String> params, HttpExchange exchange) {
+        Session session = session(params);
+        int listingId = intParam(params, "listingId", -1);
+        Listing listing = app.getListingById(listingId);
+        int units = intParam(params, "units", 1);
+        if (listing == null || !app.reserveListing(session, listing, units)) {
+            throw new ApiException(409, "Listing " + listingId + " does not have " + units + " units available");
+        }
+        return ok(writeItems(new Json.Writer().beginObject(), session.getItems(System.currentTimeMillis(), app::getPricedItem)).endObject());
+    }
+
+    private Reply placeOrder(Map<String, String> params, HttpExchange exchange) {
+        Session session = session(params);
+        String ticketId = app.placeOrder(session);
+        if (ticketId == null) {
+            throw new ApiException(400, "The cart is empty");
+        }
+        return new Reply(201, new Json.Writer().beginObject().name("ticketId").value(ticketId).endObject().toString());
+    }
+
+    /**
+     * Shows an order to the customer who placed it, with every item, or to a business with a line
+     * of it, with only the business's items. Anyone else gets a 404, as if there were no such order.
+     */
+    private Reply getOrder(Map<String, String> params, HttpExchange exchange) {
+        Session session = session(params);
+        String ticketId = required(params, "ticketId");
+        Ticket ticket = app.getOrder(session, ticketId);
+        if (ticket == null) {
+            throw new ApiException(404, "No order with ticket ID " + ticketId);
+        }
+        String username = session.getUser().getUsername();
+        List<FoodItem> items;
+        if (username.equals(ticket.getBuyer())) {
+            items = ticket.getCart().getItems();
+        } else {
+            items = new ArrayList<>();
+            for (OrderLine line : ticket.getLines(username)) {
+                for (int i = 0; i < line.getUnits(); i++) {
+                    items.add(line.getItem());
+                }
+            }
+        }
+        Json.Writer json = new Json.Writer().beginObject().name("ticketId").value(ticketId);
+        return ok(writeItems(json, items).endObject());
+    }
+
+    /**
+     * Sets the markdown curve of the session's business. A missing or empty curve restores fixed prices.
+     */
+    private Reply setMarkdown(Map<String, String> params, HttpExchange exchange) {
+        Session session = session(params);
+        String curve = params.get("curve");
+        MarkdownCurve markdown;
+        try {
+            markdown = curve == null || curve.trim().isEmpty() ? null : MarkdownCurve.parse(curve);
+        } catch (IllegalArgumentException e) {
+            throw new ApiException(400, e.getMessage());
+        }
+        if (!app.setMarkdown(session, markdown)) {
+            throw new ApiException(403, "Only businesses can mark down their listings");
+        }
+        return ok(new Json.Writer().beginObject()
+                .name("curve").value(markdown == null ? null : markdown.toString())
+                .endObject());
+    }
+
+    /**
+     * Lists a page of the orders the session's business has not handed over yet, oldest first,
+     * with only the business's lines of each order.
+     */
+    private Reply pendingOrders(Map<String, String> params, HttpExchange exchange) {
+        Session session = session(params);
+        if (!session.getUser().isBusiness()) {
+            throw new ApiException(403, "Only businesses have orders to fulfil");
+        }
+        String seller = session.getUser().getUsername();
+        int offset = Math.max(0, intParam(params, "offset", 0));
+        int limit = Math.max(0, Math.min(MAX_PAGE, intParam(params, "limit", DEFAULT_PAGE)));
+        Json.Writer json = new Json.Writer().beginObject()
+                .name("total").value(app.getPendingOrderCount(session))
+                .name("offset").value(offset)
+                .name("orders").beginArray();
+        for (Ticket ticket : app.getPendingOrders(session, offset, limit)) {
+            json.beginObject()
+                    .name("ticketId").value(ticket.getTicketId())
+                    .name("placedAt").value(ticket.getPlacedAt())
+                    .name("lines").beginArray();
+            for (OrderLine line : ticket.getLines(seller)) {
+                json.beginObject()
+                        .name("listingId").value(line.getListingId())
+                        .name("name").value(line.getItem().getName())
+                        .name("price").value(line.getItem().getPrice())
+                        .name("units").value(line.getUnits())
+                        .endObject();
+            }
+            json.endArray().endObject();
+        }
+        return ok(json.endArray().endObject());
+    }
+
+    /**
+     * Marks the session's business's part of an order as handed over.
+     */
+    private Reply fulfilOrder(Map<String, String> params, HttpExchange exchange) {
+        Session session = session(params);
+        if (!session.getUser().isBusiness()) {
+            throw new ApiException(403, "Only businesses have orders to fulfil");
+        }
+        String ticketId = required(params, "ticketId");
+        if (!app.fulfilOrder(session, ticketId)) {
+            throw new ApiException(404, "No pending order with ticket ID " + ticketId);
+        }
+        return ok(new Json.Writer().beginObject().name("ticketId").value(ticketId).name("fulfilled").value(true)
+                .endObject());
+    }
+
+    private Reply stats(Map<String, String> params, HttpExchange exchange) {
+        if ("text".equals(params.get("format"))) {
+            return new Reply(200, stats.report());
+        }
+        return new Reply(200, stats.toJson());
+    }
+
+    private void writeListing(Json.Writer json, Listing listing) {
+        json.beginObject()
+                .name("id").value(listing.getId())
+                .name("name").value(listing.getName())
+                .name("price").value(app.getPrice(listing))
+                .name("fullPrice").value(listing.getItem().getPrice())
+                .name("seller").value(listing.getSeller())
+                .name("category").value(listing.getType())
+                .name("available").value(listing.getAvailable())
+                .name("dateAdded").value(listing.getDateAdded())
+                .name("expiryDate").value(listing.getExpirationDate())
+                .endObject();
+    }
+
+    private static Json.Writer writeItems(Json.Writer json, List<FoodItem> items) {
+        double total = 0;
+        json.name("items").beginArray();
+        for (FoodItem item : items) {
+            json.beginObject()
+                    .name("name").value(item.getName())
+                    .name("price").value(item.getPrice())
+                    .name("category").value(item.getType())
+                    .endObject();
+            total += item.getPrice();
+        }
+        json.endArray();
+        return json.name("total").value(total);
+    }
+}
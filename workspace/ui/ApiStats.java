@@ -0,0 +1,114 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class keeps the throughput and latency of each endpoint of the API server.
+ * Counters and histograms are lock-free, so recording a request never makes
+ * concurrent requests wait for each other.
+ */
+public class ApiStats {
+    private final ConcurrentHashMap<String, Endpoint> endpoints; // The statistics of each endpoint, keyed by name.
+    private final long startNanos; // The time the statistics were started.
+
+    /**
+     * Constructs empty ApiStats, starting the clock used for throughput.
+     */
+    public ApiStats() {
+        endpoints = new ConcurrentHashMap<>();
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * The statistics of one endpoint.
+     */
+    public static class Endpoint {
+        private final LongAdder errors = new LongAdder(); // The number of requests answered with a 4xx or 5xx status.
+        private final LatencyHistogram latency = new LatencyHistogram(); // The latency of each request, in nanoseconds.
+
+        /**
+         * Records one request.
+         *
+         * @param nanos the time taken to answer the request
+         * @param status the HTTP status of the response
+         */
+        public void record(long nanos, int status) {
+            latency.record(nanos);
+            if (status >= 400) {
+                errors.increment();
+            }
+        }
+    }
+
+    /**
+     * Finds the statistics of an endpoint, creating them the first time.
+     *
+     * @param name the name of the endpoint, e.g. "GET /listings"
+     * @return the statistics of the endpoint
+     */
+    public Endpoint endpoint(String name) {
+        return endpoints.computeIfAbsent(name, k -> new Endpoint());
+    }
+
+    /**
+     * @return the number of seconds since the statistics were started
+     */
+    public double getUptimeSeconds() {
+        return (System.nanoTime() - startNanos) / 1e9;
+    }
+
+    /**
+     * Writes the statistics of each endpoint as a JSON object.
+     *
+     * @return the statistics as JSON
+     */
+    public String toJson() {
+        double seconds = getUptimeSeconds();
+        Json.Writer json = new Json.Writer();
+        json.beginObject();
+        json.name("uptimeSeconds").value(seconds);
+        json.name("endpoints").beginArray();
+        for (Map.Entry<String, Endpoint> entry : new TreeMap<>(endpoints).entrySet()) {
+            LatencyHistogram latency = entry.getValue().latency;
+            long count = latency.getCount();
+            json.beginObject();
+            json.name("endpoint").value(entry.getKey());
+            json.name("requests").value(count);
+            json.name("errors").value(entry.getValue().errors.sum());
+            json.name("requestsPerSecond").value(count / seconds);
+            json.name("meanMicros").value(latency.getMean() / 1000);
+            json.name("p50Micros").value(latency.getPercentile(50) / 1000);
+            json.name("p90Micros").value(latency.getPercentile(90) / 1000);
+            json.name("p99Micros").value(latency.getPercentile(99) / 1000);
+            json.name("p999Micros").value(latency.getPercentile(99.9) / 1000);
+            json.name("maxMicros").value(latency.getMax() / 1000);
+            json.endObject();
+        }
+        json.endArray();
+        json.endObject();
+        return json.toString();
+    }
+
+    /**
+     * Writes the statistics of each endpoint as a table, e.g. to print when the server stops.
+     *
+     * @return the statistics as text
+     */
+    public String report() {
+        double seconds = getUptimeSeconds();
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("API report after %.1f s%n", seconds));
+        report.append(String.format("%-16s %10s %7s %10s %9s %9s %9s %9s %9s%n",
+                "endpoint", "requests", "errors", "req/s", "mean us", "p50 us", "p99 us", "p99.9 us", "max us"));
+        for (Map.Entry<String, Endpoint> entry : new TreeMap<>(endpoints).entrySet()) {
+            LatencyHistogram latency = entry.getValue().latency;
+            long count = latency.getCount();
+            report.append(String.format("%-16s %10d %7d %10.1f %9.1f %9d %9d %9d %9d%n",
+                    entry.getKey(), count, entry.getValue().errors.sum(), count / seconds,
+                    latency.getMean() / 1000, latency.getPercentile(50) / 1000, latency.getPercentile(99) / 1000,
+                    latency.getPercentile(99.9) / 1000, latency.getMax() / 1000));
+        }
+        return report.toString();
+    }
+}
@@ -1,87 +1,955 @@
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
 * This class handles and updates the user interface.
 * It processes input recieved by class AppGUI.
 * It allows the user to interact with the program to browse items, list items, and place orders.
+* Each logged-in User has a Session with their own cart, and the App is safe to use from many
+* threads at once: users, listings and tickets are kept in concurrent stores, so browsing and
+* looking up orders never wait for each other.
 */
 
 public class App {
-    private ArrayList<User> users; //An ArrayList of Users who can be logged in.
-    protected User loggedInUser; //The current User who is logged into the program.
-    private ArrayList<Listing> listings; //An ArrayList of Listings which have been created by businesses.
-    private ArrayList<Ticket> tickets; //An ArrayList of Users who can be logged in.
-    private Cart cart; //A cart object which will have FoodItems added to it.
+    private final String dataDir; //The directory the data files and journal are kept in, "" for the working directory.
+    private UserDirectory users; //A directory of Users who can be logged in, keyed by username.
+    protected volatile Session currentSession; //The session of the User who is logged into the GUI.
+    private ConcurrentHashMap<String, Session> sessions; //The open sessions, keyed by token.
+    private SecureRandom random; //Generates session tokens.
+    private ListingIndex listingIndex; //The Listings which can be browsed, indexed by category, seller and name.
+    private volatile ExpiryWheel expiryWheel; //Finds listings once they expire.
+    private ConcurrentLinkedQueue<Listing> overdue; //Listings which had already expired when they were scheduled.
+    private ConcurrentLinkedQueue<Reservation> reservations; //Cart reservations, in the order they expire.
+    private ExpirySweeper expirySweeper; //Retires expired listings in the background, once started.
+    private PricingEngine pricingEngine; //Marks down listings near their expiry date in the background, once started.
+    private AtomicLong retiredListings; //The number of expired listings retired since the App started.
+    private CopyOnWriteArrayList<ListingListener> listingListeners; //Listeners told when listings are added or removed.
+    private TicketStore tickets; //The Tickets of placed orders, keyed by ticket ID.
+    private TicketIdAllocator ticketIds; //Hands out unique ticket IDs.
+    private volatile boolean ticketsLoaded; //True once the tickets are loaded, which happens the first time they are needed.
+    private ArrayList<Ticket> journalTickets; //Tickets replayed from the journal, added once the tickets are loaded.
+    private ArrayList<String[]> journalFulfilments; //Orders fulfilled in the journal, {seller, ticket ID}, applied once the tickets are loaded.
+    private SellerOrderIndex sellerOrders; //The orders each business has not handed over yet, found by seller.
+    private volatile CompletableFuture<Void> listingsLoaded; //Completes once every listing is loaded and indexed.
+    private volatile long listingLoadMillis; //The time it took to load the listings, or -1 while they are loading.
+    private Journal journal; //The write-ahead log which records each mutation between snapshots.
+    private volatile WriteBehindPersistence persistence; //Writes the journal and snapshots off the calling thread.
+    private AtomicInteger recordsSinceSnapshot; //The number of records submitted since the last snapshot.
+    private AtomicBoolean compactionDeferred; //True while a compaction waits for the listings to finish loading.
+    private ReentrantReadWriteLock snapshotLock; //Shared by mutations, exclusive to taking a snapshot.
+    private FileManagement files; //Loads and saves the data files, remembering the segments written to each.
+    private ChangeTracker<String, User> userChanges; //Users registered since the last snapshot.
+    private ChangeTracker<Integer, Listing> listingChanges; //Listings added, sold from or removed since the last snapshot.
+    private ChangeTracker<String, Ticket> ticketChanges; //Tickets placed since the last snapshot.
+    private final Metrics metrics; //Counts and times the App's operations, for JMX and the periodic report.
+    private final LatencyHistogram loginLatency; //The time each loginUser() takes, in nanoseconds.
+    private final LatencyHistogram addListingLatency; //The time each addListing() takes, in nanoseconds.
+    private final LatencyHistogram placeOrderLatency; //The time each placeOrder() takes, in nanoseconds.
+    private final LatencyHistogram getCartLatency; //The time each getCartById() takes, in nanoseconds.
+    private final LongAdder journalBytes; //The bytes of the journal records submitted to the writer.
+
+    static final String JOURNAL_FILE = "journal.log"; //The file the write-ahead log is stored in.
+    static final String LISTING_IDS_FILE = "listingIds.dat"; //The file the listing ID high-water mark is stored in.
+    static final int LISTING_ID_BLOCK = Integer.getInteger("feedforward.listingIds.block", ListingIdAllocator.DEFAULT_BLOCK_SIZE); //IDs leased at a time.
+    static final int JOURNAL_GROUP_SIZE = Integer.getInteger("feedforward.journal.groupSize", 256); //Most records per commit.
+    static final int PERSISTENCE_QUEUE = Integer.getInteger("feedforward.persistence.queue", 10_000); //Most unwritten records.
+    static final boolean JOURNAL_FSYNC = Boolean.parseBoolean(System.getProperty("feedforward.journal.fsync", "true")); //Force commits to disk.
+    static final int LISTING_PAGE = Integer.getInteger("feedforward.load.pageSize", 10_000); //Listings loaded and indexed at a time.
+    static final int COMPACT_THRESHOLD = Integer.getInteger("feedforward.journal.compactAfter", 1000); //Records before compaction.
+    static final long EXPIRY_TICK_MILLIS = Long.getLong("feedforward.expiry.tickMillis", 60_000); //Precision of expiry sweeps.
+    static final long METRICS_DUMP_MILLIS = Long.getLong("feedforward.metrics.dumpMillis", 60_000); //Time between reports, 0 for none.
+    static final long PRICING_PERIOD_MILLIS = Long.getLong("feedforward.pricing.periodMillis", 60_000); //Time between markdown passes.
+    static final long RESERVATION_TTL_MILLIS = Long.getLong("feedforward.reservation.ttlMillis", 15 * 60_000); //Time units stay in a cart.
+    static final long SESSION_TTL_MILLIS = Long.getLong("feedforward.session.ttlMillis", 30 * 60_000); //Time an unused session stays open.
 
     /**
-     * Constructs an App object which creates a new scanner, Users ArrayList, listings ArrayList, orders ArrayList, and Cart object.
+     * Constructs an App object with empty stores of users, sessions, listings and tickets,
+     * which keeps its data in the working directory.
      */
     public App() {
-        users = new ArrayList<>();
-        listings = new ArrayList<>();
-        tickets = new ArrayList<>();
-        cart = new Cart();
+        this("");
+    }
+
+    /**
+     * Constructs an App object with empty stores of users, sessions, listings and tickets.
+     *
+     * @param dataDir the directory the data files and journal are kept in, e.g. one made by DataGenerator
+     */
+    public App(String dataDir) {
+        this.dataDir = dataDir;
+        users = new UserDirectory();
+        sessions = new ConcurrentHashMap<>();
+        random = new SecureRandom();
+        listingIndex = new ListingIndex();
+        expiryWheel = new ExpiryWheel(EXPIRY_TICK_MILLIS, System.currentTimeMillis());
+        overdue = new ConcurrentLinkedQueue<>();
+        reservations = new ConcurrentLinkedQueue<>();
+        retiredListings = new AtomicLong();
+        listingListeners = new CopyOnWriteArrayList<>();
+        tickets = new TicketStore();
+        ticketIds = new TicketIdAllocator();
+        journalTickets = new ArrayList<>();
+        journalFulfilments = new ArrayList<>();
+        sellerOrders = new SellerOrderIndex();
+        listingsLoaded = CompletableFuture.completedFuture(null);
+        listingLoadMillis = -1;
+        recordsSinceSnapshot = new AtomicInteger();
+        compactionDeferred = new AtomicBoolean();
+        snapshotLock = new ReentrantReadWriteLock();
+        files = new FileManagement(new String[] {dataFile("savedUsers.dat"), dataFile("savedListings.dat"),
+                dataFile("savedTickets.dat")});
+        files.useListingSnapshot(1);
+        userChanges = new ChangeTracker<>();
+        listingChanges = new ChangeTracker<>();
+        ticketChanges = new ChangeTracker<>();
+        metrics = new Metrics();
+        files.useMetrics(metrics);
+        loginLatency = metrics.latency("App.loginUser");
+        addListingLatency = metrics.latency("App.addListing");
+        placeOrderLatency = metrics.latency("App.placeOrder");
+        getCartLatency = metrics.latency("App.getCartById");
+        journalBytes = metrics.counter("journal.bytesWritten");
+        metrics.gauge("users", () -> users.size());
+        metrics.gauge("listings", () -> listingIndex.size());
+        metrics.gauge("tickets", () -> tickets.size());
+        metrics.gauge("orders.pending", () -> sellerOrders.size());
+        metrics.gauge("sessions", () -> sessions.size());
+        metrics.gauge("reservations", () -> reservations.size());
+        metrics.gauge("retiredListings", () -> retiredListings.get());
+        metrics.gauge("journal.recordsSinceSnapshot", () -> recordsSinceSnapshot.get());
+        metrics.gauge("journal.queued", () -> {
+            WriteBehindPersistence writer = persistence;
+            return writer == null ? 0 : writer.getQueuedCount();
+        });
+        metrics.gauge("listingLoadMillis", this::getListingLoadMillis);
+        metrics.gauge("log.dropped", EventLog::getDroppedCount);
+    }
+
+    /**
+     * Listener that is told when listings are added to or removed from the App,
+     * e.g. to update a view of the listings without rebuilding it.
+     */
+    public interface ListingListener {
+        /**
+         * @param listing the listing which was added
+         */
+        void listingAdded(Listing listing);
+
+        /**
+         * @param listing the listing which was removed, e.g. added to a cart or expired
+         */
+        void listingRemoved(Listing listing);
+
+        /**
+         * @param page listings which were loaded from disk or imported in bulk, and can now be browsed
+         */
+        void listingsLoaded(List<Listing> page);
+    }
+
+    /**
+     * Registers a listener which is told when listings are added or removed.
+     * Listeners are called on the thread which changed the listings, which may be any thread.
+     *
+     * @param listener the listener
+     */
+    public void addListingListener(ListingListener listener) {
+        listingListeners.add(listener);
     }
 
     /**
      * Manages data by either loading or saving it.
+     * Loading reads the last snapshot and then replays the journal on top of it, and returns
+     * once everything is loaded (see startLoading() to use the App while it loads).
+     * Saving writes a new snapshot, which makes the journal redundant, so it is truncated.
+     * A snapshot only writes the collections which changed, and only their changes where that is
+     * cheaper than rewriting them, so e.g. placing orders doesn't rewrite every user and listing.
+     * Once the data is loaded, saving is handed to the write-behind writer thread,
+     * so it does not block the caller.
      *
      * @param load If true, the data will be loaded; otherwise, it will be saved.
      * @author Muhammad Daud
      */
     public void manageData(boolean load) {
-        ArrayList<?>[] dataArrays = new ArrayList<?>[] {users, listings, tickets};
-        String[] fileNames = new String[] {"savedUsers.dat", "savedListings.dat", "savedTickets.dat"};
-
-        FileManagement getFiles = new FileManagement(dataArrays, fileNames);
-
         if (load) { // Load data
-            ArrayList<?>[] loadedData = getFiles.loadData();
-            users = (ArrayList<User>) loadedData[0];
-            listings = (ArrayList<Listing>) loadedData[1];
-            tickets = (ArrayList<Ticket>) loadedData[2];
+            startLoading();
+            awaitListings();
+            loadTickets();
         }
         else { // Save data
-            getFiles.saveData();
+            awaitListings();
+            saveSnapshot();
+        }
+    }
+
+    /**
+     * Saves the data, on the writer thread if there is one, which then truncates the journal.
+     * The listings must be loaded.
+     */
+    private void saveSnapshot() {
+        if (persistence != null) {
+            persistence.submitSnapshot(collectChanges());
+        } else {
+            collectChanges().getAsBoolean();
+        }
+    }
+
+    /**
+     * Loads the data in stages, so the App can be used long before all of it is loaded.
+     * Returns once the users are loaded and the journal is replayed, so users can log in.
+     * Listings are then loaded in pages on a background thread, and each page can be browsed
+     * as soon as it is indexed; listeners are told with listingsLoaded(). Adding a listing waits
+     * until every listing is loaded. Tickets are loaded the first time they are needed,
+     * e.g. to look up or place an order.
+     */
+    public void startLoading() {
+        long start = System.nanoTime();
+        @SuppressWarnings("unchecked") // the user file only holds Users
+        ArrayList<User> loadedUsers = (ArrayList<User>) files.loadFile(0);
+        if (loadedUsers != null) {
+            int duplicates = users.rebuild(loadedUsers);
+            if (duplicates > 0) {
+                EventLog.info("Skipped {} users with duplicate usernames", duplicates);
+            }
+        }
+        ListingIdAllocator listingIds = openListingIds();
+        ListingRecords records = replayJournal();
+        EventLog.info("Loaded {} users in {} ms", users.size(), (System.nanoTime() - start) / 1_000_000);
+
+        listingIndex.rebuild(new ArrayList<>());
+        expiryWheel = new ExpiryWheel(EXPIRY_TICK_MILLIS, System.currentTimeMillis());
+        overdue.clear();
+        CompletableFuture<Void> loaded = new CompletableFuture<>();
+        listingsLoaded = loaded;
+        listingLoadMillis = -1;
+        Thread loader = new Thread(() -> {
+            try {
+                loadListings(records, listingIds);
+            } finally {
+                loaded.complete(null);
+            }
+        }, "listing-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * Waits until every listing is loaded and indexed. Returns at once if they already are,
+     * or if loading has not started.
+     */
+    public void awaitListings() {
+        listingsLoaded.join();
+    }
+
+    /**
+     * @return true while listings are being loaded in the background
+     */
+    public boolean isLoadingListings() {
+        return !listingsLoaded.isDone();
+    }
+
+    /**
+     * @return the time it took to load and index every listing, in milliseconds, or -1 while they are loading
+     */
+    public long getListingLoadMillis() {
+        return listingLoadMillis;
+    }
+
+    /**
+     * Loads the listings a page at a time, applying the listing records of the journal to each page,
+     * then indexes the listings which were only added by the journal. Runs on the loader thread.
+     *
+     * @param records the listing records replayed from the journal
+     * @param listingIds the allocator, which must reserve the loaded IDs before any are handed out
+     */
+    private void loadListings(ListingRecords records, ListingIdAllocator listingIds) {
+        long start = System.nanoTime();
+        files.loadPages(1, LISTING_PAGE, page -> {
+            @SuppressWarnings("unchecked") // the listing file only holds Listings
+            List<Listing> listings = (List<Listing>) (List<?>) page;
+            indexPage(listings, records, false);
+        });
+        indexPage(new ArrayList<>(records.added.values()), records, true);
+        listingIds.store(); // covers loaded IDs above the stored high-water mark
+        listingLoadMillis = (System.nanoTime() - start) / 1_000_000;
+        EventLog.info("Loaded {} listings in {} ms", listingIndex.size(), listingLoadMillis);
+        requestPricingPass(); // pages loaded after the last pass are at full price
+    }
+
+    /**
+     * Applies the journal to a page of loaded listings, indexes them and schedules their expiries.
+     *
+     * @param page the listings
+     * @param records the listing records replayed from the journal
+     * @param fromJournal true if the listings were added by the journal, so the next snapshot must save them
+     */
+    private void indexPage(List<Listing> page, ListingRecords records, boolean fromJournal) {
+        ArrayList<Listing> live = new ArrayList<>(page.size());
+        for (Listing listing : page) {
+            Listing.reserveId(listing.getId());
+            if (records.removed.contains(listing.getId())) {
+                continue;
+            }
+            Integer unsold = records.unsold.get(listing.getId());
+            if (unsold != null) {
+                listing.restoreQuantity(unsold);
+            }
+            live.add(listing);
+        }
+        List<Listing> indexed = listingIndex.addAll(live);
+        for (Listing listing : indexed) {
+            if (fromJournal || records.unsold.containsKey(listing.getId())) {
+                listingChanges.changed(listing.getId(), listing);
+            }
+            if (!expiryWheel.schedule(listing)) {
+                overdue.add(listing);
+            }
+        }
+        if (!indexed.isEmpty()) {
+            fireListingsLoaded(indexed);
+        }
+    }
+
+    /**
+     * Loads the tickets the first time they are needed, then adds the tickets replayed from the journal,
+     * indexes the orders each business has not handed over yet, and applies the fulfilments replayed from the journal.
+     */
+    private void loadTickets() {
+        if (ticketsLoaded) {
+            return;
+        }
+        synchronized (tickets) {
+            if (ticketsLoaded) {
+                return;
+            }
+            long start = System.nanoTime();
+            @SuppressWarnings("unchecked") // the ticket file only holds Tickets
+            ArrayList<Ticket> loaded = (ArrayList<Ticket>) files.loadFile(2);
+            if (loaded != null) {
+                tickets.rebuild(loaded);
+            }
+            for (Ticket ticket : journalTickets) {
+                tickets.add(ticket);
+            }
+            journalTickets.clear();
+            sellerOrders.rebuild(tickets.view());
+            for (String[] fulfilment : journalFulfilments) {
+                Ticket fulfilled = sellerOrders.fulfil(fulfilment[0], fulfilment[1]);
+                if (fulfilled != null) {
+                    ticketChanges.changed(fulfilled.getTicketId(), fulfilled);
+                }
+            }
+            journalFulfilments.clear();
+            ticketIds.seed(tickets.size());
+            ticketsLoaded = true;
+            EventLog.info("Loaded {} tickets in {} ms", tickets.size(), (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    /**
+     * Decides how each collection is saved by the next snapshot: a collection which did not change
+     * is skipped, one with few changes has them appended as a segment, and the rest are copied to
+     * be rewritten in full. Must not run while data is being changed, e.g. it runs under the
+     * exclusive snapshot lock, and must not run before the listings finish loading, since a partly
+     * loaded collection must not be rewritten. Callers wait for the listings before they take the
+     * lock, so nothing waits on the load while holding it. Skips the tickets if they were neither
+     * loaded nor changed.
+     * Orders fulfilled in the journal count as changes, so they are saved before the journal is truncated.
+     *
+     * @return saves the collected data, returning true if all of it was saved
+     */
+    private BooleanSupplier collectChanges() {
+        ArrayList<?>[] rewrites = new ArrayList<?>[3];
+        Segment[] changes = new Segment[3];
+        if (files.needsRewrite(0, userChanges.size(), users.size())) {
+            rewrites[0] = users.getUsers();
+            userChanges.clear();
+        } else if (userChanges.isDirty()) {
+            changes[0] = userChanges.drain();
+        }
+        if (files.needsRewrite(1, listingChanges.size(), listingIndex.size())) {
+            rewrites[1] = new ArrayList<>(listingIndex.filter(null, null));
+            listingChanges.clear();
+        } else if (listingChanges.isDirty()) {
+            changes[1] = listingChanges.drain();
+        }
+        if (ticketsLoaded || ticketChanges.isDirty() || !journalFulfilments.isEmpty()) {
+            loadTickets();
+            if (files.needsRewrite(2, ticketChanges.size(), tickets.size())) {
+                rewrites[2] = tickets.getTickets();
+                ticketChanges.clear();
+            } else if (ticketChanges.isDirty()) {
+                changes[2] = ticketChanges.drain();
+            }
+        }
+        return () -> files.saveChanges(rewrites, changes);
+    }
+
+    /**
+     * @param fileName the name of a data file
+     * @return the path of the file in the data directory
+     */
+    private String dataFile(String fileName) {
+        return Paths.get(dataDir, fileName).toString();
+    }
+
+    /**
+     * Opens the listing ID allocator of the data directory and makes new Listings use it,
+     * so IDs resume above the high-water mark of the last run instead of starting at 1.
+     *
+     * @return the allocator, which must reserve the loaded IDs before any are handed out
+     */
+    private ListingIdAllocator openListingIds() {
+        ListingIdAllocator listingIds;
+        try {
+            listingIds = ListingIdAllocator.open(dataFile(LISTING_IDS_FILE), LISTING_ID_BLOCK, JOURNAL_FSYNC);
+        } catch (IOException e) {
+            EventLog.warn("Error loading {}: {}", LISTING_IDS_FILE, e);
+            listingIds = new ListingIdAllocator(); // the loaded IDs are still reserved, but the mark isn't saved
+        }
+        Listing.useIdAllocator(listingIds);
+        return listingIds;
+    }
+
+    /**
+     * The listing records of the journal, folded so they can be applied to each page of listings
+     * as it is loaded. Listing IDs are never reused, so a removal is final, and the fewest unsold
+     * units wins, so the order of the records doesn't matter.
+     */
+    private static final class ListingRecords {
+        private final LinkedHashMap<Integer, Listing> added = new LinkedHashMap<>(); // Listings added since the snapshot.
+        private final HashSet<Integer> removed = new HashSet<>(); // IDs of listings removed since the snapshot.
+        private final HashMap<Integer, Integer> unsold = new HashMap<>(); // The fewest units left unsold, by listing ID.
+    }
+
+    /**
+     * Opens the journal and replays its records. User records are applied at once, ticket and
+     * fulfilment records are kept until the tickets are loaded, and listing records are folded for the listing loader.
+     * Records are applied idempotently, so records already folded into the snapshot
+     * (e.g. after a crash between writing a snapshot and truncating the journal) are skipped.
+     *
+     * @return the listing records
+     */
+    private ListingRecords replayJournal() {
+        ListingRecords records = new ListingRecords();
+        try {
+            journal = new Journal(dataFile(JOURNAL_FILE), JOURNAL_GROUP_SIZE, 0, JOURNAL_FSYNC);
+            int replayed = journal.replay((kind, payload) -> {
+                switch (kind) {
+                    case Journal.ADD_USER:
+                        users.register((User) payload);
+                        track(kind, payload);
+                        break;
+                    case Journal.ADD_LISTING:
+                        Listing listing = (Listing) payload;
+                        records.added.putIfAbsent(listing.getId(), listing);
+                        break;
+                    case Journal.ADD_LISTINGS:
+                        for (Listing added : (Listing[]) payload) {
+                            records.added.putIfAbsent(added.getId(), added);
+                        }
+                        break;
+                    case Journal.ADD_TICKET:
+                        journalTickets.add((Ticket) payload);
+                        track(kind, payload);
+                        break;
+                    case Journal.REMOVE_LISTING:
+                        records.removed.add((Integer) payload);
+                        track(kind, payload);
+                        break;
+                    case Journal.LISTING_QUANTITY:
+                        int[] quantity = (int[]) payload;
+                        records.unsold.merge(quantity[0], quantity[1], Math::min);
+                        break;
+                    case Journal.FULFIL_ORDER:
+                        journalFulfilments.add((String[]) payload);
+                        break;
+                    case Journal.SET_MARKDOWN:
+                        String[] markdown = (String[]) payload;
+                        User seller = users.find(markdown[0]);
+                        if (seller != null) {
+                            seller.setMarkdown(markdown[1] == null ? null : MarkdownCurve.parse(markdown[1]));
+                            track(kind, payload);
+                        }
+                        break;
+                    default:
+                        EventLog.warn("Skipping unknown journal record {}", kind);
+                }
+            });
+            EventLog.info("Replayed {} records from {}", replayed, JOURNAL_FILE);
+            recordsSinceSnapshot.set(replayed);
+            persistence = new WriteBehindPersistence(journal, PERSISTENCE_QUEUE);
+        } catch (IOException e) {
+            EventLog.warn("Error loading {}: {}", JOURNAL_FILE, e);
+        }
+        return records;
+    }
+
+    /**
+     * Removes every listing which has expired by the specified time from the listings,
+     * the listing index and (through the journal) the saved data.
+     * Listings are found with the expiry wheel, so a sweep costs O(1) per expired listing.
+     *
+     * @param now the current time, in milliseconds since the epoch
+     * @return the number of listings which were retired
+     */
+    public int retireExpiredListings(long now) {
+        ArrayList<Listing> expired = new ArrayList<>();
+        for (Listing listing = overdue.poll(); listing != null; listing = overdue.poll()) {
+            expired.add(listing);
+        }
+        expiryWheel.advance(now, expired::add);
+        if (expired.isEmpty()) {
+            return 0;
+        }
+
+        int retired = mutate(() -> {
+            int count = 0;
+            for (Listing listing : expired) {
+                if (listingIndex.remove(listing)) { // listings which were sold early are no longer here
+                    record(Journal.REMOVE_LISTING, listing.getId());
+                    fireListingRemoved(listing);
+                    count++;
+                }
+            }
+            return count;
+        });
+
+        retiredListings.addAndGet(retired);
+        if (retired > 0) {
+            EventLog.info("Retired {} expired listings", retired);
+        }
+        return retired;
+    }
+
+    /**
+     * Returns the units of every cart reservation which has expired by the specified time,
+     * so they can be put in another cart. Reservations all live for RESERVATION_TTL_MILLIS,
+     * so they expire in the order they were made and a sweep only looks at expired ones.
+     *
+     * @param now the current time, in milliseconds since the epoch
+     * @return the number of reservations whose units were returned
+     */
+    public int expireReservations(long now) {
+        int released = 0;
+        for (Reservation reservation = reservations.peek();
+                reservation != null && (reservation.isSettled() || reservation.isExpired(now));
+                reservation = reservations.peek()) {
+            if (reservations.remove(reservation) && reservation.release()) {
+                released++;
+            }
+        }
+        return released;
+    }
+
+    /**
+     * Starts retiring expired listings, cart reservations and idle sessions in the background.
+     *
+     * @param executor the executor which runs each sweep, e.g. the thread which changes the listings
+     */
+    public synchronized void startExpirySweeper(Executor executor) {
+        if (expirySweeper == null) {
+            expirySweeper = new ExpirySweeper(this, EXPIRY_TICK_MILLIS, executor);
+            expirySweeper.start();
+        }
+    }
+
+    /**
+     * Starts marking down listings near their expiry date in the background, following the markdown curve
+     * of each business. Each pass reprices every listing at once, off the threads which browse them.
+     */
+    public synchronized void startPricingEngine() {
+        if (pricingEngine == null) {
+            pricingEngine = new PricingEngine(listingIndex, seller -> {
+                User user = users.find(seller);
+                return user == null ? null : user.getMarkdown();
+            }, PRICING_PERIOD_MILLIS);
+            pricingEngine.start();
+            PricingEngine engine = pricingEngine;
+            metrics.gauge("pricing.lastPassMillis", engine::getLastPassMillis);
+            metrics.gauge("pricing.markedDown", engine::getMarkedDownCount);
+        }
+    }
+
+    /**
+     * Registers the App's metrics with JMX and, unless feedforward.metrics.dumpMillis is 0,
+     * prints them at that period. The metrics are recorded whether or not this is called.
+     */
+    public void startMetrics() {
+        metrics.register(dataDir.isEmpty() ? "App" : dataDir);
+        if (METRICS_DUMP_MILLIS > 0) {
+            metrics.startDump(METRICS_DUMP_MILLIS);
+        }
+    }
+
+    /**
+     * @return the registry of the App's metrics, e.g. to add a gauge of the GUI
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Asks the pricing engine for an extra pass, if it is started.
+     */
+    private synchronized void requestPricingPass() {
+        if (pricingEngine != null) {
+            pricingEngine.requestPass();
+        }
+    }
+
+    /**
+     * Retrieves the number of expired listings retired since the App started.
+     * @return the number of retired listings
+     */
+    public long getRetiredListingCount() {
+        return retiredListings.get();
+    }
+
+    /**
+     * Runs a mutation of the stores and records it, then folds the journal into a new snapshot
+     * if it has grown too long. Mutations share the snapshot lock, so they run at the same time
+     * as each other, but a snapshot never falls between a mutation and its record; otherwise
+     * truncating the journal after the snapshot could lose the record.
+     *
+     * @param mutation the mutation, which calls record() for each change it makes
+     * @return the result of the mutation
+     */
+    private <T> T mutate(Supplier<T> mutation) {
+        T result;
+        snapshotLock.readLock().lock();
+        try {
+            result = mutation.get();
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+        if (persistence == null || recordsSinceSnapshot.get() >= COMPACT_THRESHOLD) {
+            compactIfDue();
+        }
+        return result;
+    }
+
+    /**
+     * Records a mutation in the journal instead of rewriting every .dat file.
+     * The record is encoded on the calling thread and written by the write-behind writer
+     * thread, so the caller never waits on disk. Must be called from a mutation; if the
+     * journal is unavailable the mutation is saved by a full snapshot instead.
+     *
+     * @param kind the kind of the record, one of the constants in Journal
+     * @param payload the object describing the mutation
+     */
+    private void record(byte kind, Serializable payload) {
+        track(kind, payload);
+        WriteBehindPersistence writer = persistence;
+        if (writer == null) {
+            return;
+        }
+        try {
+            byte[] encoded = Journal.encode(kind, payload);
+            writer.submit(encoded);
+            journalBytes.add(encoded.length);
+            recordsSinceSnapshot.incrementAndGet();
+        } catch (IOException e) {
+            EventLog.warn("Error encoding journal record: {}", e);
+            recordsSinceSnapshot.set(COMPACT_THRESHOLD);
+        }
+    }
+
+    /**
+     * Notes the change a journal record makes in the ChangeTracker of its collection,
+     * so the next snapshot saves it even though the journal is truncated.
+     *
+     * @param kind the kind of the record, e.g. Journal.ADD_USER
+     * @param payload the payload of the record
+     */
+    private void track(byte kind, Object payload) {
+        switch (kind) {
+            case Journal.ADD_USER:
+                User user = (User) payload;
+                userChanges.changed(user.getUsername(), user);
+                break;
+            case Journal.ADD_LISTING:
+                Listing listing = (Listing) payload;
+                listingChanges.changed(listing.getId(), listing);
+                break;
+            case Journal.ADD_LISTINGS:
+                for (Listing added : (Listing[]) payload) {
+                    listingChanges.changed(added.getId(), added);
+                }
+                break;
+            case Journal.ADD_TICKET:
+                Ticket ticket = (Ticket) payload;
+                ticketChanges.changed(ticket.getTicketId(), ticket);
+                break;
+            case Journal.REMOVE_LISTING:
+                listingChanges.removed((Integer) payload);
+                break;
+            case Journal.LISTING_QUANTITY:
+                Listing sold = listingIndex.find(((int[]) payload)[0]);
+                if (sold != null) { // a listing removed meanwhile is saved as removed
+                    listingChanges.changed(sold.getId(), sold);
+                }
+                break;
+            case Journal.FULFIL_ORDER:
+                Ticket fulfilled = tickets.find(((String[]) payload)[1]);
+                if (fulfilled != null) {
+                    ticketChanges.changed(fulfilled.getTicketId(), fulfilled);
+                }
+                break;
+            case Journal.SET_MARKDOWN:
+                User seller = users.find(((String[]) payload)[0]);
+                if (seller != null) {
+                    userChanges.changed(seller.getUsername(), seller);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Folds the journal into a new snapshot once it holds COMPACT_THRESHOLD records,
+     * or after every mutation if there is no journal. If several threads find compaction
+     * due at once, only the first compacts. While the listings are loading, compaction is
+     * put off until they are loaded instead of waiting, e.g. on the event dispatch thread.
+     */
+    private void compactIfDue() {
+        if (!listingsLoaded.isDone()) {
+            if (compactionDeferred.compareAndSet(false, true)) {
+                listingsLoaded.thenRun(() -> {
+                    compactionDeferred.set(false);
+                    compactIfDue();
+                });
+            }
+            return;
+        }
+        snapshotLock.writeLock().lock();
+        try {
+            if (persistence == null || recordsSinceSnapshot.get() >= COMPACT_THRESHOLD) {
+                recordsSinceSnapshot.set(0);
+                saveSnapshot();
+            }
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Folds the journal into a new snapshot of all data, first waiting for the listings to load.
+     */
+    void compact() {
+        awaitListings();
+        snapshotLock.writeLock().lock();
+        try {
+            recordsSinceSnapshot.set(0);
+            saveSnapshot();
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Waits until every mutation made so far has been written to disk.
+     *
+     * @param timeout the longest time to wait
+     * @param unit the unit of timeout
+     * @return true if everything was written in time
+     */
+    public boolean flushData(long timeout, TimeUnit unit) {
+        return persistence == null || persistence.awaitFlushed(timeout, unit);
+    }
+
+    /**
+     * Compacts the journal into a snapshot, waits for the writer thread to write it and
+     * closes the journal. Called when the application exits.
+     */
+    public void shutdown() {
+        if (expirySweeper != null) {
+            expirySweeper.stop();
+            expirySweeper = null;
+        }
+        synchronized (this) {
+            if (pricingEngine != null) {
+                pricingEngine.stop();
+                pricingEngine = null;
+            }
+        }
+        metrics.stop();
+        compact();
+        if (persistence != null) {
+            persistence.close();
+            persistence = null;
+            journal = null;
         }
     }
 
     /**
     * Is called from AppGui and registers a new user in the application.
     * Creates a new User object with the provided username, password, and business status.
-    * Adds the user to the list of users in the application.
-    * Calls the manageData() method to update the data storage.
+    * Adds the user to the directory of users in the application, unless the username is taken.
+    * Records the new user in the journal to update the data storage.
     * @param isBusiness a boolean indicating whether the user is a business user or not
     * @param username the username of the user
     * @param password the password of the user
+    * @return true if the user was registered, false if the username is already taken
     * @author Mustafa Mian
     */
-    public void registerUser(boolean isBusiness, String username, String password) {
+    public boolean registerUser(boolean isBusiness, String username, String password) {
         User user = new User(username, password, isBusiness);
-        users.add(user);
-        manageData(false);
-        System.out.println("User registered successfully!");
+        boolean registered = mutate(() -> {
+            if (!users.register(user)) {
+                return false;
+            }
+            record(Journal.ADD_USER, user);
+            return true;
+        });
+        if (registered) {
+            EventLog.info("User registered successfully!");
+        } else {
+            EventLog.info("Username already taken!");
+        }
+        return registered;
     }
 
    /**
-    * Takes input username and password and checks if they match with usermane and password of User in users ArrayList.
-    * Loops through the users ArrayList and sets loggedInUser to matching User.
+    * Takes input username and password and checks if they match with usermane and password of User in the users directory.
+    * Opens a session for the matching User and makes it the session of the GUI.
     * @author Mustafa Mian
     * @return true if login is succesfully completed, false if no User matches login details
     */
     public boolean loginUser(String username, String password) {
-        for (User user : users) {
-            if (user.getUsername().equals(username) && user.getPassword().equals(password)) {
-                loggedInUser = user;
-                System.out.println("User logged in successfully!");
-                return true;
+        long start = System.nanoTime();
+        try {
+            return login(username, password);
+        } finally {
+            loginLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    private boolean login(String username, String password) {
+        Session session = openSession(username, password);
+        if (session != null) {
+            Session previous = currentSession;
+            if (previous != null) {
+                closeSession(previous);
             }
+            currentSession = session;
+            EventLog.info("User logged in successfully!");
+            return true;
         }
-        System.out.println("Invalid username or password!");
+        EventLog.info("Invalid username or password!");
         return false;
     }
 
+    /**
+     * Opens a session with an empty cart for a User, e.g. for a client of the API server.
+     * Any number of sessions can be open at once, including several for the same User.
+     * @param username the username of the User
+     * @param password the password of the User
+     * @return the new session, or null if no User matches the login details
+     */
+    public Session openSession(String username, String password) {
+        User user = users.authenticate(username, password);
+        if (user == null) {
+            return null;
+        }
+        byte[] bytes = new byte[24];
+        random.nextBytes(bytes);
+        Session session = new Session(Base64.getUrlEncoder().withoutPadding().encodeToString(bytes), user);
+        sessions.put(session.getToken(), session);
+        return session;
+    }
+
+    /**
+     * Looks up an open session and notes that it is being used. A session which has not been used
+     * for SESSION_TTL_MILLIS is closed instead, even if the expiry sweep hasn't got to it yet.
+     * @param token the token of the session
+     * @return the session, or null if there is no open session with that token
+     */
+    public Session getSession(String token) {
+        Session session = token == null ? null : sessions.get(token);
+        if (session == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (session != currentSession && session.isIdle(now, SESSION_TTL_MILLIS)) {
+            closeSession(session);
+            return null;
+        }
+        session.touch(now);
+        return session;
+    }
+
+    /**
+     * Closes every session which has not been used for SESSION_TTL_MILLIS, e.g. one an API client
+     * never logged out of, returning the units in its cart. The session of the GUI stays open.
+     * @param now the current time, in milliseconds since the epoch
+     * @return the number of sessions which were closed
+     */
+    public int expireSessions(long now) {
+        int closed = 0;
+        for (Session session : sessions.values()) {
+            if (session != currentSession && session.isIdle(now, SESSION_TTL_MILLIS)) {
+                closeSession(session);
+                closed++;
+            }
+        }
+        if (closed > 0) {
+            EventLog.info("Closed {} idle sessions", closed);
+        }
+        return closed;
+    }
+
+    /**
+     * Closes a session. The units left in its cart are returned, so others can buy them.
+     * @param session the session to close
+     */
+    public void closeSession(Session session) {
+        sessions.remove(session.getToken(), session);
+        session.releaseAll();
+    }
+
+    /**
+     * @return the number of open sessions
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Looks up a registered User by username, e.g. to check that a seller is a business.
+     * @param username the username of the User
+     * @return the User, or null if no User has that username
+     */
+    public User getUser(String username) {
+        return users.find(username);
+    }
+
     /**
     * Determines the menu type based on the logged-in user.
     * This method performs the following tasks:
@@ -90,7 +958,8 @@ public class App {
     * @return true if the logged-in user is a business user, false otherwise
     */
     boolean determineMenu() {
-        System.out.println("Welcome, " + loggedInUser.getUsername() + "!");
+        User loggedInUser = requireSession().getUser();
+        EventLog.info("Welcome, {}!", loggedInUser.getUsername());
         if (loggedInUser.isBusiness() == true) {
             return true;
         } else {
@@ -108,11 +977,81 @@ public class App {
      * @author Mustafa Mian
      */
     protected void addListing(String itemName, double itemPrice, int expirationDate, String type) {
-        FoodItem item = new FoodItem(itemName, itemPrice, type);
-        Listing listing = new Listing(item, loggedInUser.getUsername(), expirationDate, type);
-        listings.add(listing);
-        manageData(false);
-        System.out.println("Listing added successfully!");
+        addListing(requireSession(), itemName, itemPrice, expirationDate, type, 1);
+    }
+
+    /**
+     * Creates a new FoodItem/Listing which offers several units, sold by the User logged into the GUI.
+     * @param itemName the name of the item
+     * @param itemPrice the price of the item
+     * @param expirationDate the number of days until the item expires
+     * @param type the category of food of the item
+     * @param quantity the number of units offered
+     */
+    protected void addListing(String itemName, double itemPrice, int expirationDate, String type, int quantity) {
+        addListing(requireSession(), itemName, itemPrice, expirationDate, type, quantity);
+    }
+
+    /**
+     * Creates a new FoodItem/Listing sold by the User of a session.
+     * The listing is recorded before it can be browsed, so a record of it being removed
+     * can never come before the record of it being added.
+     * While listings are loading, waits until they are loaded, so its ID can't collide with a loaded one.
+     * @param session the session of the business selling the item
+     * @param itemName the name of the item
+     * @param itemPrice the price of the item
+     * @param expirationDate the number of days until the item expires
+     * @param type the category of food of the item
+     * @param quantity the number of units offered
+     * @return the new listing
+     */
+    protected Listing addListing(Session session, String itemName, double itemPrice, int expirationDate, String type,
+            int quantity) {
+        long start = System.nanoTime();
+        awaitListings();
+        FoodItem item = FoodItem.of(itemName, itemPrice, type);
+        Listing listing = new Listing(item, session.getUser().getUsername(), expirationDate, type, quantity);
+        mutate(() -> {
+            record(Journal.ADD_LISTING, listing);
+            listingIndex.add(listing);
+            return null;
+        });
+        if (!expiryWheel.schedule(listing)) {
+            overdue.add(listing);
+        }
+        fireListingAdded(listing);
+        EventLog.info("Listing added successfully!");
+        addListingLatency.record(System.nanoTime() - start);
+        return listing;
+    }
+
+    /**
+     * Adds a batch of listings at once, e.g. from a bulk import, as one journal record.
+     * The caller waits until the record is written, so each batch costs one flush rather than one per listing.
+     * Listeners are told with listingsLoaded(), on the calling thread.
+     * While listings are loading, waits until they are loaded, so their IDs can't collide with loaded ones.
+     * @param listings the new listings, e.g. created by a ListingImporter
+     * @return the listings which were added; a listing which is already indexed is skipped
+     */
+    public List<Listing> addListings(List<Listing> listings) {
+        awaitListings();
+        List<Listing> added = mutate(() -> {
+            record(Journal.ADD_LISTINGS, listings.toArray(new Listing[0]));
+            return listingIndex.addAll(listings);
+        });
+        for (Listing listing : added) {
+            if (!expiryWheel.schedule(listing)) {
+                overdue.add(listing);
+            }
+        }
+        if (!added.isEmpty()) {
+            fireListingsLoaded(added);
+        }
+        WriteBehindPersistence writer = persistence;
+        if (writer != null) {
+            writer.flush().join();
+        }
+        return added;
     }
 
     /**
@@ -123,17 +1062,53 @@ public class App {
     protected void addItemToCart(String itemName) {
         Listing selectedListing = getListingByName(itemName);
         if (selectedListing != null) {
-            cart.addItem(selectedListing.getItem());
+            reserveListing(requireSession(), selectedListing, 1);
+        }
+    }
+
+    /**
+     * Reserves one unit of a listing for the cart of the GUI's session.
+     * Unlike addItemToCart(String), this cannot pick a different listing with the same name.
+     * @param listing the listing whose item is added
+     * @return false if every unit is sold or in someone else's cart
+     */
+    protected boolean addListingToCart(Listing listing) {
+        return reserveListing(requireSession(), listing, 1);
+    }
+
+    /**
+     * Reserves units of a listing for the cart of a session, so no one else can buy them.
+     * Units are reserved with a compare-and-set on the listing, so under any contention a
+     * unit is only ever in one cart. The reservation lasts RESERVATION_TTL_MILLIS; if the
+     * order isn't placed by then, the units are returned to the listing.
+     * Reservations aren't saved: stock only leaves a listing for good when it is ordered.
+     * @param session the session whose cart the units are added to
+     * @param listing the listing to reserve from
+     * @param units the number of units to reserve
+     * @return false if fewer units are available, or the listing has expired or been removed
+     */
+    protected boolean reserveListing(Session session, Listing listing, int units) {
+        long now = System.currentTimeMillis();
+        if (units < 1 || listing.isExpired(now) || !listing.reserve(units)) {
+            return false;
         }
+        Reservation reservation = new Reservation(listing, units, now + RESERVATION_TTL_MILLIS);
+        reservations.add(reservation);
+        session.addReservation(reservation);
+        if (listingIndex.find(listing.getId()) != listing) { // removed while it was being reserved
+            reservation.release();
+            return false;
+        }
+        return true;
     }
 
     /**
-     * Takes name of food item and loops through listings List to see if the String matches a Listing name
+     * Takes name of food item and searches the listing index to see if the String matches a Listing name
      * @author Mustafa Mian
      * @return listing based on name String.
      */
     private Listing getListingByName(String foodItemName) {
-        for (Listing listing : listings) {
+        for (Listing listing : listingIndex.search(foodItemName, Integer.MAX_VALUE)) {
             if (listing.getName().equals(foodItemName)) {
                 return listing;
             }
@@ -142,55 +1117,454 @@ public class App {
     }
 
     /**
-     * Creates a new Ticket object using the user's cart.
-     * Adds it to the tickets array.
-     * The array is then saved using the manageData method.
+     * Creates a new Ticket object using the user's cart and a unique ticket ID.
+     * Adds it to the ticket store. An ID which collides with a ticket saved before IDs
+     * were allocated (when they were random) is skipped.
+     * The ticket is then recorded in the journal.
      *
-     * @return The ticket ID for the newly created ticket.
+     * @return The ticket ID for the newly created ticket, or null if the cart is empty or every reservation in it expired.
      * @author Muhammad Daud
      */
     protected String placeOrder() {
-        Ticket ticket = new Ticket(cart);
-        String ticketId = ticket.getTicketId();
-        tickets.add(ticket);
-        cart.clearCart();
-        System.out.println("Order placed successfully!");
+        return placeOrder(requireSession());
+    }
 
-        manageData(false);
+    /**
+     * Places an order for the cart of a session, which then starts a new cart.
+     * The reserved units are sold, and the number of units left unsold is recorded for each
+     * listing; a listing is removed once all its units are sold. Reservations which have
+     * expired (or whose listing has) are returned instead of being ordered.
+     *
+     * @param session the session whose cart is ordered
+     * @return The ticket ID for the newly created ticket, or null if nothing in the cart could be ordered.
+     */
+    protected String placeOrder(Session session) {
+        long start = System.nanoTime();
+        loadTickets(); // new ticket IDs must not collide with stored ones
+        List<Reservation> ordered = session.checkout();
+        long now = System.currentTimeMillis();
+        List<Listing> soldOut = new ArrayList<>();
+        String ticketId = mutate(() -> {
+            Cart cart = new Cart();
+            ArrayList<OrderLine> lines = new ArrayList<>();
+            for (Reservation reservation : ordered) {
+                Listing listing = reservation.getListing();
+                if (reservation.isExpired(now) || listing.isExpired(now)) {
+                    reservation.release();
+                } else if (reservation.settle()) {
+                    FoodItem item = getPricedItem(listing); // priced before a sold out listing leaves the index
+                    int unsold = listing.sell(reservation.getUnits());
+                    record(Journal.LISTING_QUANTITY, new int[] {listing.getId(), unsold});
+                    if (unsold == 0 && listingIndex.remove(listing)) {
+                        record(Journal.REMOVE_LISTING, listing.getId());
+                        soldOut.add(listing);
+                    }
+                    for (int i = 0; i < reservation.getUnits(); i++) {
+                        cart.addItem(item);
+                    }
+                    addLine(lines, listing, item, reservation.getUnits());
+                }
+            }
+            if (cart.getItems().isEmpty()) {
+                return null;
+            }
+            String buyer = session.getUser().getUsername();
+            Ticket ticket = new Ticket(ticketIds.next(), cart, now, lines, buyer);
+            while (!tickets.add(ticket)) {
+                ticket = new Ticket(ticketIds.next(), cart, now, lines, buyer);
+            }
+            sellerOrders.add(ticket);
+            record(Journal.ADD_TICKET, ticket);
+            return ticket.getTicketId();
+        });
+        for (Listing listing : soldOut) {
+            fireListingRemoved(listing);
+        }
+        if (ticketId != null) {
+            EventLog.info("Order placed successfully!");
+        }
+        placeOrderLatency.record(System.nanoTime() - start);
         return ticketId;
     }
 
+    /**
+     * Removes a listing from the listings which can be browsed, e.g. once it is withdrawn.
+     * The removal is recorded in the journal.
+     *
+     * @param listing the listing to remove
+     * @return false if the listing had already been removed
+     */
+    protected boolean removeListing(Listing listing) {
+        boolean removed = mutate(() -> {
+            if (!listingIndex.remove(listing)) {
+                return false;
+            }
+            record(Journal.REMOVE_LISTING, listing.getId());
+            return true;
+        });
+        if (removed) {
+            fireListingRemoved(listing);
+        }
+        return removed;
+    }
+
+    /**
+     * Sets how the business logged into the GUI marks down its listings near their expiry date.
+     * @param markdown the markdown curve, or null for fixed prices
+     * @return false if the logged-in User is not a business
+     */
+    protected boolean setMarkdown(MarkdownCurve markdown) {
+        return setMarkdown(requireSession(), markdown);
+    }
+
+    /**
+     * Sets how the business of a session marks down its listings near their expiry date, e.g. "3:20,1:50"
+     * takes 20% off listings which expire within 3 days and 50% off those which expire within a day.
+     * The curve is recorded in the journal, and the listings are repriced straight away.
+     * @param session the session of the business
+     * @param markdown the markdown curve, or null for fixed prices
+     * @return false if the User of the session is not a business
+     */
+    protected boolean setMarkdown(Session session, MarkdownCurve markdown) {
+        User user = session.getUser();
+        if (!user.isBusiness()) {
+            return false;
+        }
+        mutate(() -> {
+            user.setMarkdown(markdown);
+            record(Journal.SET_MARKDOWN, new String[] {user.getUsername(), markdown == null ? null : markdown.toString()});
+            return null;
+        });
+        requestPricingPass();
+        if (markdown == null) {
+            EventLog.info("Markdown removed!");
+        } else {
+            EventLog.info("Markdown set to {}!", markdown);
+        }
+        return true;
+    }
+
+    /**
+     * Adds units of a listing to the lines of an order, adding to its line if it already has one at the same price.
+     */
+    private static void addLine(ArrayList<OrderLine> lines, Listing listing, FoodItem item, int units) {
+        for (int i = 0; i < lines.size(); i++) {
+            OrderLine line = lines.get(i);
+            if (line.getListingId() == listing.getId() && line.getItem().equals(item)) {
+                lines.set(i, new OrderLine(line.getListingId(), line.getSeller(), item, line.getUnits() + units));
+                return;
+            }
+        }
+        lines.add(new OrderLine(listing.getId(), listing.getSeller(), item, units));
+    }
+
+    /**
+     * Finds a page of the orders the business logged into the GUI has not handed over yet, oldest first.
+     * @param offset the number of orders to skip
+     * @param limit the most orders to return
+     * @return the pending Tickets, or an empty list if the logged-in User is not a business
+     */
+    protected List<Ticket> getPendingOrders(int offset, int limit) {
+        return getPendingOrders(requireSession(), offset, limit);
+    }
+
+    /**
+     * Finds a page of the orders the business of a session has not handed over yet, oldest first.
+     * Orders are split by seller when they are placed, so this only looks at the business's own
+     * orders, however many tickets there are. The first call loads the tickets.
+     * @param session the session of the business
+     * @param offset the number of orders to skip
+     * @param limit the most orders to return
+     * @return the pending Tickets, whose lines for the business are Ticket.getLines(seller),
+     *         or an empty list if the User of the session is not a business
+     */
+    protected List<Ticket> getPendingOrders(Session session, int offset, int limit) {
+        User user = session.getUser();
+        if (!user.isBusiness()) {
+            return new ArrayList<>();
+        }
+        loadTickets();
+        return sellerOrders.find(user.getUsername(), offset, limit);
+    }
+
+    /**
+     * Counts the orders the business logged into the GUI has not handed over yet.
+     * @return the number of pending orders, or 0 if the logged-in User is not a business
+     */
+    protected int getPendingOrderCount() {
+        return getPendingOrderCount(requireSession());
+    }
+
+    /**
+     * Counts the orders the business of a session has not handed over yet.
+     * @param session the session of the business
+     * @return the number of pending orders, or 0 if the User of the session is not a business
+     */
+    protected int getPendingOrderCount(Session session) {
+        User user = session.getUser();
+        if (!user.isBusiness()) {
+            return 0;
+        }
+        loadTickets();
+        return sellerOrders.count(user.getUsername());
+    }
+
+    /**
+     * Marks the part of an order which the business logged into the GUI sells as handed over.
+     * @param ticketId the ID of the order's ticket
+     * @return false if the logged-in User is not a business or has no pending order with the ID
+     */
+    protected boolean fulfilOrder(String ticketId) {
+        return fulfilOrder(requireSession(), ticketId);
+    }
+
+    /**
+     * Marks the part of an order which the business of a session sells as handed over, and
+     * removes the order from the business's pending orders. The fulfilment is recorded in the journal.
+     * @param session the session of the business
+     * @param ticketId the ID of the order's ticket
+     * @return false if the User of the session is not a business or has no pending order with the ID
+     */
+    protected boolean fulfilOrder(Session session, String ticketId) {
+        User user = session.getUser();
+        if (!user.isBusiness()) {
+            return false;
+        }
+        loadTickets();
+        Ticket ticket = mutate(() -> {
+            Ticket fulfilled = sellerOrders.fulfil(user.getUsername(), ticketId);
+            if (fulfilled != null) {
+                record(Journal.FULFIL_ORDER, new String[] {user.getUsername(), ticketId});
+            }
+            return fulfilled;
+        });
+        if (ticket == null) {
+            return false;
+        }
+        EventLog.info("Order {} fulfilled!", ticketId);
+        return true;
+    }
+
+    /**
+     * Retrieves the current price of a listing, which is below the price of its item while it is marked down.
+     * @param listing the listing
+     * @return the current price, in dollars
+     */
+    public double getPrice(Listing listing) {
+        return listingIndex.getPriceCents(listing) / 100.0;
+    }
+
+    /**
+     * Retrieves the item of a listing at its current price, e.g. to charge a marked down price for it.
+     * @param listing the listing
+     * @return the listing's item, or a copy of it at the marked down price; copies are not shared,
+     * since markdowns change often
+     */
+    public FoodItem getPricedItem(Listing listing) {
+        FoodItem item = listing.getItem();
+        long price = listingIndex.getPriceCents(listing);
+        return price == ListingQuery.toCents(item.getPrice()) ? item : new FoodItem(item.getName(), price / 100.0, item.getType());
+    }
+
+    private void fireListingAdded(Listing listing) {
+        for (ListingListener listener : listingListeners) {
+            listener.listingAdded(listing);
+        }
+    }
+
+    private void fireListingRemoved(Listing listing) {
+        for (ListingListener listener : listingListeners) {
+            listener.listingRemoved(listing);
+        }
+    }
+
+    private void fireListingsLoaded(List<Listing> page) {
+        for (ListingListener listener : listingListeners) {
+            listener.listingsLoaded(page);
+        }
+    }
+
     /**
      * Retrieves the Cart object associated with the given ticket ID.
+     * The ticket is looked up in the ticket store in constant time.
+     * The first lookup loads the tickets.
      *
      * @param ticketId The ID of the ticket to retrieve the Cart for.
      * @return The Cart object associated with the ticket ID, or null if not found.
      * @author Muhammad Daud
      */
     protected Cart getCartById(String ticketId) {
-        for (Ticket ticket : tickets) {
-            if (ticket.getTicketId().equals(ticketId)) {
-                return ticket.getCart();
-            }
+        long start = System.nanoTime();
+        loadTickets();
+        Ticket ticket = tickets.find(ticketId);
+        getCartLatency.record(System.nanoTime() - start);
+        if (ticket != null) {
+            return ticket.getCart();
         }
         return null;
     }
 
     /**
-     * Sets loggedInUser to null, which retuns User to main menu.
+     * Finds an order which the User of a session may see: the customer who placed it, or a business
+     * with a line of it. Ticket IDs are handed out in a predictable order, so knowing an ID is not
+     * enough to read the order. The first lookup loads the tickets.
+     *
+     * @param session the session of the customer or business
+     * @param ticketId the ID of the order's ticket
+     * @return the Ticket, or null if there is no order with the ID or the User may not see it
+     */
+    protected Ticket getOrder(Session session, String ticketId) {
+        long start = System.nanoTime();
+        loadTickets();
+        Ticket ticket = tickets.find(ticketId);
+        getCartLatency.record(System.nanoTime() - start);
+        if (ticket == null) {
+            return null;
+        }
+        User user = session.getUser();
+        if (user.getUsername().equals(ticket.getBuyer())) {
+            return ticket;
+        }
+        if (user.isBusiness() && !ticket.getLines(user.getUsername()).isEmpty()) {
+            return ticket;
+        }
+        return null;
+    }
+
+    /**
+     * Exports the placed orders to a file, replacing it, e.g. for a partner's daily extract.
+     * The tickets are streamed from the ticket store without being copied, so orders placed
+     * during the export may or may not be included. The first export loads the tickets.
+     *
+     * @param exporter the format and filters of the export
+     * @param file the file to write
+     * @return the number of tickets exported
+     * @throws IOException if the file can't be written
+     */
+    public int exportTickets(TicketExporter exporter, Path file) throws IOException {
+        loadTickets();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            return exporter.export(tickets.view(), channel);
+        }
+    }
+
+    /**
+     * Closes the GUI's session, which retuns User to main menu.
      * @author Mustafa Mian
      */
     protected void logoutUser() {
-        loggedInUser = null;
-        System.out.println("User logged out successfully!");
+        Session session = currentSession;
+        if (session != null) {
+            closeSession(session);
+            currentSession = null;
+        }
+        EventLog.info("User logged out successfully!");
+    }
+
+    /**
+     * @return the session of the User logged into the GUI
+     * @throws IllegalStateException if no User is logged in
+     */
+    private Session requireSession() {
+        Session session = currentSession;
+        if (session == null) {
+            throw new IllegalStateException("No user is logged in");
+        }
+        return session;
     }
 
     /**
     * Retrieves the list of listings.
-    * @return the list of listings
+    * @return a copy of the list of listings, in the order they were added
     */
     public List<Listing> getListings() {
-        return listings;
+        return listingIndex.filter(null, null);
+    }
+
+    /**
+     * Finds the listings which match a category and a seller using the listing index.
+     * @param category the category to match, or null to match every category
+     * @param seller the seller to match, or null to match every seller
+     * @return the matching listings
+     */
+    public List<Listing> filterListings(String category, String seller) {
+        return listingIndex.filter(category, seller);
+    }
+
+    /**
+     * Finds a page of the listings in a category and/or from a seller, looking up only the listings up to the end of the page.
+     * @param category the category to match, or null to match every category
+     * @param seller the seller to match, or null to match every seller
+     * @param filter accepts the listings which may be returned
+     * @param offset the number of accepted listings to skip
+     * @param limit the most listings to return
+     * @return the page of matching listings, in the order they were added
+     */
+    public List<Listing> filterListings(String category, String seller, Predicate<Listing> filter, int offset, int limit) {
+        return listingIndex.filter(category, seller, filter, offset, limit);
+    }
+
+    /**
+     * Finds the listings which match a range query, e.g. everything under $5 which expires in the next 2 days,
+     * by scanning the price and expiry columns of the listing index.
+     * @param query the conditions to match
+     * @return the matching listings, in the order they were added
+     */
+    public List<Listing> findListings(ListingQuery query) {
+        return listingIndex.find(query);
+    }
+
+    /**
+     * Finds a page of the listings which match a range query, looking up only the listings up to the end of the page.
+     * @param query the conditions to match
+     * @param filter accepts the listings which may be returned
+     * @param offset the number of accepted listings to skip
+     * @param limit the most listings to return
+     * @return the page of matching listings, in the order they were added
+     */
+    public List<Listing> findListings(ListingQuery query, Predicate<Listing> filter, int offset, int limit) {
+        return listingIndex.find(query, filter, offset, limit);
+    }
+
+    /**
+     * Searches the item and seller names of the listings using the listing index.
+     * @param query the words to look for; the last word may be incomplete, e.g. while it is being typed
+     * @param limit the most listings to return
+     * @return the matching listings, best matches first
+     */
+    public List<Listing> searchListings(String query, int limit) {
+        return listingIndex.search(query, limit);
+    }
+
+    /**
+     * Searches the item and seller names of the listings which pass a filter, e.g. a category and price range.
+     * Listings the filter rejects don't count towards the limit, so pages of a filtered search are full
+     * whenever enough listings match.
+     * @param query the words to look for; the last word may be incomplete
+     * @param limit the most listings to return
+     * @param filter accepts the listings which may be returned; it runs under the listing index's read lock
+     * @return the matching listings, best matches first
+     */
+    public List<Listing> searchListings(String query, int limit, Predicate<Listing> filter) {
+        return listingIndex.search(query, limit, filter);
+    }
+
+    /**
+     * Looks up a listing which can be browsed by its ID using the listing index.
+     * @param id the ID of the listing
+     * @return the listing, or null if there is no such listing or it has been removed
+     */
+    public Listing getListingById(int id) {
+        return listingIndex.find(id);
+    }
+
+    /**
+     * Retrieves the names of the sellers with listings.
+     * @return the names of the sellers
+     */
+    public Set<String> getSellers() {
+        return listingIndex.getSellers();
     }
 
     /**
@@ -198,7 +1572,8 @@ public class App {
      * @return the logged-in user
      */
     public User getLoggedInUser(){
-        return loggedInUser;
+        Session session = currentSession;
+        return session == null ? null : session.getUser();
     }
 
     /**
@@ -206,6 +1581,6 @@ public class App {
      * @return the list of items in the cart
      */
     public List<FoodItem> getCartItems() {
-        return cart.getItems();
+        return requireSession().getItems(System.currentTimeMillis(), this::getPricedItem);
     }
 }
@@ -2,8 +2,22 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.StringSelection;
 
@@ -22,9 +36,14 @@ public class AppGUI extends JFrame {
     private JButton addToCartButton; // New button for adding items to cart
     private JButton viewCartButton; // New button for viewing cart
     private JButton placeOrderButton; // New button for placing orders
-    private JCheckBox[] itemCheckBoxes; // Array of checkboxes for items
-    private JPanel listingsPanel;
-    private JPanel viewContainer;
+    private ListingListModel listingModel; // The model of the listings on the browse screen, null when it is closed
+    private JList<Listing> listingList; // The virtualized list which shows listingModel
+    private Runnable refreshListings; // Applies the browse screen's filter again, null when it is closed
+    private AtomicBoolean refreshQueued = new AtomicBoolean(); // True while a refresh for loaded listings is queued
+    private volatile long timeToFirstFrameMillis = -1; // The time from the start of the JVM until the window opened
+    static final int SEARCH_LIMIT = 1000; // The most search results shown on the browse screen
+    static final int ORDER_PAGE = 20; // The pending orders shown at a time
+    private static final String[] AVAILABLE_TEXT = new String[256]; // "Available: n" for small n, built the first time it is drawn
     private JButton logoutButton;
     App app;
 
@@ -63,7 +82,52 @@ public class AppGUI extends JFrame {
         placeOrderButton = new JButton("Place Order"); // Initialize place order button
 
         app = new App(); // Create instance off App Class
-        app.manageData(true); // Load all data
+        app.startLoading(); // Load the users; listings load in the background and tickets when needed
+        app.startExpirySweeper(SwingUtilities::invokeLater); // Retire expired listings on the event thread
+        app.startPricingEngine(); // Mark down listings near their expiry date in the background
+        app.startMetrics(); // Expose the App's metrics over JMX and print them periodically
+        app.getMetrics().gauge("AppGUI.timeToFirstFrameMillis", this::getTimeToFirstFrameMillis);
+
+        // Keep the browse screen up to date as listings are added, bought or expire
+        app.addListingListener(new App.ListingListener() {
+            public void listingAdded(Listing listing) {
+                if (listingModel != null) {
+                    listingModel.addListing(listing);
+                }
+            }
+
+            public void listingRemoved(Listing listing) {
+                if (listingModel != null) {
+                    listingModel.removeListing(listing);
+                }
+            }
+
+            // Called on the loader thread; pages which arrive while a refresh is queued share it
+            public void listingsLoaded(List<Listing> page) {
+                if (refreshQueued.compareAndSet(false, true)) {
+                    SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            refreshQueued.set(false);
+                            if (refreshListings != null) {
+                                refreshListings.run();
+                            }
+                        }
+                    });
+                }
+            }
+        });
+
+        // Report how long startup took, and fold the journal into a snapshot when the window is closed
+        addWindowListener(new WindowAdapter() {
+            public void windowOpened(WindowEvent e) {
+                timeToFirstFrameMillis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+                EventLog.info("Time to first frame: {} ms", timeToFirstFrameMillis);
+            }
+
+            public void windowClosing(WindowEvent e) {
+                app.shutdown();
+            }
+        });
 
         // Set layout manager for the main content pane
         getContentPane().setLayout(new FlowLayout());
@@ -114,7 +178,10 @@ public class AppGUI extends JFrame {
                     String password = new String(passwordField.getPassword());
 
                     // Perform business registration logic here
-                    app.registerUser(true, username, password);
+                    if (!app.registerUser(true, username, password)) {
+                        JOptionPane.showMessageDialog(null, "Username already taken!", "Registration Error",
+                                JOptionPane.ERROR_MESSAGE);
+                    }
                 }
             }
         });
@@ -149,7 +216,10 @@ public class AppGUI extends JFrame {
 
                     // Performs customer registration logic here by calling method in App class and
                     // passing user input as arguements
-                    app.registerUser(false, username, password);
+                    if (!app.registerUser(false, username, password)) {
+                        JOptionPane.showMessageDialog(null, "Username already taken!", "Registration Error",
+                                JOptionPane.ERROR_MESSAGE);
+                    }
                 }
             }
         });
@@ -185,7 +255,7 @@ public class AppGUI extends JFrame {
                     // Call the login method on the app instance
                     if (app.loginUser(username, password) == true) {
                         showUserMenu();
-                    } else if (app.loginUser(username, password) == false) {
+                    } else {
                         JOptionPane.showMessageDialog(null, "Invalid username or password!", "Login Error",
                                 JOptionPane.ERROR_MESSAGE);
                     }
@@ -225,12 +295,16 @@ public class AppGUI extends JFrame {
         JTextField titleField = new JTextField(20);
         JTextField priceField = new JTextField(20);
         JTextField dateField = new JTextField(20);
+        JTextField quantityField = new JTextField("1", 20);
         JTextField ticketIdField = new JTextField(20);
         String[] categories = { "Bakery", "Canned Food", "Dairy", "Meat", "Produce", "Other" };
         JComboBox typeField = new JComboBox(categories);
 
         JButton addButton = new JButton("Add Listing");
         JButton readTicketButton = new JButton("Read Ticket");
+        JButton markdownButton = new JButton("Set Markdown");
+        JButton importButton = new JButton("Import Listings");
+        JButton ordersButton = new JButton("Pending Orders");
         JButton backButton = new JButton("Logout");
 
         addButton.addActionListener(new ActionListener() {
@@ -252,6 +326,8 @@ public class AppGUI extends JFrame {
                 addPanel.add(priceField);
                 addPanel.add(new JLabel("Days Until Expiration:"));
                 addPanel.add(dateField);
+                addPanel.add(new JLabel("Quantity:"));
+                addPanel.add(quantityField);
                 addPanel.add(new JLabel("Item's Category"));
                 addPanel.add(typeField);
 
@@ -262,9 +338,10 @@ public class AppGUI extends JFrame {
                     String title = titleField.getText();
                     double price = Double.parseDouble(priceField.getText());
                     int days = Integer.parseInt(dateField.getText());
+                    int quantity = Integer.parseInt(quantityField.getText().trim());
                     String type = typeField.getSelectedItem().toString();
 
-                    app.addListing(title, price, days, type);
+                    app.addListing(title, price, days, type, quantity);
                     JOptionPane.showMessageDialog(null, "Listing added successfully!");
                 }
             }
@@ -313,6 +390,136 @@ public class AppGUI extends JFrame {
             }
         });
 
+        ordersButton.addActionListener(new ActionListener() {
+            /**
+             * Action performed when the pending orders button is clicked.
+             * Shows a page of the orders the business has not handed over yet, oldest first, with the
+             * business's items of each. The selected orders can be marked as fulfilled, which removes
+             * them from the list, or the next page can be shown.
+             *
+             * @param e The action event.
+             */
+            public void actionPerformed(ActionEvent e) {
+                String seller = app.currentSession.getUser().getUsername();
+                int offset = 0;
+                while (true) {
+                    int count = app.getPendingOrderCount();
+                    if (offset >= count) {
+                        offset = 0;
+                    }
+                    List<Ticket> page = app.getPendingOrders(offset, ORDER_PAGE);
+                    if (page.isEmpty()) {
+                        JOptionPane.showMessageDialog(null, "There are no pending orders.", "Pending Orders",
+                                JOptionPane.INFORMATION_MESSAGE);
+                        return;
+                    }
+                    String[] labels = new String[page.size()];
+                    for (int i = 0; i < labels.length; i++) {
+                        StringBuilder label = new StringBuilder(page.get(i).getTicketId()).append(": ");
+                        for (OrderLine line : page.get(i).getLines(seller)) {
+                            label.append(line).append("; ");
+                        }
+                        labels[i] = label.substring(0, label.length() - 2);
+                    }
+                    JList<String> orderList = new JList<>(labels);
+                    Object[] options = {"Fulfil Selected", "Next Page", "Close"};
+                    int choice = JOptionPane.showOptionDialog(null, new JScrollPane(orderList),
+                            "Pending Orders " + (offset + 1) + "-" + (offset + page.size()) + " of " + count,
+                            JOptionPane.DEFAULT_OPTION, JOptionPane.PLAIN_MESSAGE, null, options, options[0]);
+                    if (choice == 0) {
+                        for (int index : orderList.getSelectedIndices()) {
+                            app.fulfilOrder(page.get(index).getTicketId());
+                        }
+                    } else if (choice == 1) {
+                        offset += ORDER_PAGE;
+                    } else {
+                        return;
+                    }
+                }
+            }
+        });
+
+        markdownButton.addActionListener(new ActionListener() {
+            /**
+             * Action performed when the set markdown button is clicked.
+             * Opens a dialog to get the markdown curve, e.g. "3:20,1:50", or nothing for fixed prices.
+             * Calls the setMarkdown method on the app instance.
+             *
+             * @param e The action event.
+             */
+            public void actionPerformed(ActionEvent e) {
+                MarkdownCurve current = app.getLoggedInUser().getMarkdown();
+                JTextField curveField = new JTextField(current == null ? "" : current.toString(), 20);
+                JPanel markdownPanel = new JPanel();
+                markdownPanel.setLayout(new BoxLayout(markdownPanel, BoxLayout.Y_AXIS));
+                markdownPanel.add(new JLabel("Days Until Expiration:Percent Off, e.g. 3:20,1:50"));
+                markdownPanel.add(curveField);
+
+                int result = JOptionPane.showConfirmDialog(null, markdownPanel, "Set Markdown",
+                        JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+
+                if (result == JOptionPane.OK_OPTION) {
+                    String text = curveField.getText().trim();
+                    try {
+                        app.setMarkdown(text.isEmpty() ? null : MarkdownCurve.parse(text));
+                        JOptionPane.showMessageDialog(null, text.isEmpty() ? "Markdown removed!" : "Markdown set!");
+                    } catch (IllegalArgumentException ex) {
+                        JOptionPane.showMessageDialog(null, ex.getMessage(), "Markdown Error",
+                                JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+            }
+        });
+
+        importButton.addActionListener(new ActionListener() {
+            /**
+             * Action performed when the import listings button is clicked.
+             * Opens a file chooser to pick a CSV file of listings (name,price,days,category,quantity).
+             * Imports the file in the background, so the window stays responsive, then shows how many
+             * listings were added. The errors of any skipped rows are saved next to the file.
+             *
+             * @param e The action event.
+             */
+            public void actionPerformed(ActionEvent e) {
+                JFileChooser chooser = new JFileChooser();
+                chooser.setDialogTitle("Import Listings (name,price,days,category,quantity)");
+                if (chooser.showOpenDialog(AppGUI.this) != JFileChooser.APPROVE_OPTION) {
+                    return;
+                }
+                Path file = chooser.getSelectedFile().toPath();
+                ListingImporter importer = new ListingImporter(app, app.currentSession);
+                importButton.setEnabled(false);
+                new SwingWorker<ListingImporter.Report, Void>() {
+                    protected ListingImporter.Report doInBackground() throws Exception {
+                        ListingImporter.Report report = importer.importFile(file);
+                        if (!report.getErrors().isEmpty()) {
+                            Files.write(file.resolveSibling(file.getFileName() + ".errors.txt"),
+                                    report.toString().getBytes(StandardCharsets.UTF_8));
+                        }
+                        return report;
+                    }
+
+                    protected void done() {
+                        importButton.setEnabled(true);
+                        try {
+                            ListingImporter.Report report = get();
+                            String message = "Imported " + report.getImported() + " of " + report.getRows() + " listings.";
+                            if (!report.getErrors().isEmpty()) {
+                                message += "\n" + report.getErrors().size() + " rows were skipped, e.g.\n"
+                                        + String.join("\n", report.getErrors().subList(0, Math.min(5, report.getErrors().size())))
+                                        + "\nEvery error is saved in " + file.getFileName() + ".errors.txt";
+                            }
+                            JOptionPane.showMessageDialog(null, message, "Import Listings", JOptionPane.INFORMATION_MESSAGE);
+                        } catch (Exception ex) {
+                            Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                            JOptionPane.showMessageDialog(null, "Import failed: " + cause.getMessage(), "Import Error",
+                                    JOptionPane.ERROR_MESSAGE);
+                        }
+                    }
+                }.execute();
+            }
+        });
+
         backButton.addActionListener(new ActionListener() {
             /**
              * Action performed when the logout button is clicked.
@@ -334,6 +541,9 @@ public class AppGUI extends JFrame {
 
         getContentPane().add(addButton);
         getContentPane().add(readTicketButton);
+        getContentPane().add(markdownButton);
+        getContentPane().add(importButton);
+        getContentPane().add(ordersButton);
         getContentPane().add(backButton);
 
         getContentPane().revalidate();
@@ -454,144 +664,204 @@ public class AppGUI extends JFrame {
 
     /**
      * Displays a list of item listings in the application's graphical user interface.
-     * Shows a dialog box instructing the user to resize the window to view all listings and buttons.
-     * Disposes of the root frame of the JOptionPane.
-     * Retrieves the item listings from the App instance.
-     * Creates user interface components such as checkboxes, buttons, and a combo box.
-     * Adds action listeners to the back button and filter button and constructs a layout and containers for displaying the listings.
-     * Iterates over the item listings and creates a checkbox for each listing with relevant information.
+     * Retrieves the item listings from the App instance into a ListingListModel.
+     * Creates user interface components such as a list, buttons, and combo boxes.
+     * Adds action listeners to the back button and filter button.
+     * The listings are shown in a JList, which only renders the rows that are visible,
+     * so the screen opens at the same speed no matter how many listings there are.
+     * Clicking a row (or pressing space) checks or unchecks it.
      * Adds the "Add to Cart" button to the content pane.
      * @author Mustafa Mian
      */
     void showItemListings() {
         getContentPane().removeAll();
-        getContentPane().setSize(400, 500);
         getContentPane().repaint();
         getContentPane().revalidate();
 
-        JOptionPane.showMessageDialog(null, "Please resize the window to view all listings and buttons!");
-        JOptionPane.getRootFrame().dispose();
-
-        CardLayout cardLayout;
-        List<Listing> listings = app.getListings();
-        int itemCount = listings.size();
-        itemCheckBoxes = new JCheckBox[itemCount];
         JButton backButton = new JButton("Back");
         JButton filterButton = new JButton("Filter");
         String[] categories = { "All", "Bakery", "Canned Food", "Dairy", "Meat", "Produce", "Other" };
         JComboBox<String> categoryComboBox = new JComboBox<>(categories);
+        JComboBox<String> sellerComboBox = new JComboBox<>();
+        sellerComboBox.addItem("All");
+        for (String seller : app.getSellers()) {
+            sellerComboBox.addItem(seller);
+        }
 
         backButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
                 getContentPane().removeAll();
                 getContentPane().repaint();
                 getContentPane().revalidate();
+                listingModel = null;
+                refreshListings = null;
                 showCustomerMenu();
             }
         });
 
         getContentPane().add(backButton);
 
-        listingsPanel = new JPanel();
-        listingsPanel.setLayout(new BoxLayout(listingsPanel, BoxLayout.Y_AXIS));
         JPanel filterPanel = new JPanel();
         filterPanel.add(new JLabel("Category:"));
         filterPanel.add(categoryComboBox);
+        filterPanel.add(new JLabel("Seller:"));
+        filterPanel.add(sellerComboBox);
+        JTextField searchField = new JTextField(15);
+        filterPanel.add(new JLabel("Search:"));
+        filterPanel.add(searchField);
         getContentPane().add(filterPanel);
         getContentPane().add(filterButton);
 
-        cardLayout = new CardLayout();
-        viewContainer = new JPanel();
-        viewContainer.setLayout(cardLayout);
-
-        // Loops through listings List and creates checkbox for each listing
-        // Checkboxes display name, price, seller, category, and expiry date
-        for (int i = 0; i < itemCount; i++) {
-            Listing listing = listings.get(i);
-            JCheckBox checkBox = new JCheckBox(
-                    "Item: " + listing.getItem().getName() +
-                            ", Price: $" + listing.getItem().getPrice() +
-                            ", Seller: " + listing.getSeller() +
-                            ", Category: " + listing.getType() +
-                            ", Expiry Date: " + listing.getExpirationDate());
-            itemCheckBoxes[i] = checkBox;
-            listingsPanel.add(checkBox);
-        }
+        // The model holds the listings; the list only asks for the rows it draws
+        listingModel = new ListingListModel();
+        listingModel.setListings(app.getListings(), listing -> true);
+        listingList = new JList<>(listingModel);
+        listingList.setFixedCellHeight(22); // Fixed row size, so the list never measures every row
+        listingList.setFixedCellWidth(680);
+        listingList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+
+        // Rows are drawn with one shared checkbox which displays the cached label of each listing,
+        // or a label with the old price while it is marked down, and a label beside it with the units
+        // available, so drawing a row never joins strings
+        JPanel rowRenderer = new JPanel(new BorderLayout());
+        JCheckBox rowCheckBox = new JCheckBox();
+        JLabel rowAvailable = new JLabel();
+        rowAvailable.setBorder(BorderFactory.createEmptyBorder(0, 0, 0, 8));
+        rowRenderer.add(rowCheckBox, BorderLayout.CENTER);
+        rowRenderer.add(rowAvailable, BorderLayout.EAST);
+        listingList.setCellRenderer(new ListCellRenderer<Listing>() {
+            public Component getListCellRendererComponent(JList<? extends Listing> list, Listing listing, int index,
+                    boolean isSelected, boolean cellHasFocus) {
+                Color background = isSelected ? list.getSelectionBackground() : list.getBackground();
+                Color foreground = isSelected ? list.getSelectionForeground() : list.getForeground();
+                rowCheckBox.setText(listing.getDisplayLabel(app.getPrice(listing)));
+                rowCheckBox.setSelected(listingModel.isChecked(listing));
+                rowCheckBox.setBackground(background);
+                rowCheckBox.setForeground(foreground);
+                rowAvailable.setText(availableText(listing.getAvailable()));
+                rowAvailable.setForeground(foreground);
+                rowRenderer.setBackground(background);
+                return rowRenderer;
+            }
+        });
+        listingList.addMouseListener(new MouseAdapter() {
+            public void mouseClicked(MouseEvent e) {
+                int row = listingList.locationToIndex(e.getPoint());
+                if (row >= 0 && listingList.getCellBounds(row, row).contains(e.getPoint())) {
+                    listingModel.toggle(row);
+                }
+            }
+        });
+        listingList.addKeyListener(new KeyAdapter() {
+            public void keyPressed(KeyEvent e) {
+                int row = listingList.getSelectedIndex();
+                if (e.getKeyCode() == KeyEvent.VK_SPACE && row >= 0) {
+                    listingModel.toggle(row);
+                }
+            }
+        });
 
         // Calls filterListings method - Hassan Omran
         filterButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
                 String selectedCategory = categoryComboBox.getSelectedItem().toString();
-                filterListings(selectedCategory);
+                String selectedSeller = sellerComboBox.getSelectedItem().toString();
+                filterListings(selectedCategory, selectedSeller, searchField.getText());
+            }
+        });
+
+        // Searches as the user types, within the selected category and seller
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) {
+                search();
+            }
+
+            public void removeUpdate(DocumentEvent e) {
+                search();
+            }
+
+            public void changedUpdate(DocumentEvent e) {
+                search();
+            }
+
+            private void search() {
+                filterListings(categoryComboBox.getSelectedItem().toString(),
+                        sellerComboBox.getSelectedItem().toString(), searchField.getText());
             }
         });
 
-        viewContainer.add(listingsPanel, "listingsPanel");
-        listingsPanel.add(Box.createVerticalStrut(10)); // Add vertical spacing between checkboxes and button
+        // Show listings which finish loading while the screen is open
+        refreshListings = new Runnable() {
+            public void run() {
+                filterListings(categoryComboBox.getSelectedItem().toString(),
+                        sellerComboBox.getSelectedItem().toString(), searchField.getText());
+            }
+        };
 
-        JScrollPane scrollPane = new JScrollPane(listingsPanel);
+        JScrollPane scrollPane = new JScrollPane(listingList);
+        scrollPane.setPreferredSize(new Dimension(700, 400));
         getContentPane().add(scrollPane);
+        getContentPane().add(addToCartButton);
         getContentPane().revalidate();
         pack();
+    }
 
-        getContentPane().add(addToCartButton);
-        getContentPane().revalidate();
+    /**
+     * Returns the text which shows the units available of a listing, reusing the text for small numbers.
+     *
+     * @param available the number of units available
+     * @return the text, e.g. "Available: 3"
+     */
+    private static String availableText(int available) {
+        if (available < 0 || available >= AVAILABLE_TEXT.length) {
+            return "Available: " + available;
+        }
+        String text = AVAILABLE_TEXT[available];
+        if (text == null) {
+            text = "Available: " + available;
+            AVAILABLE_TEXT[available] = text;
+        }
+        return text;
     }
 
     /**
-     * Filters and displays the listings based on the specified category.
-     * This method clears the listingsPanel and dynamically populates it with
-     * checkboxes representing the filtered listings.
-     * Each checkbox displays information about a listing, including its associated
-     * item's name, price, seller, category, and expiry date.
-     * The filtered listings are retrieved from the app object, which is an instance
-     * of the application containing the listings data.
-     * The checkboxes are added to the listingsPanel and the "Add to Cart" button is
-     * displayed.
-     * Finally, the viewContainer is updated to show the listingsPanel.
+     * Filters and displays the listings based on the specified category, seller and search text.
+     * The filtered listings are looked up in the listing index of the app object,
+     * which combines the category and seller bitmaps instead of scanning every listing.
+     * If there is search text, the best SEARCH_LIMIT matches of the search index are shown instead,
+     * narrowed to the category and seller.
+     * The list model is then given the filtered listings, and the list redraws only
+     * the visible rows. Checked listings stay checked.
      * 
      * @param category The category to filter the listings by. Use "All" to show all
-     *                 listings.
+     *                 categories.
+     * @param seller   The seller to filter the listings by. Use "All" to show all
+     *                 sellers.
+     * @param query    The words to search the item and seller names for. Use "" to show
+     *                 every listing.
      * @author Hassan Omran
      */
-    void filterListings(String category) {
-        CardLayout cardLayout = (CardLayout) viewContainer.getLayout();
-        listingsPanel.removeAll(); // Clear the listingsPanel
-
-        if (category.equals("All")) {
-            // Show all listings
-            for (int i = 0; i < itemCheckBoxes.length; i++) {
-                Listing listing = app.getListings().get(i);
-                JCheckBox checkBox = new JCheckBox(
-                        "Item: " + listing.getItem().getName() +
-                                ", Price: $" + listing.getItem().getPrice() +
-                                ", Seller: " + listing.getSeller() +
-                                ", Category: " + listing.getType() +
-                                ", Expiry Date: " + listing.getExpirationDate());
-                itemCheckBoxes[i] = checkBox;
-                listingsPanel.add(checkBox);
-                getContentPane().add(addToCartButton);
-            }
+    void filterListings(String category, String seller, String query) {
+        if (listingModel == null) {
+            return;
+        }
+        String categoryFilter = category.equals("All") ? null : category;
+        String sellerFilter = seller.equals("All") ? null : seller;
+        Predicate<Listing> filter = listing -> (categoryFilter == null || categoryFilter.equals(listing.getType()))
+                && (sellerFilter == null || sellerFilter.equals(listing.getSeller()));
+
+        if (query.trim().isEmpty()) {
+            listingModel.setListings(app.filterListings(categoryFilter, sellerFilter), filter);
         } else {
-            // Show only listings of the selected category
-            for (int i = 0; i < itemCheckBoxes.length; i++) {
-                Listing listing = app.getListings().get(i);
-                if (listing.getType().equals(category)) {
-                    JCheckBox checkBox = new JCheckBox(
-                            "Item: " + listing.getItem().getName() +
-                                    ", Price: $" + listing.getItem().getPrice() +
-                                    ", Seller: " + listing.getSeller() +
-                                    ", Category: " + listing.getType() +
-                                    ", Expiry Date: " + listing.getExpirationDate());
-                    itemCheckBoxes[i] = checkBox;
-                    listingsPanel.add(checkBox);
-                    getContentPane().add(addToCartButton);
+            List<Listing> matches = new ArrayList<>();
+            for (Listing listing : app.searchListings(query, SEARCH_LIMIT)) {
+                if (filter.test(listing)) {
+                    matches.add(listing);
                 }
             }
+            listingModel.setListings(matches, filter.and(listing -> SearchIndex.matches(listing, query)));
         }
-
-        cardLayout.show(viewContainer, "listingsPanel"); // Show the listingsPanel in the viewContainer
-        getContentPane().revalidate();
+        listingList.clearSelection();
     }
 
     /**
@@ -620,58 +890,57 @@ public class AppGUI extends JFrame {
     }
 
     /**
-     * This method adds the selected items to the shopping cart in the application's
+     * This method adds the checked items to the shopping cart in the application's
      * user interface.
-     * Retrieves the item listings from the List in App instance.
-     * Creates a new list to store the selected listings.
-     * Iterates over the itemCheckBoxes array and checks if a checkbox is selected.
-     * If a checkbox is selected, the corresponding item is added to the shopping
-     * cart, and the checkbox is disabled, unchecked, hidden, and set to zero size
-     * to remove empty space.
-     * Removes the selected listings from the main listings list.
-     * Clears the content pane.
-     * Calls the showItemListings() method to display the updated list of item
-     * listings.
+     * Retrieves the checked listings from the list model.
+     * Reserves a unit of each checked listing for the shopping cart, so no one else can
+     * buy it; a listing whose units are all sold or reserved is skipped. The units are
+     * returned if the order isn't placed in time. The checks are then cleared, and the
+     * rows redrawn to show how many units are still available.
      * Shows a dialog box confirming that the selected items have been added to the
      * cart.
      * 
      * @author Mustafa Mian
      */
     void addSelectedItemsToCart() {
-        if (itemCheckBoxes != null) {
-            List<Listing> listings = app.getListings();
-            List<Listing> selectedListings = new ArrayList<>();
-            for (int i = 0; i < itemCheckBoxes.length; i++) {
-                JCheckBox checkBox = itemCheckBoxes[i];
-                if (checkBox.isSelected()) {
-                    // Finds all text between colon and comma and stores it as a String.
-                    String tempName = checkBox.getText();
-                    int startIndex = tempName.indexOf(": ") + 2;
-                    int endIndex = tempName.indexOf(",");
-                    String itemName = tempName.substring(startIndex, endIndex);
-                    app.addItemToCart(itemName);
-                    selectedListings.add(listings.get(i));
-                    itemCheckBoxes[i].setEnabled(false); // Disable the checkbox
-                    itemCheckBoxes[i].setSelected(false); // Uncheck the checkbox
-                    itemCheckBoxes[i].setVisible(false); // Hide the checkbox
-                    itemCheckBoxes[i].setPreferredSize(new Dimension(0, 0)); // Set zero size to remove the empty space
-                }
-            }
+        if (listingModel == null) {
+            return;
+        }
+        List<Listing> selectedListings = listingModel.getCheckedListings();
+        if (selectedListings.isEmpty()) {
+            return;
+        }
 
-            for (Listing listing : selectedListings) {
-                listings.remove(listing);
+        int taken = 0;
+        for (Listing listing : selectedListings) {
+            if (app.addListingToCart(listing)) {
+                taken++;
             }
+        }
+        listingModel.uncheckAll();
 
-            getContentPane().removeAll();
-            showItemListings();
+        if (taken == selectedListings.size()) {
             JOptionPane.showMessageDialog(null, "Selected items added to cart!");
+        } else {
+            JOptionPane.showMessageDialog(null, (selectedListings.size() - taken)
+                    + " of the selected items are sold out or in someone else's cart.\nThe rest were added to cart.");
         }
     }
 
+    /**
+     * @return the time from the start of the JVM until the window opened, in milliseconds, or -1 until it has
+     */
+    public long getTimeToFirstFrameMillis() {
+        return timeToFirstFrameMillis;
+    }
+
+    /**
+     * Shows the window on the event thread.
+     */
     public void start() {
         SwingUtilities.invokeLater(new Runnable() {
             public void run() {
-                new AppGUI().setVisible(true);
+                setVisible(true);
             }
         });
     }
@@ -0,0 +1,82 @@
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class tracks which entries of a saved collection changed since it was last saved,
+ * so a save can skip a collection which did not change and write only the changed entries
+ * of one which did. An entry which changes many times is written once, in its latest state.
+ * Removals win over changes: IDs are never reused, so a removed entry never comes back.
+ * It is safe to use from several threads at once.
+ *
+ * @param <K> the type of the keys, see FileManagement.keyOf
+ * @param <V> the type of the entries
+ */
+public class ChangeTracker<K, V> {
+    private final ConcurrentHashMap<K, V> changed; // The entries which were added or changed, by key.
+    private final Set<K> removed; // The keys of the entries which were removed.
+
+    /**
+     * Constructs a ChangeTracker with no changes.
+     */
+    public ChangeTracker() {
+        changed = new ConcurrentHashMap<>();
+        removed = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Notes that an entry was added or changed.
+     *
+     * @param key the key of the entry
+     * @param entry the entry, which is saved in the state it is in when the changes are drained
+     */
+    public void changed(K key, V entry) {
+        changed.put(key, entry);
+    }
+
+    /**
+     * Notes that an entry was removed.
+     *
+     * @param key the key of the entry
+     */
+    public void removed(K key) {
+        removed.add(key);
+        changed.remove(key);
+    }
+
+    /**
+     * @return true if any entry changed since the changes were last drained
+     */
+    public boolean isDirty() {
+        return !changed.isEmpty() || !removed.isEmpty();
+    }
+
+    /**
+     * @return the number of entries which changed
+     */
+    public int size() {
+        return changed.size() + removed.size();
+    }
+
+    /**
+     * Takes the changes, e.g. to save them. Must not run while entries are being changed,
+     * or a change noted during the call could be lost.
+     *
+     * @return the changes since they were last drained or cleared
+     */
+    public Segment drain() {
+        for (K key : removed) {
+            changed.remove(key);
+        }
+        Segment segment = new Segment(changed.values(), removed);
+        clear();
+        return segment;
+    }
+
+    /**
+     * Forgets the changes, e.g. once the whole collection is saved.
+     */
+    public void clear() {
+        changed.clear();
+        removed.clear();
+    }
+}
@@ -0,0 +1,168 @@
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class generates synthetic Users, Listings and Tickets, e.g. to benchmark the App
+ * at 1k, 100k or 1M rows or to try the GUI with a realistic amount of data.
+ * The data only depends on the row count and the seed, so runs can be compared.
+ * Every tenth User is a business, and every Listing is sold by one of them.
+ * Listings either each have an item of their own or relist the items of a catalog,
+ * the way a business offers the same loaf of bread every day.
+ *
+ * Usage: java DataGenerator directory rows [seed] [catalog]
+ */
+public class DataGenerator {
+    static final String[] FOODS = {"Bread", "Bagel", "Croissant", "Muffin", "Milk", "Cheese", "Yogurt", "Butter",
+            "Apple", "Banana", "Carrot", "Lettuce", "Tomato", "Potato", "Chicken", "Beef", "Salmon", "Beans",
+            "Soup", "Tuna", "Rice", "Pasta", "Cereal", "Juice"}; // The words item names are made from.
+    static final String[] CATEGORIES = {"Bakery", "Canned Food", "Dairy", "Meat", "Produce", "Other"}; // The categories of the GUI.
+    static final int BUSINESS_EVERY = 10; // One in this many Users is a business.
+
+    private DataGenerator() {
+    }
+
+    /**
+     * @param row the row of a User
+     * @return the username of the User
+     */
+    public static String username(int row) {
+        return (row % BUSINESS_EVERY == 0 ? "business" : "user") + row;
+    }
+
+    /**
+     * @param row the row of a User
+     * @return the password of the User
+     */
+    public static String password(int row) {
+        return "password" + row;
+    }
+
+    /**
+     * @param row the row of a Listing
+     * @return the name of the Listing's item, unique to the row, or of a catalog item
+     */
+    public static String itemName(int row) {
+        return FOODS[row % FOODS.length] + " " + row;
+    }
+
+    /**
+     * @param row the row of a Ticket
+     * @return the ID of the Ticket, as handed out by a TicketIdAllocator
+     */
+    public static String ticketId(int row) {
+        TicketIdAllocator ids = new TicketIdAllocator();
+        ids.seed(row);
+        return ids.next();
+    }
+
+    /**
+     * Generates Users, Listings and Tickets in the layout App.manageData saves them in.
+     * Every Listing has an item of its own.
+     *
+     * @param rows the number of rows of each kind
+     * @param seed the seed of the random prices, expiry days, quantities and carts
+     * @return the ArrayLists of Users, Listings and Tickets
+     */
+    public static ArrayList<?>[] generate(int rows, long seed) {
+        return generate(rows, seed, 0);
+    }
+
+    /**
+     * Generates Users, Listings and Tickets in the layout App.manageData saves them in.
+     * With a catalog, each catalog item is sold by one business at one price, and every
+     * Listing relists a random catalog item.
+     *
+     * @param rows the number of rows of each kind
+     * @param seed the seed of the random prices, expiry days, quantities and carts
+     * @param catalog the number of distinct items, or 0 to give every Listing an item of its own
+     * @return the ArrayLists of Users, Listings and Tickets
+     */
+    public static ArrayList<?>[] generate(int rows, long seed, int catalog) {
+        Random random = new Random(seed);
+        ArrayList<User> users = new ArrayList<>(rows);
+        for (int row = 0; row < rows; row++) {
+            users.add(new User(username(row), password(row), row % BUSINESS_EVERY == 0));
+        }
+
+        int businesses = Math.max(1, (rows + BUSINESS_EVERY - 1) / BUSINESS_EVERY);
+        FoodItem[] catalogItems = new FoodItem[catalog];
+        String[] catalogSellers = new String[catalog];
+        for (int entry = 0; entry < catalog; entry++) {
+            String category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+            catalogItems[entry] = FoodItem.of(itemName(entry), 0.5 + random.nextInt(2000) / 100.0, category);
+            catalogSellers[entry] = username(random.nextInt(businesses) * BUSINESS_EVERY);
+        }
+
+        ArrayList<Listing> listings = new ArrayList<>(rows);
+        for (int row = 0; row < rows; row++) {
+            if (catalog > 0) {
+                int entry = random.nextInt(catalog);
+                FoodItem item = catalogItems[entry];
+                listings.add(new Listing(item, catalogSellers[entry], 1 + random.nextInt(30), item.getType(),
+                        1 + random.nextInt(40)));
+                continue;
+            }
+            String category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+            FoodItem item = FoodItem.of(itemName(row), 0.5 + random.nextInt(2000) / 100.0, category);
+            String seller = username(random.nextInt(businesses) * BUSINESS_EVERY);
+            listings.add(new Listing(item, seller, 1 + random.nextInt(30), category, 1 + random.nextInt(40)));
+        }
+
+        ArrayList<Ticket> tickets = new ArrayList<>(rows);
+        TicketIdAllocator ids = new TicketIdAllocator();
+        long now = System.currentTimeMillis();
+        for (int row = 0; row < rows; row++) {
+            Cart cart = new Cart();
+            int items = 1 + random.nextInt(4);
+            for (int i = 0; i < items && !listings.isEmpty(); i++) {
+                cart.addItem(listings.get(random.nextInt(listings.size())).getItem());
+            }
+            tickets.add(new Ticket(ids.next(), cart, now - TimeUnit.HOURS.toMillis(row % (30 * 24)))); // over 30 days
+        }
+        return new ArrayList<?>[] {users, listings, tickets};
+    }
+
+    /**
+     * Generates data and saves it to the data files in a directory, replacing any data already there.
+     *
+     * @param dataDir the directory, which is created if it doesn't exist
+     * @param rows the number of rows of each kind
+     * @param seed the seed of the random values
+     * @return true if every file was saved
+     */
+    public static boolean write(String dataDir, int rows, long seed) {
+        return write(dataDir, rows, seed, 0);
+    }
+
+    /**
+     * Generates data, with Listings which relist a catalog of items, and saves it to the data files in a directory.
+     *
+     * @param dataDir the directory, which is created if it doesn't exist
+     * @param rows the number of rows of each kind
+     * @param seed the seed of the random values
+     * @param catalog the number of distinct items, or 0 to give every Listing an item of its own
+     * @return true if every file was saved
+     */
+    public static boolean write(String dataDir, int rows, long seed, int catalog) {
+        new File(dataDir).mkdirs();
+        new File(dataDir, App.JOURNAL_FILE).delete(); // a journal would be replayed on top of the new data
+        String[] fileNames = {Paths.get(dataDir, "savedUsers.dat").toString(),
+                Paths.get(dataDir, "savedListings.dat").toString(), Paths.get(dataDir, "savedTickets.dat").toString()};
+        FileManagement files = new FileManagement(generate(rows, seed, catalog), fileNames);
+        files.useListingSnapshot(1);
+        return files.saveData();
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java DataGenerator directory rows [seed] [catalog]");
+            return;
+        }
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        int catalog = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        write(args[0], Integer.parseInt(args[1]), seed, catalog);
+    }
+}
@@ -0,0 +1,358 @@
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class logs the App's events without making the threads which log them wait for stdout.
+ * An event is a level, a message template with {} placeholders and its arguments, e.g.
+ * EventLog.info("Loaded {} users in {} ms", count, millis). The level is checked first, so an event
+ * below feedforward.log.level (DEBUG, INFO, WARN or ERROR; INFO by default) costs one comparison,
+ * and the message is only built by the writer thread.
+ *
+ * Events are handed to the writer thread through a bounded ring buffer of feedforward.log.buffer
+ * slots: logging claims a slot with one compare-and-set and never blocks. If the buffer is full the
+ * event is dropped and counted instead; the writer reports how many were dropped, and
+ * getDroppedCount() returns the total, e.g. for the App's metrics.
+ */
+public final class EventLog {
+    /**
+     * The severity of an event, from least to most severe.
+     */
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    static final int CAPACITY = Integer.highestOneBit(Math.max(2, Integer.getInteger("feedforward.log.buffer", 8192))); // Slots.
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(5); // The writer's wait when the buffer is empty.
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss.SSS")
+            .withZone(ZoneId.systemDefault()); // The format of the time of each event.
+
+    private static volatile Level threshold = parseLevel(System.getProperty("feedforward.log.level", "INFO")); // The least severe level logged.
+    private static final Event[] slots = new Event[CAPACITY]; // The events, reused as the buffer wraps around.
+    private static final AtomicLongArray sequences = new AtomicLongArray(CAPACITY); // The position each slot is ready for.
+    private static final AtomicLong tail = new AtomicLong(); // The position of the next event to log.
+    private static volatile long head; // The position of the next event to write, only advanced by the writer.
+    private static final LongAdder dropped = new LongAdder(); // The number of events dropped because the buffer was full.
+    private static final Thread writer; // The thread which writes the events to stdout.
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            slots[i] = new Event();
+            sequences.set(i, i);
+        }
+        writer = new Thread(EventLog::run, "event-log");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(1, TimeUnit.SECONDS), "event-log-flush"));
+    }
+
+    /**
+     * One slot of the ring buffer. Its fields are written by the logging thread before the slot's
+     * sequence is published, and read by the writer after it sees the sequence.
+     */
+    private static final class Event {
+        private Level level; // The severity of the event.
+        private long millis; // The time of the event, in milliseconds since the epoch.
+        private String thread; // The name of the thread which logged the event.
+        private String template; // The message, with {} where each argument goes.
+        private Object first; // The first argument, or null.
+        private Object second; // The second argument, or null.
+        private Object[] rest; // Any further arguments, or null.
+    }
+
+    private EventLog() {
+    }
+
+    /**
+     * @param level a level
+     * @return true if events of the level are logged, e.g. to skip working out an expensive argument
+     */
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(threshold) >= 0;
+    }
+
+    /**
+     * Changes the least severe level which is logged.
+     *
+     * @param level the level
+     */
+    public static void setLevel(Level level) {
+        threshold = level;
+    }
+
+    /**
+     * Logs a DEBUG event, e.g. a detail which is only useful while investigating a problem.
+     *
+     * @param message the message
+     */
+    public static void debug(String message) {
+        log(Level.DEBUG, message, null, null, null);
+    }
+
+    /**
+     * Logs a DEBUG event.
+     *
+     * @param template the message, with {} where each argument goes
+     * @param arg the argument
+     */
+    public static void debug(String template, Object arg) {
+        log(Level.DEBUG, template, arg, null, null);
+    }
+
+    /**
+     * Logs a DEBUG event.
+     *
+     * @param template the message, with {} where each argument goes
+     * @param first the first argument
+     * @param second the second argument
+     */
+    public static void debug(String template, Object first, Object second) {
+        log(Level.DEBUG, template, first, second, null);
+    }
+
+    /**
+     * Logs an INFO event, e.g. an operation which completed.
+     *
+     * @param message the message
+     */
+    public static void info(String message) {
+        log(Level.INFO, message, null, null, null);
+    }
+
+    /**
+     * Logs an INFO event.
+     *
+     * @param template the message, with {} where each argument goes
+     * @param arg the argument
+     */
+    public static void info(String template, Object arg) {
+        log(Level.INFO, template, arg, null, null);
+    }
+
+    /**
+     * Logs an INFO event.
+     *
+     * @param template the message, with {} where each argument goes
+     * @param first the first argument
+     * @param second the second argument
+     */
+    public static void info(String template, Object first, Object second) {
+        log(Level.INFO, template, first, second, null);
+    }
+
+    /**
+     * Logs an INFO event.
+     *
+     * @param template the message, with {} where each argument goes
+     * @param first the first argument
+     * @param second the second argument
+     * @param rest any further arguments
+     */
+    public static void info(String template, Object first, Object second, Object... rest) {
+        log(Level.INFO, template, first, second, rest);
+    }
+
+    /**
+     * Logs a WARN event, e.g. an error the App recovers from.
+     *
+     * @param message the message
+     */
+    public static void warn(String message) {
+        log(Level.WARN, message, null, null, null);
+    }
+
+    /**
+     * Logs a WARN event.
+     *
+     * @param template the message, with {} where each argument goes
+     * @param arg the argument
+     */
+    public static void warn(String template, Object arg) {
+        log(Level.WARN, template, arg, null, null);
+    }
+
+    /**
+     * Logs a WARN event.
+     *
+     * @param template the message, with {} where each argument goes
+     * @param first the first argument
+     * @param second the second argument
+     */
+    public static void warn(String template, Object first, Object second) {
+        log(Level.WARN, template, first, second, null);
+    }
+
+    /**
+     * Logs a WARN event.
+     *
+     * @param template the message, with {} where each argument goes
+     * @param first the first argument
+     * @param second the second argument
+     * @param rest any further arguments
+     */
+    public static void warn(String template, Object first, Object second, Object... rest) {
+        log(Level.WARN, template, first, second, rest);
+    }
+
+    /**
+     * Logs an ERROR event.
+     *
+     * @param template the message, with {} where each argument goes
+     * @param arg the argument
+     */
+    public static void error(String template, Object arg) {
+        log(Level.ERROR, template, arg, null, null);
+    }
+
+    /**
+     * Logs an ERROR event.
+     *
+     * @param template the message, with {} where each argument goes
+     * @param first the first argument
+     * @param second the second argument
+     */
+    public static void error(String template, Object first, Object second) {
+        log(Level.ERROR, template, first, second, null);
+    }
+
+    /**
+     * Logs an event if its level is enabled, dropping it if the buffer is full.
+     * A slot is claimed by advancing the tail with a compare-and-set once the writer has freed it,
+     * then filled and published by setting its sequence, so the writer never sees half an event.
+     */
+    private static void log(Level level, String template, Object first, Object second, Object[] rest) {
+        if (level.compareTo(threshold) < 0) {
+            return;
+        }
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & (CAPACITY - 1);
+            long gap = sequences.get(index) - position;
+            if (gap == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            } else if (gap < 0) { // the writer hasn't freed the slot yet, so the buffer is full
+                dropped.increment();
+                return;
+            } else { // another thread claimed the position
+                position = tail.get();
+            }
+        }
+        int index = (int) position & (CAPACITY - 1);
+        Event event = slots[index];
+        event.level = level;
+        event.millis = System.currentTimeMillis();
+        event.thread = Thread.currentThread().getName();
+        event.template = template;
+        event.first = first;
+        event.second = second;
+        event.rest = rest;
+        sequences.set(index, position + 1);
+    }
+
+    /**
+     * @return the number of events dropped because the buffer was full
+     */
+    public static long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Waits until the events logged so far are written, e.g. before the program exits.
+     *
+     * @param timeout the longest time to wait
+     * @param unit the unit of timeout
+     * @return true if the events were written in time
+     */
+    public static boolean flush(long timeout, TimeUnit unit) {
+        long target = tail.get();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (head < target) {
+            if (System.nanoTime() > deadline || !writer.isAlive()) {
+                return false;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return true;
+    }
+
+    /**
+     * Writes events as they arrive, flushing stdout whenever the buffer is empty. Runs on the writer thread.
+     */
+    private static void run() {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+        StringBuilder line = new StringBuilder(256);
+        long reportedDropped = 0;
+        while (true) {
+            long position = head;
+            int index = (int) position & (CAPACITY - 1);
+            if (sequences.get(index) != position + 1) { // nothing to write
+                long droppedNow = dropped.sum();
+                if (droppedNow > reportedDropped) {
+                    line.setLength(0);
+                    format(line, Level.WARN, System.currentTimeMillis(), "event-log",
+                            "Dropped {} events because the log buffer was full", droppedNow - reportedDropped, null, null);
+                    out.println(line);
+                    reportedDropped = droppedNow;
+                }
+                out.flush();
+                LockSupport.parkNanos(IDLE_NANOS);
+                continue;
+            }
+            Event event = slots[index];
+            line.setLength(0);
+            format(line, event.level, event.millis, event.thread, event.template, event.first, event.second, event.rest);
+            event.template = null; // don't keep the arguments alive until the slot is reused
+            event.first = null;
+            event.second = null;
+            event.rest = null;
+            sequences.set(index, position + CAPACITY);
+            head = position + 1;
+            out.println(line);
+        }
+    }
+
+    /**
+     * Builds the line of an event, e.g. "12:00:00.123 INFO  [main] Loaded 9 users in 3 ms".
+     */
+    private static void format(StringBuilder line, Level level, long millis, String thread, String template,
+            Object first, Object second, Object[] rest) {
+        TIME.formatTo(Instant.ofEpochMilli(millis), line);
+        line.append(' ').append(level);
+        for (int pad = level.name().length(); pad < 5; pad++) {
+            line.append(' ');
+        }
+        line.append(" [").append(thread).append("] ");
+        int argument = 0;
+        int start = 0;
+        for (int at = template.indexOf("{}"); at >= 0; at = template.indexOf("{}", start)) {
+            line.append(template, start, at);
+            Object value = argument == 0 ? first : argument == 1 ? second
+                    : rest != null && argument - 2 < rest.length ? rest[argument - 2] : "{}";
+            line.append(value);
+            argument++;
+            start = at + 2;
+        }
+        line.append(template, start, template.length());
+    }
+
+    private static Level parseLevel(String name) {
+        try {
+            return Level.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return Level.INFO;
+        }
+    }
+}
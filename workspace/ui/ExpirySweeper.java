@@ -0,0 +1,60 @@
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class periodically retires expired listings from an App in the background,
+ * returns the units of expired cart reservations and closes sessions which have gone unused.
+ * The sweep itself is handed to an Executor, e.g. SwingUtilities::invokeLater, so it
+ * runs on the same thread as everything else which changes the App's listings.
+ */
+public class ExpirySweeper {
+    private final App app; // The App whose listings are swept.
+    private final long periodMillis; // The time between sweeps.
+    private final Executor executor; // The executor which runs each sweep.
+    private ScheduledExecutorService timer; // The thread which starts each sweep.
+
+    /**
+     * Constructs an ExpirySweeper which has not been started.
+     *
+     * @param app the App whose listings are swept
+     * @param periodMillis the time between sweeps
+     * @param executor the executor which runs each sweep
+     */
+    public ExpirySweeper(App app, long periodMillis, Executor executor) {
+        this.app = app;
+        this.periodMillis = periodMillis;
+        this.executor = executor;
+    }
+
+    /**
+     * Starts sweeping, beginning with an immediate sweep for listings which expired while the program was closed.
+     */
+    public synchronized void start() {
+        if (timer != null) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "expiry-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(() -> executor.execute(() -> {
+            long now = System.currentTimeMillis();
+            app.retireExpiredListings(now);
+            app.expireReservations(now);
+            app.expireSessions(now);
+        }), 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops sweeping. A sweep which has already been handed to the executor may still run.
+     */
+    public synchronized void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+    }
+}
@@ -1,68 +1,433 @@
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 
 /**
  * This class provides functionality to save and load data from ArrayLists to files.
  * It implements the concept of Serialization.
  * Currently used to save and load Users, Listings, and Tickets.
- * 
+ * Listings can instead be stored in the binary format of ListingSnapshot; files saved
+ * with Serialization are still read and are converted in place.
+ *
+ * Instead of rewriting a whole file, saveChanges() can append the changes to it as a Segment,
+ * in a segment file of its own named "file.generation.number.seg". Each full rewrite of a file
+ * starts a new generation, which is stored in the file, and loading only applies the segments of
+ * the file's generation, so segments which were folded into a rewrite are never applied twice.
+ *
  * @author Muhammad Daud
  */
 public class FileManagement {
+    static final int MAX_SEGMENTS = Integer.getInteger("feedforward.segments.max", 32); // Segments before a rewrite.
+
     private ArrayList<?>[] dataList;
     private String[] fileNames;
+    private int listingIndex = -1; // The index of the ArrayList stored as a ListingSnapshot, or -1.
+    // The state of the files, guarded by this. It is only held briefly, so needsRewrite() never waits for a save.
+    private long[] generations; // The generation of each file, or -1 until it is loaded or saved.
+    private int[] segmentCounts; // The number of segment files of each file's generation.
+    private long[] segmentEntries; // The number of entries in each file's segment files.
+    private boolean[] stale; // True for files whose last save failed, so their changes may be missing.
+    private LatencyHistogram saveLatency; // The time each save takes, in nanoseconds.
+    private LatencyHistogram loadLatency; // The time loading each file takes, in nanoseconds.
+    private LongAdder bytesWritten; // The bytes written to the files and their segment files.
 
     /**
      * Constructs a FileManagement object with the specified ArrayLists and file names.
-     * 
+     *
      * @param dataList an array of ArrayLists to be managed
      * @param fileNames an array of file names corresponding to the ArrayLists
      */
     public FileManagement(ArrayList<?>[] dataList, String[] fileNames) {
         this.dataList = dataList;
         this.fileNames = fileNames;
+        this.generations = new long[fileNames.length];
+        this.segmentCounts = new int[fileNames.length];
+        this.segmentEntries = new long[fileNames.length];
+        this.stale = new boolean[fileNames.length];
+        Arrays.fill(generations, -1);
+        useMetrics(new Metrics());
+    }
+
+    /**
+     * Constructs a FileManagement object which loads the specified files and saves the data passed to saveChanges().
+     *
+     * @param fileNames the names of the files
+     */
+    public FileManagement(String[] fileNames) {
+        this(new ArrayList<?>[fileNames.length], fileNames);
+    }
+
+    /**
+     * Stores the ArrayList at the specified index as a binary ListingSnapshot instead of with Serialization.
+     *
+     * @param index the index of the ArrayList of Listings
+     */
+    public void useListingSnapshot(int index) {
+        this.listingIndex = index;
+    }
+
+    /**
+     * Records the time saves and loads take, as FileManagement.saveData and FileManagement.loadData,
+     * and the bytes written, as FileManagement.bytesWritten, in a registry, e.g. the App's.
+     *
+     * @param metrics the registry
+     */
+    public void useMetrics(Metrics metrics) {
+        saveLatency = metrics.latency("FileManagement.saveData");
+        loadLatency = metrics.latency("FileManagement.loadData");
+        bytesWritten = metrics.counter("FileManagement.bytesWritten");
     }
 
     /**
      * Saves the data from ArrayLists to the corresponding files.
+     * Each file is written to a temporary file first and then moved over the old one,
+     * so a crash during the save never leaves a half-written snapshot behind.
+     *
+     * @return true if every file was saved
      */
-    public void saveData() {
-        for (int i = 0; i < dataList.length; i++) {
+    public boolean saveData() {
+        return saveChanges(dataList, new Segment[dataList.length]);
+    }
+
+    /**
+     * Saves changes to the data. Each file is either rewritten, extended with a segment file
+     * or left alone, so a save costs the size of what changed.
+     * Only one thread may save at a time, e.g. the write-behind writer thread.
+     *
+     * @param rewrites for each file, the ArrayList to rewrite it with, or null
+     * @param changes for each file which is not rewritten, the changes to append to it, or null
+     * @return true if every file was saved
+     */
+    public boolean saveChanges(ArrayList<?>[] rewrites, Segment[] changes) {
+        long start = System.nanoTime();
+        boolean saved = true;
+        for (int i = 0; i < fileNames.length; i++) {
             try {
-                FileOutputStream fileOut = new FileOutputStream(fileNames[i]);
-                ObjectOutputStream out = new ObjectOutputStream(fileOut);
-                out.writeObject(dataList[i]);
-                out.close();
-                fileOut.close();
-                System.out.println("Data saved successfully to " + fileNames[i]);
+                if (rewrites[i] != null) {
+                    rewrite(i, rewrites[i]);
+                    EventLog.info("Data saved successfully to {}", fileNames[i]);
+                } else if (changes[i] != null && changes[i].size() > 0) {
+                    appendSegment(i, changes[i]);
+                    EventLog.info("Saved {} changes to {}", changes[i].size(), fileNames[i]);
+                }
             } catch (Exception e) {
-                System.out.println("Error saving " + fileNames[i] + ": " + e);
+                EventLog.error("Error saving {}: {}", fileNames[i], e);
+                synchronized (this) {
+                    stale[i] = true;
+                }
+                saved = false;
             }
         }
+        saveLatency.record(System.nanoTime() - start);
+        return saved;
+    }
+
+    /**
+     * Decides whether a file should be rewritten instead of having changes appended to it:
+     * when it has not been loaded or saved, when its last save failed, or when its segments
+     * would make loading it slow.
+     *
+     * @param index the index of the file
+     * @param changes the number of changed entries
+     * @param size the number of entries in the collection
+     * @return true if the file should be rewritten
+     */
+    public synchronized boolean needsRewrite(int index, int changes, int size) {
+        return generations[index] < 0 || stale[index] || segmentCounts[index] >= MAX_SEGMENTS
+                || (segmentEntries[index] + changes) * 2 > size;
+    }
+
+    /**
+     * Rewrites a file in full as a new generation, then deletes the segment files of older generations.
+     */
+    private void rewrite(int index, ArrayList<?> data) throws IOException {
+        long generation;
+        synchronized (this) {
+            generation = generations[index];
+        }
+        generation = Math.max(generation, newestSegmentGeneration(index)) + 1;
+        if (index == listingIndex) {
+            @SuppressWarnings("unchecked") // the listing collection only ever holds Listings
+            ArrayList<Listing> listings = (ArrayList<Listing>) data;
+            ListingSnapshot.write(listings, fileNames[index], generation);
+            bytesWritten.add(Files.size(Paths.get(fileNames[index])));
+        } else {
+            String tempName = fileNames[index] + ".tmp";
+            FileOutputStream fileOut = new FileOutputStream(tempName);
+            ObjectOutputStream out = new ObjectOutputStream(fileOut);
+            out.writeObject(data);
+            out.writeLong(generation); // readers which predate generations stop after the ArrayList
+            out.flush();
+            fileOut.getFD().sync();
+            bytesWritten.add(fileOut.getChannel().size());
+            out.close();
+            fileOut.close();
+            Files.move(Paths.get(tempName), Paths.get(fileNames[index]), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        synchronized (this) {
+            generations[index] = generation;
+            segmentCounts[index] = 0;
+            segmentEntries[index] = 0;
+            stale[index] = false;
+        }
+        deleteSegments(index, generation);
+    }
+
+    /**
+     * Writes changes to the next segment file of a file's generation.
+     */
+    private void appendSegment(int index, Segment segment) throws IOException {
+        Path target;
+        synchronized (this) {
+            if (generations[index] < 0) {
+                throw new IOException("Changes can't be appended to " + fileNames[index] + " before it is saved");
+            }
+            target = segmentFile(index, generations[index], segmentCounts[index] + 1);
+        }
+        Path temp = Paths.get(target + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(temp.toFile());
+             ObjectOutputStream out = new ObjectOutputStream(fileOut)) {
+            out.writeObject(segment);
+            out.flush();
+            fileOut.getFD().sync();
+            bytesWritten.add(fileOut.getChannel().size());
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        synchronized (this) {
+            segmentCounts[index]++;
+            segmentEntries[index] += segment.size();
+        }
     }
 
     /**
      * Loads the data from files into ArrayLists, which is then fed back.
-     * 
+     * The segment files of each file's generation are applied in order.
+     *
      * @return an array of ArrayLists containing the loaded, deserialized data
      */
     public ArrayList<?>[] loadData() {
         ArrayList<?>[] loadedData = new ArrayList<?>[dataList.length];
         for (int i = 0; i < dataList.length; i++) {
-            try {
-                FileInputStream fileIn = new FileInputStream(fileNames[i]);
+            loadedData[i] = loadFile(i);
+        }
+        return loadedData;
+    }
+
+    /**
+     * Loads one file, with the segment files of its generation applied.
+     *
+     * @param index the index of the file
+     * @return the loaded data, or null if the file could not be loaded
+     */
+    public ArrayList<?> loadFile(int index) {
+        ArrayList<Object> loaded = new ArrayList<>();
+        return loadPages(index, Integer.MAX_VALUE, loaded::addAll) ? loaded : null;
+    }
+
+    /**
+     * Loads one file in pages, e.g. so the first listings can be shown before the last ones are read.
+     * The file's segment files are read first and merged into each page, so every entry is passed
+     * in its latest state; entries which were only added by segments come last.
+     * Listings stored as a ListingSnapshot are created a page at a time from the mapped file.
+     *
+     * @param index the index of the file
+     * @param pageSize the most entries in a page
+     * @param pages receives each page, on the calling thread
+     * @return true if the file was loaded
+     */
+    public boolean loadPages(int index, int pageSize, Consumer<List<Object>> pages) {
+        long start = System.nanoTime();
+        try {
+            ListingSnapshot snapshot = null;
+            ArrayList<?> entries = null;
+            long generation;
+            if (index == listingIndex && ListingSnapshot.isSnapshot(fileNames[index])) {
+                snapshot = new ListingSnapshot(fileNames[index]);
+                generation = snapshot.getGeneration();
+            } else {
+                FileInputStream fileIn = new FileInputStream(fileNames[index]);
                 ObjectInputStream in = new ObjectInputStream(fileIn);
-                loadedData[i] = (ArrayList<?>) in.readObject();
+                entries = (ArrayList<?>) in.readObject();
+                generation = readGeneration(in);
                 in.close();
                 fileIn.close();
-                System.out.println("Data loaded successfully from " + fileNames[i]);
-            } catch (Exception e) {
-                System.out.println("Error loading " + fileNames[i] + ": " + e);
+
+                if (index == listingIndex) { // Convert the legacy file in place
+                    @SuppressWarnings("unchecked") // the legacy listing file only ever held Listings
+                    ArrayList<Listing> listings = (ArrayList<Listing>) entries;
+                    ListingSnapshot.write(listings, fileNames[index], generation);
+                    EventLog.info("Converted {} to a listing snapshot", fileNames[index]);
+                }
+            }
+            LinkedHashMap<Object, Object> changed = new LinkedHashMap<>();
+            HashSet<Object> removed = new HashSet<>();
+            readSegments(index, generation, changed, removed);
+
+            int size = snapshot != null ? snapshot.size() : entries.size();
+            ArrayList<Object> page = new ArrayList<>(Math.min(pageSize, size + changed.size()));
+            for (int row = 0; row < size; row++) {
+                Object entry = snapshot != null ? snapshot.getListing(row) : entries.get(row);
+                if (!changed.isEmpty() || !removed.isEmpty()) {
+                    Object key = keyOf(entry);
+                    if (removed.contains(key)) {
+                        continue;
+                    }
+                    Object newer = changed.remove(key);
+                    if (newer != null) {
+                        entry = newer;
+                    }
+                }
+                page.add(entry);
+                if (page.size() == pageSize) {
+                    pages.accept(page);
+                    page = new ArrayList<>(Math.min(pageSize, size - row + changed.size()));
+                }
+            }
+            for (Object entry : changed.values()) { // entries which are newer than the file
+                page.add(entry);
+                if (page.size() == pageSize) {
+                    pages.accept(page);
+                    page = new ArrayList<>();
+                }
+            }
+            if (!page.isEmpty()) {
+                pages.accept(page);
+            }
+            synchronized (this) { // only now may changes be appended to the file
+                generations[index] = generation;
             }
+            EventLog.info("Data loaded successfully from {}", fileNames[index]);
+            return true;
+        } catch (Exception e) {
+            EventLog.warn("Error loading {}: {}", fileNames[index], e);
+            return false;
+        } finally {
+            loadLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Reads the generation which follows the ArrayList in a serialized file.
+     * Files saved before generations were stored end after the ArrayList and are generation 0.
+     */
+    private static long readGeneration(ObjectInputStream in) throws IOException {
+        try {
+            return in.readLong();
+        } catch (EOFException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Reads the segment files of a file's generation, in the order they were written, and merges them:
+     * the latest state of each changed entry by key, and the keys of removed entries.
+     */
+    private void readSegments(int index, long generation, LinkedHashMap<Object, Object> changed,
+            HashSet<Object> removed) throws IOException, ClassNotFoundException {
+        int count = 0;
+        long entries = 0;
+        for (Path file = segmentFile(index, generation, 1); Files.exists(file);
+                file = segmentFile(index, generation, count + 1)) {
+            Segment segment;
+            try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file.toFile()))) {
+                segment = (Segment) in.readObject();
+            }
+            for (Object entry : segment.getChanged()) {
+                changed.put(keyOf(entry), entry);
+            }
+            for (Object key : segment.getRemoved()) {
+                changed.remove(key);
+                removed.add(key);
+            }
+            count++;
+            entries += segment.size();
+        }
+        synchronized (this) {
+            segmentCounts[index] = count;
+            segmentEntries[index] = entries;
+        }
+        if (count > 0) {
+            EventLog.info("Applied {} segments to {}", count, fileNames[index]);
+        }
+    }
+
+    /**
+     * Returns the key which identifies an entry across saves, so a changed entry replaces its old state.
+     *
+     * @param entry a User, Listing or Ticket
+     * @return the username of a User, the ID of a Listing or the ticket ID of a Ticket
+     */
+    static Object keyOf(Object entry) {
+        if (entry instanceof User) {
+            return ((User) entry).getUsername();
+        }
+        if (entry instanceof Listing) {
+            return ((Listing) entry).getId();
+        }
+        if (entry instanceof Ticket) {
+            return ((Ticket) entry).getTicketId();
+        }
+        return entry;
+    }
+
+    private Path segmentFile(int index, long generation, int number) {
+        return Paths.get(fileNames[index] + "." + generation + "." + number + ".seg");
+    }
+
+    /**
+     * @return the newest generation of the segment files of a file, or -1 if it has none
+     */
+    private long newestSegmentGeneration(int index) throws IOException {
+        long newest = -1;
+        try (DirectoryStream<Path> segments = listSegments(index)) {
+            for (Path segment : segments) {
+                newest = Math.max(newest, segmentGeneration(index, segment));
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * Deletes the segment files of a file which belong to generations before the specified one.
+     */
+    private void deleteSegments(int index, long generation) throws IOException {
+        try (DirectoryStream<Path> segments = listSegments(index)) {
+            for (Path segment : segments) {
+                if (segmentGeneration(index, segment) < generation) {
+                    Files.deleteIfExists(segment);
+                }
+            }
+        }
+    }
+
+    private DirectoryStream<Path> listSegments(int index) throws IOException {
+        Path file = Paths.get(fileNames[index]).toAbsolutePath();
+        return Files.newDirectoryStream(file.getParent(), file.getFileName() + ".*.seg");
+    }
+
+    private long segmentGeneration(int index, Path segment) {
+        String name = segment.getFileName().toString();
+        int start = Paths.get(fileNames[index]).getFileName().toString().length() + 1;
+        try {
+            return Long.parseLong(name.substring(start, name.indexOf('.', start)));
+        } catch (RuntimeException e) {
+            return -1; // not one of ours
         }
-        return loadedData;
     }
 }
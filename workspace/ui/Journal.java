@@ -0,0 +1,282 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * This class is an append-only write-ahead log of mutations made to the App's data.
+ * Each mutation is stored as one small record instead of rewriting every .dat file.
+ * Records are written in groups: a group is committed once it holds groupSize records
+ * or once syncMillis have passed, and is optionally forced to disk with fsync.
+ * On startup the log is replayed on top of the last snapshot, and compaction folds it
+ * back into a snapshot by truncating it.
+ *
+ * Record layout: [int length][byte kind][payload][int crc32 of kind and payload].
+ * A torn or corrupt record at the tail (e.g. after a crash) ends the replay.
+ */
+public class Journal {
+    public static final byte ADD_USER = 1; // payload: User
+    public static final byte ADD_LISTING = 2; // payload: Listing
+    public static final byte ADD_TICKET = 3; // payload: Ticket
+    public static final byte REMOVE_LISTING = 4; // payload: Integer listing id
+    public static final byte LISTING_QUANTITY = 5; // payload: int[] {listing id, units left unsold}
+    public static final byte SET_MARKDOWN = 6; // payload: String[] {username, markdown curve or null}
+    public static final byte ADD_LISTINGS = 7; // payload: Listing[] added together, e.g. by a bulk import
+    public static final byte FULFIL_ORDER = 8; // payload: String[] {seller username, ticket id}
+
+    private final String fileName; // The file the log is stored in.
+    private final int groupSize; // The number of records committed together.
+    private final boolean fsync; // True if every commit is forced to disk.
+    private final FileChannel channel; // The channel used to append to the log.
+    private final ByteArrayOutputStream pending; // Records which have not been committed yet.
+    private final ScheduledExecutorService committer; // Commits partial groups after syncMillis.
+    private int pendingRecords; // The number of records in pending.
+    private int recordCount; // The number of records in the log since it was last truncated.
+
+    /**
+     * Listener that receives each record during replay().
+     */
+    public interface RecordHandler {
+        /**
+         * @param kind the kind of the record, one of the constants in Journal
+         * @param payload the deserialized payload of the record
+         */
+        void apply(byte kind, Object payload);
+    }
+
+    /**
+     * Opens (or creates) the log with the specified file name.
+     *
+     * @param fileName the file the log is stored in
+     * @param groupSize the number of records committed together, 1 commits every record
+     * @param syncMillis the longest time a record may wait for its group, 0 disables the timer
+     * @param fsync true to force every commit to disk, false to leave it to the operating system
+     * @throws IOException if the log cannot be opened
+     */
+    public Journal(String fileName, int groupSize, long syncMillis, boolean fsync) throws IOException {
+        this.fileName = fileName;
+        this.groupSize = Math.max(1, groupSize);
+        this.fsync = fsync;
+        this.pending = new ByteArrayOutputStream();
+        this.channel = new RandomAccessFile(fileName, "rw").getChannel();
+        this.channel.position(channel.size());
+
+        if (syncMillis > 0 && this.groupSize > 1) {
+            committer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "journal-commit");
+                thread.setDaemon(true);
+                return thread;
+            });
+            committer.scheduleWithFixedDelay(this::commitQuietly, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+        } else {
+            committer = null;
+        }
+    }
+
+    /**
+     * Appends a record to the log. The record is durable once its group is committed.
+     *
+     * @param kind the kind of the record
+     * @param payload the object describing the mutation
+     * @throws IOException if the payload cannot be serialized, in which case nothing is appended,
+     *                     or the group cannot be written, in which case the record stays pending
+     */
+    public void append(byte kind, Serializable payload) throws IOException {
+        appendEncoded(encode(kind, payload));
+    }
+
+    /**
+     * Appends a record which was already encoded with encode(). The record is appended even if
+     * its group cannot be written: the group stays pending, so a failure is retried with commit(),
+     * never by appending the record again.
+     *
+     * @param record the encoded record
+     * @throws IOException if the group cannot be written
+     */
+    public synchronized void appendEncoded(byte[] record) throws IOException {
+        pending.write(record, 0, record.length);
+        pendingRecords++;
+        recordCount++;
+
+        if (pendingRecords >= groupSize) {
+            commit();
+        }
+    }
+
+    /**
+     * Encodes a record in the layout of the log. This can be done on the thread which made
+     * the mutation, so the payload is captured before it can change.
+     *
+     * @param kind the kind of the record
+     * @param payload the object describing the mutation
+     * @return the encoded record
+     * @throws IOException if the payload cannot be serialized
+     */
+    public static byte[] encode(byte kind, Serializable payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        bytes.write(new byte[5]); // room for the length and kind
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(payload);
+        out.close();
+        bytes.write(new byte[4]); // room for the crc
+
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        int length = record.capacity() - 9;
+        CRC32 crc = new CRC32();
+        crc.update(kind);
+        crc.update(record.array(), 5, length);
+        record.putInt(0, length).put(4, kind).putInt(5 + length, (int) crc.getValue());
+        return record.array();
+    }
+
+    /**
+     * Writes all pending records to the log and forces them to disk if fsync is enabled. If this
+     * fails the records stay pending and the log is wound back to where they started, so the next
+     * commit writes them once, after the last good record.
+     *
+     * @throws IOException if the records cannot be written
+     */
+    public synchronized void commit() throws IOException {
+        if (pendingRecords == 0) {
+            return;
+        }
+        long start = channel.position();
+        ByteBuffer buffer = ByteBuffer.wrap(pending.toByteArray());
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (fsync) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            try {
+                channel.truncate(start);
+                channel.position(start);
+            } catch (IOException rewind) {
+                e.addSuppressed(rewind);
+            }
+            throw e;
+        }
+        pending.reset();
+        pendingRecords = 0;
+    }
+
+    /**
+     * Commits pending records from the timer thread, where an exception has nowhere to go.
+     */
+    private void commitQuietly() {
+        try {
+            commit();
+        } catch (IOException e) {
+            EventLog.error("Error committing {}: {}", fileName, e);
+        }
+    }
+
+    /**
+     * Reads every record in the log, in the order they were appended, and hands it to the handler.
+     * A torn or corrupt record stops the replay and is cut off so new records follow valid ones.
+     *
+     * @param handler the handler which applies each record
+     * @return the number of records replayed
+     * @throws IOException if the log cannot be read
+     */
+    public synchronized int replay(RecordHandler handler) throws IOException {
+        commit();
+        long validLength = 0;
+        int replayed = 0;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)))) {
+            while (true) {
+                int length;
+                byte kind;
+                byte[] body;
+                int storedCrc;
+                try {
+                    length = in.readInt();
+                    if (length < 0 || validLength + length + 9 > channel.size()) {
+                        break; // torn length
+                    }
+                    kind = in.readByte();
+                    body = new byte[length];
+                    in.readFully(body);
+                    storedCrc = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                CRC32 crc = new CRC32();
+                crc.update(kind);
+                crc.update(body);
+                if ((int) crc.getValue() != storedCrc) {
+                    break;
+                }
+
+                try (ObjectInputStream payload = new ObjectInputStream(new ByteArrayInputStream(body))) {
+                    handler.apply(kind, payload.readObject());
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Unknown record in " + fileName, e);
+                }
+                validLength += length + 9;
+                replayed++;
+            }
+        }
+
+        if (validLength < channel.size()) {
+            EventLog.warn("Discarding torn tail of {} at byte {}", fileName, validLength);
+            channel.truncate(validLength);
+        }
+        channel.position(validLength);
+        recordCount = replayed;
+        return replayed;
+    }
+
+    /**
+     * Empties the log. Called once its records have been folded into a snapshot.
+     *
+     * @throws IOException if the log cannot be truncated
+     */
+    public synchronized void truncate() throws IOException {
+        pending.reset();
+        pendingRecords = 0;
+        channel.truncate(0);
+        channel.position(0);
+        if (fsync) {
+            channel.force(true);
+        }
+        recordCount = 0;
+    }
+
+    /**
+     * @return the number of records in the log since it was last truncated
+     */
+    public synchronized int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Commits pending records and closes the log.
+     *
+     * @throws IOException if the records cannot be written
+     */
+    public synchronized void close() throws IOException {
+        if (committer != null) {
+            committer.shutdown();
+        }
+        commit();
+        channel.close();
+    }
+}
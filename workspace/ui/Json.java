@@ -0,0 +1,270 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class reads and writes the small JSON documents used by the API server.
+ * Requests are flat objects, e.g. {"username": "a", "password": "b"}, so only those are read;
+ * responses are written with a Writer, without building a tree of objects first.
+ */
+public class Json {
+
+    private Json() {
+    }
+
+    /**
+     * Reads a flat JSON object. Strings, numbers, booleans and null are read as their text.
+     *
+     * @param text the JSON text
+     * @return the members of the object, keyed by name; null members are left out
+     * @throws IllegalArgumentException if the text is not a flat JSON object
+     */
+    public static Map<String, String> parseObject(String text) {
+        Map<String, String> members = new HashMap<>();
+        int[] pos = {skipSpace(text, 0)};
+        expect(text, pos, '{');
+        if (peek(text, pos) == '}') {
+            pos[0]++;
+            return members;
+        }
+        while (true) {
+            pos[0] = skipSpace(text, pos[0]);
+            String name = readString(text, pos);
+            pos[0] = skipSpace(text, pos[0]);
+            expect(text, pos, ':');
+            pos[0] = skipSpace(text, pos[0]);
+            String value;
+            boolean quoted = peek(text, pos) == '"';
+            if (quoted) {
+                value = readString(text, pos);
+            } else {
+                int start = pos[0];
+                while (pos[0] < text.length() && ",} \t\r\n".indexOf(text.charAt(pos[0])) < 0) {
+                    pos[0]++;
+                }
+                value = text.substring(start, pos[0]);
+                if (value.isEmpty() || value.startsWith("{") || value.startsWith("[")) {
+                    throw new IllegalArgumentException("Expected a string, number or boolean at " + start);
+                }
+            }
+            if (quoted || !value.equals("null")) {
+                members.put(name, value);
+            }
+            pos[0] = skipSpace(text, pos[0]);
+            char next = peek(text, pos);
+            pos[0]++;
+            if (next == '}') {
+                return members;
+            }
+            if (next != ',') {
+                throw new IllegalArgumentException("Expected , or } at " + (pos[0] - 1));
+            }
+        }
+    }
+
+    /**
+     * Writes a string as a quoted JSON string.
+     *
+     * @param out where to write the string
+     * @param value the string
+     */
+    public static void quote(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+
+    private static String readString(String text, int[] pos) {
+        expect(text, pos, '"');
+        StringBuilder value = new StringBuilder();
+        while (pos[0] < text.length()) {
+            char c = text.charAt(pos[0]++);
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            char escaped = peek(text, pos);
+            pos[0]++;
+            switch (escaped) {
+                case 'n': value.append('\n'); break;
+                case 'r': value.append('\r'); break;
+                case 't': value.append('\t'); break;
+                case 'b': value.append('\b'); break;
+                case 'f': value.append('\f'); break;
+                case 'u':
+                    if (pos[0] + 4 > text.length()) {
+                        throw new IllegalArgumentException("Incomplete escape at " + pos[0]);
+                    }
+                    value.append((char) Integer.parseInt(text.substring(pos[0], pos[0] + 4), 16));
+                    pos[0] += 4;
+                    break;
+                default: value.append(escaped);
+            }
+        }
+        throw new IllegalArgumentException("Unterminated string");
+    }
+
+    private static void expect(String text, int[] pos, char c) {
+        if (peek(text, pos) != c) {
+            throw new IllegalArgumentException("Expected " + c + " at " + pos[0]);
+        }
+        pos[0]++;
+    }
+
+    private static char peek(String text, int[] pos) {
+        if (pos[0] >= text.length()) {
+            throw new IllegalArgumentException("Unexpected end of JSON");
+        }
+        return text.charAt(pos[0]);
+    }
+
+    private static int skipSpace(String text, int pos) {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Writes a JSON document piece by piece, adding the commas between members.
+     */
+    public static class Writer {
+        private final StringBuilder out = new StringBuilder(); // The JSON written so far.
+        private boolean needsComma; // True if the next member or element follows another.
+
+        /**
+         * Starts an object.
+         * @return this Writer
+         */
+        public Writer beginObject() {
+            separate();
+            out.append('{');
+            needsComma = false;
+            return this;
+        }
+
+        /**
+         * Ends the current object.
+         * @return this Writer
+         */
+        public Writer endObject() {
+            out.append('}');
+            needsComma = true;
+            return this;
+        }
+
+        /**
+         * Starts an array.
+         * @return this Writer
+         */
+        public Writer beginArray() {
+            separate();
+            out.append('[');
+            needsComma = false;
+            return this;
+        }
+
+        /**
+         * Ends the current array.
+         * @return this Writer
+         */
+        public Writer endArray() {
+            out.append(']');
+            needsComma = true;
+            return this;
+        }
+
+        /**
+         * Writes the name of the next member of the current object.
+         * @param name the name of the member
+         * @return this Writer
+         */
+        public Writer name(String name) {
+            separate();
+            quote(out, name);
+            out.append(':');
+            needsComma = false;
+            return this;
+        }
+
+        /**
+         * @param value a string, or null
+         * @return this Writer
+         */
+        public Writer value(String value) {
+            separate();
+            if (value == null) {
+                out.append("null");
+            } else {
+                quote(out, value);
+            }
+            needsComma = true;
+            return this;
+        }
+
+        /**
+         * @param value a whole number
+         * @return this Writer
+         */
+        public Writer value(long value) {
+            separate();
+            out.append(value);
+            needsComma = true;
+            return this;
+        }
+
+        /**
+         * @param value a number, written with at most three decimals
+         * @return this Writer
+         */
+        public Writer value(double value) {
+            separate();
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                out.append("null");
+            } else {
+                out.append(Math.round(value * 1000) / 1000.0);
+            }
+            needsComma = true;
+            return this;
+        }
+
+        /**
+         * @param value a boolean
+         * @return this Writer
+         */
+        public Writer value(boolean value) {
+            separate();
+            out.append(value);
+            needsComma = true;
+            return this;
+        }
+
+        private void separate() {
+            if (needsComma) {
+                out.append(',');
+            }
+        }
+
+        @Override
+        public String toString() {
+            return out.toString();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is a lock-free histogram of latencies, in the style of an HDR histogram.
+ * Values are counted in log-linear buckets: each power of two is split into 16 buckets,
+ * so a percentile is accurate to within about 6% whatever its size, in a fixed 960 counters.
+ * Recording a value is a few bit operations and one atomic increment, so it can be done
+ * on every request from any number of threads.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 5; // Values below 2^5 get one bucket each.
+    private static final int HALF = 1 << (SUB_BITS - 1); // The number of buckets per power of two.
+    private static final int BUCKETS = (63 - (SUB_BITS - 1)) * HALF + 2 * HALF;
+
+    private final AtomicLongArray counts; // The number of values in each bucket.
+    private final LongAdder count; // The number of values recorded.
+    private final LongAdder sum; // The sum of the values recorded.
+    private final LongAccumulator max; // The largest value recorded.
+
+    /**
+     * Constructs an empty LatencyHistogram.
+     */
+    public LatencyHistogram() {
+        counts = new AtomicLongArray(BUCKETS);
+        count = new LongAdder();
+        sum = new LongAdder();
+        max = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param value the value, e.g. a latency in nanoseconds; negative values are counted as 0
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the mean of the values recorded, or 0 if there are none
+     */
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * @return the largest value recorded, or 0 if there are none
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Finds the value below which a fraction of the recorded values fall.
+     * Values recorded while this runs may or may not be counted.
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return the highest value of the bucket holding the percentile, or 0 if there are no values
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Empties the histogram.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    /**
+     * Finds the bucket of a value. Values below 2^SUB_BITS have a bucket each; above that,
+     * the bucket is the position of the highest bit and the SUB_BITS - 1 bits below it.
+     */
+    private static int bucketOf(long value) {
+        if (value < 2 * HALF) {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BITS - 1);
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    private static long highestValueOf(int bucket) {
+        if (bucket < 2 * HALF) {
+            return bucket;
+        }
+        int shift = bucket / HALF - 1;
+        long mantissa = bucket % HALF + HALF;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
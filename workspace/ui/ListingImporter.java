@@ -0,0 +1,344 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+/**
+ * This class imports many listings for one business from a CSV file, e.g. a grocery chain's
+ * stock at the end of the day. Each row is one listing:
+ * name,price,days,category[,quantity]
+ * where days is the number of days until the item expires and quantity defaults to 1. A first row
+ * which starts with "name" is a header, and its columns may come in any order. Fields may be
+ * quoted with double quotes, e.g. to put a comma in a name.
+ *
+ * The file is streamed through a FileChannel, so it is never held in memory at once. Rows are read
+ * in batches of feedforward.import.batchRows; each batch is validated and turned into Listings in
+ * parallel, then added with App.addListings(), which journals it as one record and waits for one flush.
+ * Rows which are not valid are skipped and described in the Report, with their line numbers.
+ */
+public class ListingImporter {
+    static final int BATCH_ROWS = Integer.getInteger("feedforward.import.batchRows", 2000); // Rows added at a time.
+    static final int CHUNK_BYTES = 1 << 20; // The bytes read from the file at a time.
+    static final String[] CATEGORIES = {"Bakery", "Canned Food", "Dairy", "Meat", "Produce", "Other"}; // The categories of the GUI.
+    private static final String[] DEFAULT_COLUMNS = {"name", "price", "days", "category", "quantity"}; // Without a header.
+
+    private final App app; // The App the listings are added to.
+    private final String seller; // The username of the business which sells the listings.
+
+    /**
+     * The outcome of an import: how many listings were added, and why each skipped row was skipped.
+     */
+    public static class Report {
+        private int rows; // The number of rows read, not counting the header and blank lines.
+        private int imported; // The number of listings added.
+        private final List<String> errors = new ArrayList<>(); // One line per skipped row, e.g. "line 7: ...".
+        private long millis; // The time the import took.
+
+        /**
+         * @return the number of rows read, not counting the header and blank lines
+         */
+        public int getRows() {
+            return rows;
+        }
+
+        /**
+         * @return the number of listings added
+         */
+        public int getImported() {
+            return imported;
+        }
+
+        /**
+         * @return one line per skipped row, in file order, e.g. "line 7: price must be a number"
+         */
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        /**
+         * @return the time the import took, in milliseconds
+         */
+        public long getMillis() {
+            return millis;
+        }
+
+        /**
+         * @return a summary followed by every error, e.g. to save next to the imported file
+         */
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            text.append("Imported ").append(imported).append(" of ").append(rows).append(" rows in ")
+                    .append(millis).append(" ms").append(System.lineSeparator());
+            for (String error : errors) {
+                text.append(error).append(System.lineSeparator());
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * Constructs an importer for the business of a session.
+     *
+     * @param app the App the listings are added to
+     * @param session the session of the business which sells the listings
+     * @throws IllegalArgumentException if the User of the session is not a business
+     */
+    public ListingImporter(App app, Session session) {
+        if (!session.getUser().isBusiness()) {
+            throw new IllegalArgumentException("Only businesses can import listings");
+        }
+        this.app = app;
+        this.seller = session.getUser().getUsername();
+    }
+
+    /**
+     * Imports every valid row of a CSV file.
+     *
+     * @param file the CSV file
+     * @return the outcome of the import
+     * @throws IOException if the file can't be read; the batches before the error are kept
+     * @throws IllegalArgumentException if the file has a header without a name, price, days or category column
+     */
+    public Report importFile(Path file) throws IOException {
+        long start = System.nanoTime();
+        Report report = new Report();
+        Batch batch = new Batch(report);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_BYTES);
+            int lineNumber = 0;
+            boolean end = false;
+            while (!end) {
+                end = channel.read(buffer) < 0;
+                buffer.flip();
+                byte[] bytes = buffer.array();
+                int lineStart = buffer.position();
+                for (int i = lineStart; i < buffer.limit(); i++) {
+                    if (bytes[i] == '\n') {
+                        batch.add(++lineNumber, decode(bytes, lineStart, i));
+                        lineStart = i + 1;
+                    }
+                }
+                if (end && lineStart < buffer.limit()) { // the last line has no newline
+                    batch.add(++lineNumber, decode(bytes, lineStart, buffer.limit()));
+                    lineStart = buffer.limit();
+                }
+                buffer.position(lineStart);
+                buffer.compact();
+                if (!buffer.hasRemaining()) { // one line fills the buffer
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+                }
+            }
+        } finally {
+            batch.finish();
+            report.millis = (System.nanoTime() - start) / 1_000_000;
+        }
+        EventLog.info("Imported {} of {} rows for {} in {} ms", report.imported, report.rows, seller, report.millis);
+        return report;
+    }
+
+    private static String decode(byte[] bytes, int from, int to) {
+        if (to > from && bytes[to - 1] == '\r') {
+            to--;
+        }
+        return new String(bytes, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The rows read since the last batch was added, and the column order from the header.
+     */
+    private final class Batch {
+        private final Report report; // The report the outcome of each row goes in.
+        private final int[] lineNumbers = new int[BATCH_ROWS]; // The line number of each row.
+        private final String[] lines = new String[BATCH_ROWS]; // The text of each row.
+        private int size; // The number of rows in the batch.
+        private int[] columns; // The position of each of DEFAULT_COLUMNS in a row, -1 if missing, or null before the first row.
+
+        Batch(Report report) {
+            this.report = report;
+        }
+
+        /**
+         * Adds a line, treating the first one as a header if it starts with "name", and adds the batch once it is full.
+         */
+        void add(int lineNumber, String line) {
+            if (line.trim().isEmpty()) {
+                return;
+            }
+            if (columns == null) {
+                if (line.startsWith("\uFEFF")) { // the byte order mark some spreadsheets write
+                    line = line.substring(1);
+                }
+                List<String> fields = split(line);
+                if (!fields.isEmpty() && fields.get(0).trim().equalsIgnoreCase("name")) {
+                    columns = header(fields);
+                    return;
+                }
+                columns = new int[] {0, 1, 2, 3, 4};
+            }
+            report.rows++;
+            lineNumbers[size] = lineNumber;
+            lines[size] = line;
+            if (++size == BATCH_ROWS) {
+                finish();
+            }
+        }
+
+        /**
+         * Parses the rows of the batch in parallel and adds the valid ones as one batch.
+         */
+        void finish() {
+            if (size == 0) {
+                return;
+            }
+            int[] columns = this.columns;
+            Listing[] listings = new Listing[size];
+            String[] errors = new String[size];
+            IntStream.range(0, size).parallel().forEach(row -> {
+                try {
+                    listings[row] = parse(split(lines[row]), columns);
+                } catch (IllegalArgumentException e) {
+                    errors[row] = "line " + lineNumbers[row] + ": " + e.getMessage();
+                }
+            });
+            List<Listing> valid = new ArrayList<>(size);
+            for (int row = 0; row < size; row++) {
+                if (listings[row] != null) {
+                    valid.add(listings[row]);
+                } else {
+                    report.errors.add(errors[row]);
+                }
+            }
+            if (!valid.isEmpty()) {
+                report.imported += app.addListings(valid).size();
+            }
+            Arrays.fill(lines, 0, size, null);
+            size = 0;
+        }
+    }
+
+    /**
+     * Finds the position of each of DEFAULT_COLUMNS in a header row.
+     *
+     * @throws IllegalArgumentException if a required column is missing
+     */
+    private static int[] header(List<String> fields) {
+        int[] columns = new int[DEFAULT_COLUMNS.length];
+        Arrays.fill(columns, -1);
+        for (int i = 0; i < fields.size(); i++) {
+            String field = fields.get(i).trim().toLowerCase(Locale.ROOT);
+            for (int column = 0; column < DEFAULT_COLUMNS.length; column++) {
+                if (field.equals(DEFAULT_COLUMNS[column])) {
+                    columns[column] = i;
+                }
+            }
+        }
+        for (int column = 0; column < 4; column++) {
+            if (columns[column] < 0) {
+                throw new IllegalArgumentException("The header has no " + DEFAULT_COLUMNS[column] + " column");
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Validates a row and creates its Listing. The item is not shared with FoodItem.of(), as an
+     * imported row is rarely listed again.
+     *
+     * @throws IllegalArgumentException describing the first problem with the row
+     */
+    private Listing parse(List<String> fields, int[] columns) {
+        String name = field(fields, columns[0], "name");
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("name is empty");
+        }
+        double price;
+        int days;
+        int quantity = 1;
+        try {
+            price = Double.parseDouble(field(fields, columns[1], "price"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("price must be a number");
+        }
+        if (!(price >= 0) || Double.isInfinite(price)) {
+            throw new IllegalArgumentException("price must be at least 0");
+        }
+        try {
+            days = Integer.parseInt(field(fields, columns[2], "days"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("days must be a whole number");
+        }
+        if (days < 0) {
+            throw new IllegalArgumentException("days must be at least 0");
+        }
+        String category = category(field(fields, columns[3], "category"));
+        if (columns[4] >= 0 && columns[4] < fields.size() && !fields.get(columns[4]).trim().isEmpty()) {
+            try {
+                quantity = Integer.parseInt(fields.get(columns[4]).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("quantity must be a whole number");
+            }
+            if (quantity < 1) {
+                throw new IllegalArgumentException("quantity must be at least 1");
+            }
+        }
+        return new Listing(new FoodItem(name, price, category), seller, days, category, quantity);
+    }
+
+    private static String field(List<String> fields, int column, String name) {
+        if (column >= fields.size()) {
+            throw new IllegalArgumentException(name + " is missing");
+        }
+        return fields.get(column).trim();
+    }
+
+    /**
+     * Matches a category to one of CATEGORIES, ignoring case.
+     */
+    private static String category(String value) {
+        for (String category : CATEGORIES) {
+            if (category.equalsIgnoreCase(value)) {
+                return category;
+            }
+        }
+        throw new IllegalArgumentException("category must be one of " + String.join(", ", CATEGORIES));
+    }
+
+    /**
+     * Splits a CSV row into fields. A field in double quotes may contain commas, and "" inside it is a quote.
+     */
+    static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,150 @@
+import javax.swing.AbstractListModel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * This class is the model behind the browse screen's JList of listings.
+ * The JList only renders the rows which are visible, so the browse screen costs the same
+ * no matter how many listings there are. Rows are checked by listing ID, so checks survive
+ * filtering, and listings can be added or removed without rebuilding the whole model.
+ */
+public class ListingListModel extends AbstractListModel<Listing> {
+    private static final long serialVersionUID = 1L; // Swing models are Serializable, but this one is never saved.
+    private ArrayList<Listing> rows; // The listings which are shown, in order.
+    private Set<Integer> checkedIds; // The IDs of the listings which are checked.
+    private Predicate<Listing> filter; // The filter the shown listings match.
+
+    /**
+     * Constructs an empty ListingListModel which shows every listing.
+     */
+    public ListingListModel() {
+        rows = new ArrayList<>();
+        checkedIds = new HashSet<>();
+        filter = listing -> true;
+    }
+
+    /**
+     * Replaces the shown listings, e.g. after the filter changes.
+     *
+     * @param listings the listings to show
+     * @param filter the filter the listings match, used for listings added later
+     */
+    public void setListings(List<Listing> listings, Predicate<Listing> filter) {
+        int oldSize = rows.size();
+        rows = new ArrayList<>(listings);
+        this.filter = filter;
+        if (oldSize > 0) {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+        if (!rows.isEmpty()) {
+            fireIntervalAdded(this, 0, rows.size() - 1);
+        }
+    }
+
+    /**
+     * Appends a listing if it matches the current filter.
+     *
+     * @param listing the listing which was added
+     */
+    public void addListing(Listing listing) {
+        if (filter.test(listing)) {
+            rows.add(listing);
+            fireIntervalAdded(this, rows.size() - 1, rows.size() - 1);
+        }
+    }
+
+    /**
+     * Removes a listing if it is shown, and unchecks it.
+     *
+     * @param listing the listing which was removed
+     */
+    public void removeListing(Listing listing) {
+        checkedIds.remove(listing.getId());
+        for (int row = rows.size() - 1; row >= 0; row--) {
+            if (rows.get(row).getId() == listing.getId()) {
+                rows.remove(row);
+                fireIntervalRemoved(this, row, row);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes several listings in one pass.
+     *
+     * @param listings the listings which were removed
+     */
+    public void removeListings(Collection<Listing> listings) {
+        Set<Integer> ids = new HashSet<>();
+        for (Listing listing : listings) {
+            ids.add(listing.getId());
+        }
+        checkedIds.removeAll(ids);
+        int oldSize = rows.size();
+        if (rows.removeIf(listing -> ids.contains(listing.getId()))) {
+            fireIntervalRemoved(this, rows.size(), oldSize - 1);
+            fireContentsChanged(this, 0, Math.max(0, rows.size() - 1));
+        }
+    }
+
+    /**
+     * Checks the row if it is unchecked, and unchecks it if it is checked.
+     *
+     * @param row the row to toggle
+     */
+    public void toggle(int row) {
+        int id = rows.get(row).getId();
+        if (!checkedIds.remove(id)) {
+            checkedIds.add(id);
+        }
+        fireContentsChanged(this, row, row);
+    }
+
+    /**
+     * Unchecks every listing, e.g. once the checked ones are added to the cart, and redraws the rows.
+     */
+    public void uncheckAll() {
+        checkedIds.clear();
+        if (!rows.isEmpty()) {
+            fireContentsChanged(this, 0, rows.size() - 1);
+        }
+    }
+
+    /**
+     * @param listing a listing in the model
+     * @return true if the listing is checked
+     */
+    public boolean isChecked(Listing listing) {
+        return checkedIds.contains(listing.getId());
+    }
+
+    /**
+     * @return the shown listings which are checked, in the order they are shown
+     */
+    public List<Listing> getCheckedListings() {
+        List<Listing> checked = new ArrayList<>();
+        if (checkedIds.isEmpty()) {
+            return checked;
+        }
+        for (Listing listing : rows) {
+            if (checkedIds.contains(listing.getId())) {
+                checked.add(listing);
+            }
+        }
+        return checked;
+    }
+
+    @Override
+    public int getSize() {
+        return rows.size();
+    }
+
+    @Override
+    public Listing getElementAt(int index) {
+        return rows.get(index);
+    }
+}
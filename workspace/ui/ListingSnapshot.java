@@ -0,0 +1,272 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * This class reads and writes a compact binary snapshot of Listings.
+ * It replaces Serialization for savedListings.dat, which builds a full object graph per row.
+ *
+ * Layout (big-endian):
+ * header  [int magic "FFLS"][int version][int rowCount][int stringCount][long stringTableOffset]
+ *         [long generation] (from version 3, see FileManagement; versions 1 and 2 have generation 0)
+ * rows    rowCount fixed-width rows of ROW_BYTES:
+ *         [int id][double price][long dateAdded millis][int expiryDays]
+ *         [int name][int seller][int type][int item type] (indexes into the string table)
+ *         [int quantity] (from version 2; version 1 rows are 4 bytes shorter and hold one unit)
+ * strings stringCount entries of [int byteLength][UTF-8 bytes]
+ *
+ * The file is read through a MappedByteBuffer, so columns can be read per row
+ * without creating any objects, and each distinct string is decoded only once.
+ */
+public class ListingSnapshot {
+    static final int MAGIC = 0x46464C53; // "FFLS"
+    static final int VERSION = 3; // The current version of the format.
+    static final int HEADER_BYTES = 32; // The size of the header.
+    static final int VERSION_2_HEADER_BYTES = 24; // The size of the header of versions 1 and 2, which had no generation.
+    static final int ROW_BYTES = 44; // The size of one row.
+    static final int VERSION_1_ROW_BYTES = 40; // The size of one row of version 1, which had no quantity.
+
+    private final MappedByteBuffer buffer; // The mapped file.
+    private final int headerBytes; // The size of the header in this file.
+    private final int rowBytes; // The size of one row in this file.
+    private final long generation; // The generation of the file, see FileManagement.
+    private final int rowCount; // The number of listings in the file.
+    private final String[] strings; // The decoded string table.
+
+    /**
+     * Maps the snapshot with the specified file name and decodes its string table.
+     *
+     * @param fileName the snapshot file
+     * @throws IOException if the file cannot be read or is not a supported snapshot
+     */
+    public ListingSnapshot(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.capacity() < VERSION_2_HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException(fileName + " is not a listing snapshot");
+        }
+        int version = buffer.getInt(4);
+        if (version < 1 || version > VERSION) {
+            throw new IOException(fileName + " has unsupported snapshot version " + version);
+        }
+        headerBytes = version < 3 ? VERSION_2_HEADER_BYTES : HEADER_BYTES;
+        rowBytes = version == 1 ? VERSION_1_ROW_BYTES : ROW_BYTES;
+        generation = version < 3 ? 0 : buffer.getLong(24);
+        rowCount = buffer.getInt(8);
+        strings = new String[buffer.getInt(12)];
+
+        int position = (int) buffer.getLong(16);
+        for (int i = 0; i < strings.length; i++) {
+            int length = buffer.getInt(position);
+            byte[] bytes = new byte[length];
+            buffer.get(position + 4, bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            position += 4 + length;
+        }
+    }
+
+    /**
+     * @return the generation of the snapshot, which FileManagement uses to match it with its segment files
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return the number of listings in the snapshot
+     */
+    public int size() {
+        return rowCount;
+    }
+
+    /**
+     * @param row the row of the listing
+     * @return the ID of the listing
+     */
+    public int getId(int row) {
+        return buffer.getInt(offset(row));
+    }
+
+    /**
+     * @param row the row of the listing
+     * @return the price of the listing's item
+     */
+    public double getPrice(int row) {
+        return buffer.getDouble(offset(row) + 4);
+    }
+
+    /**
+     * @param row the row of the listing
+     * @return the time the listing was added, in milliseconds since the epoch
+     */
+    public long getDateAdded(int row) {
+        return buffer.getLong(offset(row) + 12);
+    }
+
+    /**
+     * @param row the row of the listing
+     * @return the number of days until the listing expires, counted from the date it was added
+     */
+    public int getExpiryDays(int row) {
+        return buffer.getInt(offset(row) + 20);
+    }
+
+    /**
+     * @param row the row of the listing
+     * @return the name of the listing's item
+     */
+    public String getName(int row) {
+        return strings[buffer.getInt(offset(row) + 24)];
+    }
+
+    /**
+     * @param row the row of the listing
+     * @return the seller of the listing
+     */
+    public String getSeller(int row) {
+        return strings[buffer.getInt(offset(row) + 28)];
+    }
+
+    /**
+     * @param row the row of the listing
+     * @return the type of the listing
+     */
+    public String getType(int row) {
+        return strings[buffer.getInt(offset(row) + 32)];
+    }
+
+    /**
+     * @param row the row of the listing
+     * @return the number of units of the listing which have not been sold
+     */
+    public int getQuantity(int row) {
+        return rowBytes == VERSION_1_ROW_BYTES ? 1 : buffer.getInt(offset(row) + 40);
+    }
+
+    /**
+     * Creates the Listing stored in the specified row.
+     *
+     * @param row the row of the listing
+     * @return the listing
+     */
+    public Listing getListing(int row) {
+        int offset = offset(row);
+        FoodItem item = new FoodItem(strings[buffer.getInt(offset + 24)], buffer.getDouble(offset + 4),
+                strings[buffer.getInt(offset + 36)]);
+        return new Listing(buffer.getInt(offset), item, strings[buffer.getInt(offset + 28)],
+                buffer.getLong(offset + 12), buffer.getInt(offset + 20), strings[buffer.getInt(offset + 32)],
+                getQuantity(row));
+    }
+
+    /**
+     * Creates every Listing in the snapshot.
+     *
+     * @return an ArrayList of all listings, in the order they were written
+     */
+    public ArrayList<Listing> toList() {
+        ArrayList<Listing> listings = new ArrayList<>(rowCount);
+        for (int row = 0; row < rowCount; row++) {
+            listings.add(getListing(row));
+        }
+        return listings;
+    }
+
+    private int offset(int row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + rowCount);
+        }
+        return headerBytes + row * rowBytes;
+    }
+
+    /**
+     * Writes listings to a snapshot file. The file is written to a temporary file first
+     * and moved over the old one once complete.
+     *
+     * @param listings the listings to write
+     * @param fileName the snapshot file
+     * @param generation the generation of the snapshot, see FileManagement
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(List<Listing> listings, String fileName, long generation) throws IOException {
+        HashMap<String, Integer> stringIndexes = new HashMap<>();
+        ArrayList<String> stringTable = new ArrayList<>();
+        ByteBuffer rows = ByteBuffer.allocate(listings.size() * ROW_BYTES);
+
+        for (Listing listing : listings) {
+            FoodItem item = listing.getItem();
+            rows.putInt(listing.getId());
+            rows.putDouble(item.getPrice());
+            rows.putLong(listing.getDateAddedMillis());
+            rows.putInt(listing.getExpiryDays());
+            rows.putInt(stringIndex(item.getName(), stringIndexes, stringTable));
+            rows.putInt(stringIndex(listing.getSeller(), stringIndexes, stringTable));
+            rows.putInt(stringIndex(listing.getType(), stringIndexes, stringTable));
+            rows.putInt(stringIndex(item.getType(), stringIndexes, stringTable));
+            rows.putInt(listing.getQuantity());
+        }
+
+        Path target = Paths.get(fileName);
+        Path temp = Paths.get(fileName + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(listings.size());
+            out.writeInt(stringTable.size());
+            out.writeLong(HEADER_BYTES + (long) rows.capacity());
+            out.writeLong(generation);
+            out.write(rows.array());
+            for (String string : stringTable) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int stringIndex(String string, HashMap<String, Integer> indexes, ArrayList<String> table) {
+        if (string == null) {
+            string = "";
+        }
+        Integer index = indexes.get(string);
+        if (index == null) {
+            index = table.size();
+            indexes.put(string, index);
+            table.add(string);
+        }
+        return index;
+    }
+
+    /**
+     * Checks whether a file is a binary listing snapshot, as opposed to a legacy serialized ArrayList.
+     *
+     * @param fileName the file to check
+     * @return true if the file starts with the snapshot magic number
+     */
+    public static boolean isSnapshot(String fileName) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(fileName))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * This class is a registry of the App's operational metrics: counters, e.g. bytes written to disk,
+ * gauges, e.g. the number of listings, and latency histograms, e.g. of placing an order.
+ * Counters are LongAdders and histograms are LatencyHistograms, so recording is lock-free and
+ * cheap enough to leave on; callers look a metric up once and keep it, rather than by name each time.
+ *
+ * Once registered, every metric can be read over JMX as an attribute of one MBean, with each
+ * histogram split into count, mean, p50, p99, p99.9 and max attributes, and the registry can
+ * print the same values as a table at a fixed period.
+ */
+public class Metrics implements DynamicMBean {
+    private static final String[] LATENCY_FIELDS = {"count", "meanMicros", "p50Micros", "p99Micros", "p999Micros",
+            "maxMicros"}; // The attributes each histogram is exposed as, after its name and a dot.
+
+    private final ConcurrentHashMap<String, LongAdder> counters; // The counters, keyed by name.
+    private final ConcurrentHashMap<String, LongSupplier> gauges; // The gauges, keyed by name.
+    private final ConcurrentHashMap<String, LatencyHistogram> latencies; // The latencies in nanoseconds, keyed by name.
+    private ObjectName registeredAs; // The name of the MBean while it is registered, or null.
+    private ScheduledExecutorService dumper; // The thread which prints the report, once started.
+
+    /**
+     * Constructs an empty registry which is not registered with JMX.
+     */
+    public Metrics() {
+        counters = new ConcurrentHashMap<>();
+        gauges = new ConcurrentHashMap<>();
+        latencies = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Finds a counter, creating it the first time.
+     *
+     * @param name the name of the counter, e.g. "journal.bytesWritten"
+     * @return the counter
+     */
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    /**
+     * Finds a latency histogram, creating it the first time. Values are recorded in nanoseconds.
+     *
+     * @param name the name of the histogram, e.g. "App.placeOrder"
+     * @return the histogram
+     */
+    public LatencyHistogram latency(String name) {
+        return latencies.computeIfAbsent(name, k -> new LatencyHistogram());
+    }
+
+    /**
+     * Adds a gauge, whose value is read each time it is reported. Replaces any gauge with the same name.
+     *
+     * @param name the name of the gauge, e.g. "listings"
+     * @param value reads the current value; it is called from the reporting thread, so must be thread-safe
+     */
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Registers the registry with the platform MBean server as feedforward:type=Metrics,name=name.
+     * If another registry already has the name, e.g. a second App in the same JVM, a number is added to it.
+     *
+     * @param name the name of the MBean, e.g. the data directory of the App
+     */
+    public synchronized void register(String name) {
+        if (registeredAs != null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (int attempt = 1; registeredAs == null; attempt++) {
+            try {
+                ObjectName objectName = new ObjectName("feedforward:type=Metrics,name="
+                        + ObjectName.quote(attempt == 1 ? name : name + "-" + attempt));
+                server.registerMBean(this, objectName);
+                registeredAs = objectName;
+            } catch (InstanceAlreadyExistsException e) {
+                // try the next number
+            } catch (JMException e) {
+                EventLog.warn("Error registering metrics with JMX: {}", e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Logs the report at a fixed period on a background thread, until stop() is called.
+     *
+     * @param periodMillis the time between reports
+     */
+    public synchronized void startDump(long periodMillis) {
+        if (dumper != null) {
+            return;
+        }
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> EventLog.info("{}", report().trim()), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops printing the report and unregisters the MBean. Recording carries on.
+     */
+    public synchronized void stop() {
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dumper = null;
+        }
+        if (registeredAs != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredAs);
+            } catch (JMException e) {
+                EventLog.warn("Error unregistering metrics from JMX: {}", e);
+            }
+            registeredAs = null;
+        }
+    }
+
+    /**
+     * Writes every metric as a table, counters and gauges first, then the histograms.
+     *
+     * @return the metrics as text
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Metrics%n"));
+        for (Map.Entry<String, Long> entry : values().entrySet()) {
+            report.append(String.format("%-36s %14d%n", entry.getKey(), entry.getValue()));
+        }
+        report.append(String.format("%-36s %10s %9s %9s %9s %9s %9s%n",
+                "operation", "count", "mean us", "p50 us", "p99 us", "p99.9 us", "max us"));
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(latencies).entrySet()) {
+            LatencyHistogram latency = entry.getValue();
+            report.append(String.format("%-36s %10d %9.1f %9d %9d %9d %9d%n",
+                    entry.getKey(), latency.getCount(), latency.getMean() / 1000,
+                    latency.getPercentile(50) / 1000, latency.getPercentile(99) / 1000,
+                    latency.getPercentile(99.9) / 1000, latency.getMax() / 1000));
+        }
+        return report.toString();
+    }
+
+    /**
+     * @return the current value of every counter and gauge, by name
+     */
+    private TreeMap<String, Long> values() {
+        TreeMap<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().sum());
+        }
+        for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+        return values;
+    }
+
+    /**
+     * Reads one attribute: a counter, a gauge, or a field of a histogram, e.g. "App.placeOrder.p99Micros".
+     */
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        LongAdder counter = counters.get(attribute);
+        if (counter != null) {
+            return counter.sum();
+        }
+        LongSupplier gauge = gauges.get(attribute);
+        if (gauge != null) {
+            return gauge.getAsLong();
+        }
+        int dot = attribute.lastIndexOf('.');
+        LatencyHistogram latency = dot < 0 ? null : latencies.get(attribute.substring(0, dot));
+        if (latency != null) {
+            switch (attribute.substring(dot + 1)) {
+                case "count":
+                    return latency.getCount();
+                case "meanMicros":
+                    return latency.getMean() / 1000;
+                case "p50Micros":
+                    return latency.getPercentile(50) / 1000;
+                case "p99Micros":
+                    return latency.getPercentile(99) / 1000;
+                case "p999Micros":
+                    return latency.getPercentile(99.9) / 1000;
+                case "maxMicros":
+                    return latency.getMax() / 1000;
+                default:
+                    break;
+            }
+        }
+        throw new AttributeNotFoundException("No metric " + attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // skipped, as the interface allows
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Metrics are read-only.
+     */
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metric " + attribute.getName() + " is read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    /**
+     * Supports one operation, "report", which returns the text report.
+     */
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if ("report".equals(actionName)) {
+            return report();
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    /**
+     * Describes the metrics registered so far, so metrics added later appear when a JMX client reconnects.
+     */
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (String name : values().keySet()) {
+            attributes.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+        }
+        for (String name : new TreeMap<>(latencies).keySet()) {
+            for (String field : LATENCY_FIELDS) {
+                String type = field.equals("meanMicros") ? "double" : "long";
+                attributes.add(new MBeanAttributeInfo(name + "." + field, type, name + " latency, " + field,
+                        true, false, false));
+            }
+        }
+        MBeanOperationInfo report = new MBeanOperationInfo("report", "Writes every metric as a table",
+                new MBeanParameterInfo[0], "java.lang.String", MBeanOperationInfo.INFO);
+        return new MBeanInfo(Metrics.class.getName(), "FeedForward operational metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[] {report}, null);
+    }
+}
@@ -0,0 +1,100 @@
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * This class periodically marks down the prices of listings near their expiry date in the background,
+ * following the markdown curve each business sets (see MarkdownCurve).
+ * Each pass reprices every listing of a ListingIndex at once with ListingIndex.reprice(), which
+ * splits the work across the common ForkJoinPool and publishes the new prices all together,
+ * so browsing never waits for a pass and never sees half of one.
+ */
+public class PricingEngine {
+    private final ListingIndex listingIndex; // The listings which are repriced.
+    private final Function<String, MarkdownCurve> curves; // Looks up the markdown curve of a seller, or null.
+    private final long periodMillis; // The time between passes.
+    private ScheduledExecutorService timer; // The thread which runs each pass.
+    private volatile long lastPassMillis = -1; // The time the last pass took, in milliseconds, or -1 before the first.
+    private volatile int markedDown; // The number of listings marked down by the last pass.
+
+    /**
+     * Constructs a PricingEngine which has not been started.
+     *
+     * @param listingIndex the listings which are repriced
+     * @param curves looks up the markdown curve of a seller by name, returning null for fixed prices
+     * @param periodMillis the time between passes
+     */
+    public PricingEngine(ListingIndex listingIndex, Function<String, MarkdownCurve> curves, long periodMillis) {
+        this.listingIndex = listingIndex;
+        this.curves = curves;
+        this.periodMillis = periodMillis;
+    }
+
+    /**
+     * Starts repricing, beginning with an immediate pass.
+     */
+    public synchronized void start() {
+        if (timer != null) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "pricing-engine");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(() -> reprice(System.currentTimeMillis()), 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs an extra pass as soon as possible, e.g. once a business changes its curve.
+     * Does nothing if the engine is not started.
+     */
+    public synchronized void requestPass() {
+        if (timer != null) {
+            timer.execute(() -> reprice(System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Stops repricing. A pass which is running finishes.
+     */
+    public synchronized void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+    }
+
+    /**
+     * Reprices every listing once. The curves are looked up once per seller, not once per listing.
+     *
+     * @param now the current time, in milliseconds since the epoch
+     * @return the number of listings which are marked down
+     */
+    public int reprice(long now) {
+        long start = System.nanoTime();
+        MarkdownCurve[] bySeller = new MarkdownCurve[StringDictionary.SELLERS.size()];
+        for (int code = 0; code < bySeller.length; code++) {
+            bySeller[code] = curves.apply(StringDictionary.SELLERS.decode(code));
+        }
+        int count = listingIndex.reprice(bySeller, now);
+        markedDown = count;
+        lastPassMillis = (System.nanoTime() - start) / 1_000_000;
+        return count;
+    }
+
+    /**
+     * @return the time the last pass took, in milliseconds, or -1 before the first pass
+     */
+    public long getLastPassMillis() {
+        return lastPassMillis;
+    }
+
+    /**
+     * @return the number of listings marked down by the last pass
+     */
+    public int getMarkedDownCount() {
+        return markedDown;
+    }
+}
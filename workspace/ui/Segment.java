@@ -0,0 +1,48 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * This class holds the changes to one saved collection since it was last saved: the entries
+ * which were added or changed, in their latest state, and the keys of the entries which were
+ * removed (see FileManagement.keyOf). FileManagement writes each Segment to a segment file of
+ * its own next to the collection's file, so a save costs the size of the changes instead of
+ * the size of the collection.
+ */
+public class Segment implements Serializable {
+    private static final long serialVersionUID = 1L; //Pinned so segment files stay readable as the class changes.
+    private final ArrayList<Object> changed; //The entries which were added or changed.
+    private final ArrayList<Object> removed; //The keys of the entries which were removed.
+
+    /**
+     * Constructs a Segment.
+     *
+     * @param changed the entries which were added or changed
+     * @param removed the keys of the entries which were removed
+     */
+    public Segment(Collection<?> changed, Collection<?> removed) {
+        this.changed = new ArrayList<>(changed);
+        this.removed = new ArrayList<>(removed);
+    }
+
+    /**
+     * @return the entries which were added or changed
+     */
+    public ArrayList<Object> getChanged() {
+        return changed;
+    }
+
+    /**
+     * @return the keys of the entries which were removed
+     */
+    public ArrayList<Object> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return the number of entries which were changed or removed
+     */
+    public int size() {
+        return changed.size() + removed.size();
+    }
+}
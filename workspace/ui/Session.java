@@ -0,0 +1,132 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * This class is the state of one logged-in User: who they are and what is in their cart.
+ * Each client of the App (the GUI, or each login to the API server) has its own Session,
+ * so many Users can shop at once without sharing a cart. The cart is guarded by the
+ * Session itself, so Sessions never wait for each other.
+ * The cart holds Reservations rather than items, so the units in it can't be sold to
+ * anyone else until they are ordered or the reservations expire.
+ * A Session remembers when it was last used, so the App can close Sessions which clients
+ * abandon without logging out.
+ */
+public class Session {
+    private final String token; //Identifies the Session to API clients.
+    private final User user; //The User who logged in.
+    private ArrayList<Reservation> cart; //The units the User has reserved, until they place an order.
+    private volatile long lastAccess; //The time the Session was last used, in milliseconds since the epoch.
+
+    /**
+     * Constructs a Session with an empty cart.
+     *
+     * @param token the token which identifies the Session
+     * @param user the User who logged in
+     */
+    public Session(String token, User user) {
+        this.token = token;
+        this.user = user;
+        this.cart = new ArrayList<>();
+        this.lastAccess = System.currentTimeMillis();
+    }
+
+    /**
+     * Notes that the Session is being used.
+     *
+     * @param now the current time, in milliseconds since the epoch
+     */
+    public void touch(long now) {
+        lastAccess = now;
+    }
+
+    /**
+     * @param now the current time, in milliseconds since the epoch
+     * @param ttlMillis the time a Session may go unused
+     * @return true if the Session has not been used for longer than ttlMillis
+     */
+    public boolean isIdle(long now, long ttlMillis) {
+        return now - lastAccess > ttlMillis;
+    }
+
+    /**
+     * @return the token which identifies the Session
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * @return the User who logged in
+     */
+    public User getUser() {
+        return user;
+    }
+
+    /**
+     * Adds a reservation to the cart.
+     *
+     * @param reservation the reservation, whose units have already been reserved
+     */
+    public synchronized void addReservation(Reservation reservation) {
+        cart.add(reservation);
+    }
+
+    /**
+     * Lists the items in the cart, one per reserved unit. Reservations which have expired
+     * or been returned are dropped from the cart.
+     *
+     * @param now the current time, in milliseconds since the epoch
+     * @return a copy of the items in the cart
+     */
+    public List<FoodItem> getItems(long now) {
+        return getItems(now, Listing::getItem);
+    }
+
+    /**
+     * Lists the items in the cart at the prices they would be ordered at, e.g. marked down ones.
+     * Reservations which have expired or been returned are dropped from the cart.
+     *
+     * @param now the current time, in milliseconds since the epoch
+     * @param pricing looks up the item of a listing at its current price, e.g. App.getPricedItem()
+     * @return a copy of the items in the cart
+     */
+    public synchronized List<FoodItem> getItems(long now, Function<Listing, FoodItem> pricing) {
+        cart.removeIf(reservation -> reservation.isSettled() || reservation.isExpired(now));
+        List<FoodItem> items = new ArrayList<>();
+        for (Reservation reservation : cart) {
+            FoodItem item = pricing.apply(reservation.getListing());
+            for (int i = 0; i < reservation.getUnits(); i++) {
+                items.add(item);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Hands over the reservations in the cart to be ordered and starts a new cart.
+     *
+     * @return the reservations, which may include expired ones
+     */
+    public synchronized List<Reservation> checkout() {
+        List<Reservation> ordered = cart;
+        cart = new ArrayList<>();
+        return ordered;
+    }
+
+    /**
+     * Returns the units of every reservation in the cart and empties it, e.g. when the Session is closed.
+     *
+     * @return the number of reservations which were returned
+     */
+    public synchronized int releaseAll() {
+        int released = 0;
+        for (Reservation reservation : cart) {
+            if (reservation.release()) {
+                released++;
+            }
+        }
+        cart.clear();
+        return released;
+    }
+}
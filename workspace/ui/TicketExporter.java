@@ -0,0 +1,313 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * This class writes placed orders out of the App for partners, either as CSV with one row per
+ * ordered item (ticket_id,placed_at,item,category,price) or as a JSON array with one object per
+ * ticket. Orders can be filtered by the time they were placed and by category, and the setters
+ * return the exporter so they can be chained, e.g.
+ * new TicketExporter(Format.CSV).placedBetween(from, to).category("Dairy").
+ *
+ * Tickets are read one at a time from wherever they are kept, e.g. the App's TicketStore, without
+ * copying them into a list, and each one is encoded straight into a buffer of BUFFER_BYTES which
+ * is written to the channel whenever it fills. The memory an export needs is the same for a
+ * thousand tickets as for millions.
+ *
+ * Usage: java TicketExporter directory file [from] [to] [category]
+ * where the format follows the file's extension (.json, otherwise CSV) and from and to are dates
+ * such as 2026-10-17, inclusive and exclusive, in the local time zone.
+ */
+public class TicketExporter {
+    static final int BUFFER_BYTES = 64 * 1024; // The bytes encoded before they are written to the channel.
+
+    /**
+     * The layout of an export.
+     */
+    public enum Format {
+        CSV, JSON
+    }
+
+    private final Format format; // The layout of the export.
+    private long placedFrom = Long.MIN_VALUE; // The earliest matching order time, inclusive.
+    private long placedTo = Long.MAX_VALUE; // The latest matching order time, exclusive.
+    private String category; // The category of the items which are exported, or null for every item.
+
+    /**
+     * Constructs an exporter of every ticket and item.
+     *
+     * @param format the layout of the export
+     */
+    public TicketExporter(Format format) {
+        this.format = format;
+    }
+
+    /**
+     * Only exports tickets placed in a range of time. Tickets saved before the time of an order was
+     * kept have no time, and are left out.
+     *
+     * @param from the earliest matching order time, inclusive, in milliseconds since the epoch
+     * @param to the latest matching order time, exclusive, in milliseconds since the epoch
+     * @return this exporter
+     */
+    public TicketExporter placedBetween(long from, long to) {
+        placedFrom = from;
+        placedTo = to;
+        return this;
+    }
+
+    /**
+     * Only exports the items of a category, and the tickets which have at least one of them.
+     *
+     * @param category the category, ignoring case, or null for every item
+     * @return this exporter
+     */
+    public TicketExporter category(String category) {
+        this.category = category;
+        return this;
+    }
+
+    /**
+     * Writes the matching tickets and their items to a channel, which is left open.
+     *
+     * @param tickets the tickets, e.g. TicketStore.view(); they are only iterated once
+     * @param out where the export is written
+     * @return the number of tickets written
+     * @throws IOException if the channel can't be written to
+     */
+    public int export(Iterable<Ticket> tickets, WritableByteChannel out) throws IOException {
+        long start = System.nanoTime();
+        Output output = new Output(out);
+        StringBuilder text = output.text;
+        boolean dated = placedFrom != Long.MIN_VALUE || placedTo != Long.MAX_VALUE;
+        List<FoodItem> items = new ArrayList<>();
+        int written = 0;
+        long itemCount = 0;
+
+        text.append(format == Format.CSV ? "ticket_id,placed_at,item,category,price\n" : "[");
+        for (Ticket ticket : tickets) {
+            long placedAt = ticket.getPlacedAt();
+            if (dated && (placedAt == 0 || placedAt < placedFrom || placedAt >= placedTo)) {
+                continue;
+            }
+            items.clear();
+            for (FoodItem item : ticket.getCart().getItems()) {
+                if (category == null || category.equalsIgnoreCase(item.getType())) {
+                    items.add(item);
+                }
+            }
+            if (items.isEmpty() && category != null) {
+                continue;
+            }
+            if (format == Format.CSV) {
+                writeCsv(text, ticket, items);
+            } else {
+                writeJson(text, ticket, items, written > 0);
+            }
+            written++;
+            itemCount += items.size();
+            output.write();
+        }
+        if (format == Format.JSON) {
+            text.append(written > 0 ? "\n]\n" : "]\n");
+        }
+        output.close();
+        EventLog.info("Exported {} tickets with {} items in {} ms", written, itemCount,
+                (System.nanoTime() - start) / 1_000_000);
+        return written;
+    }
+
+    /**
+     * Writes one CSV row per item of a ticket. The ticket's ID and time are formatted once and copied to each row.
+     */
+    private static void writeCsv(StringBuilder text, Ticket ticket, List<FoodItem> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        int prefixStart = text.length();
+        csvField(text, ticket.getTicketId()).append(',');
+        appendTime(text, ticket.getPlacedAt()).append(',');
+        int prefixEnd = text.length();
+        for (int i = 0; i < items.size(); i++) {
+            FoodItem item = items.get(i);
+            if (i > 0) {
+                text.append(text, prefixStart, prefixEnd);
+            }
+            csvField(text, item.getName()).append(',');
+            csvField(text, item.getType()).append(',');
+            appendPrice(text, item.getPrice()).append('\n');
+        }
+    }
+
+    /**
+     * Writes a ticket as one JSON object on a line of its own, with its items and their total.
+     */
+    private static void writeJson(StringBuilder text, Ticket ticket, List<FoodItem> items, boolean afterAnother) {
+        text.append(afterAnother ? ",\n" : "\n").append("{\"ticketId\":");
+        Json.quote(text, ticket.getTicketId());
+        text.append(",\"placedAt\":");
+        if (ticket.getPlacedAt() == 0) {
+            text.append("null");
+        } else {
+            appendTime(text.append('"'), ticket.getPlacedAt()).append('"');
+        }
+        text.append(",\"items\":[");
+        long total = 0;
+        for (int i = 0; i < items.size(); i++) {
+            FoodItem item = items.get(i);
+            text.append(i > 0 ? ",{\"name\":" : "{\"name\":");
+            Json.quote(text, item.getName());
+            text.append(",\"category\":");
+            Json.quote(text, item.getType());
+            appendPrice(text.append(",\"price\":"), item.getPrice()).append('}');
+            total += ListingQuery.toCents(item.getPrice());
+        }
+        appendCents(text.append("],\"total\":"), total).append('}');
+    }
+
+    /**
+     * Writes a field, in double quotes if it contains a comma, a quote or a line break.
+     */
+    private static StringBuilder csvField(StringBuilder text, String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return text.append(value);
+        }
+        text.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                text.append('"');
+            }
+            text.append(c);
+        }
+        return text.append('"');
+    }
+
+    /**
+     * Writes a time as an ISO-8601 instant in UTC, e.g. 2026-10-18T14:55:04.361Z, or nothing if it is 0.
+     */
+    private static StringBuilder appendTime(StringBuilder text, long millis) {
+        if (millis != 0) {
+            DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(millis), text);
+        }
+        return text;
+    }
+
+    private static StringBuilder appendPrice(StringBuilder text, double price) {
+        return appendCents(text, ListingQuery.toCents(price));
+    }
+
+    /**
+     * Writes an amount in cents as dollars with two decimals, e.g. 1205 as 12.05.
+     */
+    private static StringBuilder appendCents(StringBuilder text, long cents) {
+        if (cents < 0) {
+            text.append('-');
+            cents = -cents;
+        }
+        text.append(cents / 100).append('.');
+        long rest = cents % 100;
+        return text.append(rest < 10 ? "0" : "").append(rest);
+    }
+
+    /**
+     * Encodes the text of each ticket as UTF-8 into a fixed buffer, writing the buffer to the
+     * channel whenever it fills, so neither grows with the size of the export.
+     */
+    private static final class Output {
+        private final WritableByteChannel channel; // Where the export is written.
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES); // The bytes not yet written.
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder(); // Turns the text into bytes.
+        private final StringBuilder text = new StringBuilder(1024); // The text of the current ticket.
+        private char[] chars = new char[1024]; // The text copied out, as the encoder reads arrays much faster.
+
+        Output(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Encodes the text into the buffer and clears it.
+         */
+        void write() throws IOException {
+            if (chars.length < text.length()) {
+                chars = new char[Math.max(text.length(), chars.length * 2)];
+            }
+            text.getChars(0, text.length(), chars, 0);
+            CharBuffer input = CharBuffer.wrap(chars, 0, text.length());
+            while (true) {
+                CoderResult result = encoder.encode(input, buffer, false);
+                if (result.isOverflow()) {
+                    drain();
+                } else if (result.isUnderflow()) {
+                    break;
+                } else {
+                    result.throwException();
+                }
+            }
+            text.setLength(0);
+            if (text.capacity() > BUFFER_BYTES) { // don't keep a huge ticket's text around
+                text.trimToSize();
+                chars = new char[1024];
+            }
+        }
+
+        /**
+         * Writes the rest of the text and every byte still in the buffer.
+         */
+        void close() throws IOException {
+            write();
+            while (encoder.encode(CharBuffer.allocate(0), buffer, true).isOverflow()) {
+                drain();
+            }
+            while (encoder.flush(buffer).isOverflow()) {
+                drain();
+            }
+            drain();
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: java TicketExporter directory file [from] [to] [category]");
+            return;
+        }
+        Path file = Paths.get(args[1]);
+        boolean json = file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".json");
+        TicketExporter exporter = new TicketExporter(json ? Format.JSON : Format.CSV);
+        if (args.length > 2) {
+            ZoneId zone = ZoneId.systemDefault();
+            long from = LocalDate.parse(args[2]).atStartOfDay(zone).toInstant().toEpochMilli();
+            long to = args.length > 3 ? LocalDate.parse(args[3]).atStartOfDay(zone).toInstant().toEpochMilli()
+                    : Long.MAX_VALUE;
+            exporter.placedBetween(from, to);
+        }
+        if (args.length > 4) {
+            exporter.category(args[4]);
+        }
+        App app = new App(args[0]);
+        app.manageData(true);
+        app.exportTickets(exporter, file);
+        app.shutdown();
+    }
+}
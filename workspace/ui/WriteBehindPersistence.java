@@ -0,0 +1,229 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * This class writes journal records and snapshots on a dedicated writer thread,
+ * so the thread which makes a mutation (e.g. the Swing event thread) never waits on disk.
+ * Records which arrive while the writer is busy are written and committed together,
+ * so a burst of mutations costs a single commit. The queue is bounded: when it is full,
+ * submitting waits for room instead of dropping the record.
+ */
+public class WriteBehindPersistence {
+    static final int MAX_BATCH = 4096; // The most queued tasks written in one batch.
+    private static final long RETRY_MILLIS = 500; // The wait before retrying a failed commit.
+
+    private final Journal journal; // The journal records are appended to.
+    private final BlockingQueue<Object> queue; // Encoded records, snapshots and flush markers, in order.
+    private final Thread writer; // The thread which writes the queue.
+    private volatile boolean closed; // True once close() has been called.
+
+    /**
+     * A snapshot of the data, written by the writer thread, after which the journal is truncated.
+     */
+    private static final class Snapshot {
+        private final BooleanSupplier save; // Saves the data, returning true if all of it was saved.
+
+        Snapshot(BooleanSupplier save) {
+            this.save = save;
+        }
+    }
+
+    /**
+     * Constructs a WriteBehindPersistence and starts its writer thread.
+     *
+     * @param journal the journal records are appended to
+     * @param capacity the largest number of tasks which may wait in the queue
+     */
+    public WriteBehindPersistence(Journal journal, int capacity) {
+        this.journal = journal;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writer = new Thread(this::run, "write-behind");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues an encoded journal record. Waits for room if the queue is full.
+     *
+     * @param record the record, encoded with Journal.encode()
+     */
+    public void submit(byte[] record) {
+        enqueue(record);
+    }
+
+    /**
+     * Queues a snapshot. Once it is written the journal is truncated, so the snapshot
+     * must save every mutation submitted before it, e.g. with FileManagement.saveChanges.
+     *
+     * @param save saves copies of the data (or of the changes to it), returning true if all of it was saved
+     */
+    public void submitSnapshot(BooleanSupplier save) {
+        enqueue(new Snapshot(save));
+    }
+
+    /**
+     * Queues a flush marker.
+     *
+     * @return a future which completes once every task submitted before it is durable
+     */
+    public CompletableFuture<Void> flush() {
+        CompletableFuture<Void> flushed = new CompletableFuture<>();
+        enqueue(flushed);
+        return flushed;
+    }
+
+    /**
+     * Waits until every task submitted so far is durable.
+     *
+     * @param timeout the longest time to wait
+     * @param unit the unit of timeout
+     * @return true if everything was written in time
+     */
+    public boolean awaitFlushed(long timeout, TimeUnit unit) {
+        try {
+            flush().get(timeout, unit);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the number of tasks waiting to be written
+     */
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Writes everything which is queued, stops the writer thread and closes the journal.
+     */
+    public void close() {
+        awaitFlushed(1, TimeUnit.MINUTES);
+        closed = true;
+        writer.interrupt();
+        try {
+            writer.join(TimeUnit.MINUTES.toMillis(1));
+            journal.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            EventLog.warn("Error closing journal: {}", e);
+        }
+    }
+
+    private void enqueue(Object task) {
+        if (closed) {
+            throw new IllegalStateException("Persistence is closed");
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(task);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true; // keep waiting, the record must not be lost
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The writer loop: takes everything which is queued, writes it in order and commits once.
+     */
+    private void run() {
+        ArrayList<Object> batch = new ArrayList<>();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Object first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                continue; // close() interrupts the writer, which then drains the queue
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+
+            ArrayList<CompletableFuture<?>> flushed = new ArrayList<>();
+            for (Object task : batch) {
+                if (task instanceof byte[]) {
+                    appendRecord((byte[]) task);
+                } else if (task instanceof Snapshot) {
+                    writeSnapshot((Snapshot) task);
+                } else {
+                    flushed.add((CompletableFuture<?>) task);
+                }
+            }
+            while (!commit()) {
+                pause();
+            }
+            for (CompletableFuture<?> future : flushed) {
+                future.complete(null);
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Appends a record to the journal. If its group cannot be written the record is still
+     * pending in the journal, so only the commit is retried.
+     */
+    private void appendRecord(byte[] record) {
+        try {
+            journal.appendEncoded(record);
+        } catch (IOException e) {
+            EventLog.warn("Error writing journal, retrying: {}", e);
+            while (!commit()) {
+                pause();
+            }
+        }
+    }
+
+    private boolean commit() {
+        try {
+            journal.commit();
+            return true;
+        } catch (IOException e) {
+            EventLog.warn("Error committing journal, retrying: {}", e);
+            return false;
+        }
+    }
+
+    /**
+     * Writes a snapshot and truncates the journal. If the snapshot cannot be written the
+     * journal is kept, so nothing is lost, and it is folded into the next snapshot instead.
+     */
+    private void writeSnapshot(Snapshot snapshot) {
+        while (!commit()) {
+            pause();
+        }
+        if (snapshot.save.getAsBoolean()) {
+            try {
+                journal.truncate();
+            } catch (IOException e) {
+                EventLog.warn("Error truncating journal: {}", e);
+            }
+        }
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(RETRY_MILLIS);
+        } catch (InterruptedException e) {
+            // close() interrupts the writer; keep retrying so no record is lost
+        }
+    }
+}